@@ -0,0 +1,130 @@
+package benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.net.DatagramSocket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import datastreamer.MarkersEncoder;
+import optitrack.NatNetGenerator;
+import optitrack.NatNetParser;
+import optitrack.OptitrackData;
+import udpixxatdatastreamer.UDPIXXATDataStreamer;
+
+/**
+ * Micro benchmarks of the hot parts of the streaming pipeline. For each operation
+ * it reports mean time (ns/op) and bytes allocated by the benchmark thread (B/op).<br>
+ * <ul>
+ * <li>Coda and Optitrack markers packing</li>
+ * <li>NatNet frame of data parsing, on small, medium and large scenes</li>
+ * <li>{@link UDPIXXATDataStreamer#update(byte[])} to a loopback socket, with and without NIO</li>
+ * </ul>
+ * Command line arguments :
+ * <ul>
+ * <li>-iterations : default 1000000. Number of measured iterations per benchmark (UDP benchmarks use a tenth)</li>
+ * <li>-udpport : default 15100. Loopback port used by UDP benchmarks (and next port)</li>
+ * </ul>
+ * For instance :
+ * java -cp bin:libs/* benchmark.PipelineBenchmarks -iterations 2000000
+ * @author fbuloup
+ */
+public class PipelineBenchmarks {
+
+	public final static String iterationsToken = "-iterations";
+	public final static String udpPortToken = "-udpport";
+
+	private static int iterations = 1000000;
+	private static int udpPort = 15100;
+
+	private final static com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	private static long blackhole;
+
+	private interface Operation {
+		void run() throws Throwable;
+	}
+
+	public static void main(String[] args) throws Throwable {
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].toLowerCase().equalsIgnoreCase(iterationsToken)) iterations = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(udpPortToken)) udpPort = Integer.parseInt(args[i+1]);
+		}
+
+		System.out.println(String.format("%-45s %12s %12s", "Benchmark", "ns/op", "B/op"));
+
+		benchmarkMarkersEncoding("Coda markers packing", 4, 10);
+		benchmarkMarkersEncoding("Coda markers packing", 28, 10);
+		benchmarkMarkersEncoding("Coda markers packing", 56, 10);
+		benchmarkMarkersEncoding("Optitrack markers packing", 2, 1000);
+		benchmarkMarkersEncoding("Optitrack markers packing", 32, 1000);
+
+		benchmarkNatNetParsing("NatNet parsing small scene", 1, 10, 0, 0);
+		benchmarkNatNetParsing("NatNet parsing medium scene", 4, 50, 10, 100);
+		benchmarkNatNetParsing("NatNet parsing large scene", 20, 300, 40, 1000);
+
+		benchmarkUDPUpdate(false, 4);
+		benchmarkUDPUpdate(false, 56);
+		benchmarkUDPUpdate(true, 4);
+		benchmarkUDPUpdate(true, 56);
+
+		System.out.println("(" + blackhole + ")");
+	}
+
+	private static void benchmarkMarkersEncoding(String name, int nbMarkers, float scale) throws Throwable {
+		float[] positions = new float[3*nbMarkers];
+		byte[] visibilities = new byte[nbMarkers];
+		for (int i = 0; i < positions.length; i++) positions[i] = 100.5f*i;
+		for (int i = 0; i < visibilities.length; i++) visibilities[i] = (byte) (i%2);
+		byte[] bytesBuffer = new byte[8*nbMarkers];
+		measure(name + " (" + nbMarkers + " markers)", iterations, new Operation() {
+			byte frameID;
+			public void run() {
+				MarkersEncoder.encode((byte)0, frameID++, positions, visibilities, nbMarkers, scale, bytesBuffer);
+				blackhole += bytesBuffer[8*nbMarkers - 1];
+			}
+		});
+	}
+
+	private static void benchmarkNatNetParsing(String name, int nbMarkerSets, int nbUnlabeledMarkers, int nbRigidBodies, int nbLabeledMarkers) throws Throwable {
+		ByteBuffer packet = ByteBuffer.allocate(NatNetGenerator.MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		NatNetGenerator.writeFrameOfData(packet, 1234, 0, nbMarkerSets, nbUnlabeledMarkers, nbRigidBodies, nbLabeledMarkers);
+		packet.flip();
+		OptitrackData.initMarkers(Math.min(4, nbUnlabeledMarkers));
+		measure(name + " (" + packet.limit() + " bytes)", iterations, new Operation() {
+			public void run() {
+				packet.rewind();
+				if(NatNetParser.parseFrameOfData(packet, 0)) blackhole += OptitrackData.frameID;
+			}
+		});
+	}
+
+	private static void benchmarkUDPUpdate(boolean useNIO, int nbMarkers) throws Throwable {
+		DatagramSocket receiver = new DatagramSocket(udpPort + 1);
+		String[] args = new String[] {UDPIXXATDataStreamer.udpClientIPToken, "127.0.0.1",
+				UDPIXXATDataStreamer.udpSourcePortToken, Integer.toString(udpPort),
+				UDPIXXATDataStreamer.udpDestinationPortToken, Integer.toString(udpPort + 1),
+				UDPIXXATDataStreamer.udpUseNIOToken, Boolean.toString(useNIO)};
+		UDPIXXATDataStreamer udpStreamer = new UDPIXXATDataStreamer(args);
+		byte[] bytesBuffer = new byte[8*nbMarkers];
+		measure("UDP update " + (useNIO ? "NIO" : "socket") + " (" + bytesBuffer.length + " bytes)", iterations/10, new Operation() {
+			public void run() {
+				udpStreamer.update(bytesBuffer);
+			}
+		});
+		udpStreamer.dispose();
+		receiver.close();
+	}
+
+	private static void measure(String name, int nbIterations, Operation operation) throws Throwable {
+		// Warm up
+		for (int i = 0; i < nbIterations; i++) operation.run();
+		long threadID = Thread.currentThread().getId();
+		long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadID);
+		long time = System.nanoTime();
+		for (int i = 0; i < nbIterations; i++) operation.run();
+		time = System.nanoTime() - time;
+		allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadID) - allocatedBytes;
+		System.out.println(String.format("%-45s %12.1f %12.2f", name, (double)time/nbIterations, (double)allocatedBytes/nbIterations));
+	}
+
+}
@@ -0,0 +1,240 @@
+package datastreamer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import udpixxatdatastreamer.DataObserver;
+
+/**
+ * Runs a {@link DataObserver} on its own worker thread, so that a slow observer
+ * (blocking CAN write, log file...) never delays {@link DataStreamer} dispatcher.<br>
+ * Frames are copied into a bounded, pre-allocated single-producer single-consumer queue.
+ * When the queue is full, {@link OverflowPolicy} tells whether dispatcher waits for room,
+ * drops the newest frame or drops the oldest queued frame. Dropped frames are counted.<br>
+ * Observer is only called by worker thread, frames of unknown source included. It is flushed when queue is empty, at most every {@link #FLUSH_PERIOD} ns.
+ * @author fbuloup
+ */
+public final class AsyncObserver implements DataObserver {
+
+	public enum OverflowPolicy {
+		BLOCK, DROP_NEWEST, DROP_OLDEST;
+
+		/**
+		 * @param value block, dropnewest or dropoldest, case insensitive
+		 * @return matching policy
+		 */
+		public static OverflowPolicy parse(String value) {
+			for (OverflowPolicy overflowPolicy : values()) {
+				if(overflowPolicy.name().replace("_", "").equalsIgnoreCase(value)) return overflowPolicy;
+			}
+			throw new IllegalArgumentException("Unknown overflow policy : " + value);
+		}
+	}
+
+	// Worker yields this number of times on an empty queue before parking
+	private final static int IDLE_SPINS = 100;
+	private final static long IDLE_PARK_TIME = 50000;
+	// Minimum time between two flushes of observer
+	private final static long FLUSH_PERIOD = 1000000;
+
+	private final DataObserver observer;
+	private final OverflowPolicy overflowPolicy;
+	private final int capacity;
+	private final int mask;
+	private final byte[][][] frames;
+	// Frames of unknown source, reallocated only when a frame length changes
+	private final byte[][] unknownSourceFrames;
+	private final DataSource[] sources;
+	private final int[] frameSequences;
+	private final long[] acquisitionTimes;
+	// Worker own copy of frame being notified, queue slot may be reused meanwhile
+	private final byte[][] workerFrames;
+	private byte[] workerUnknownSourceFrame = new byte[0];
+	private final Thread worker;
+
+	// Next sequence to notify, also advanced by dispatcher when it drops oldest frame
+	private final AtomicLong head = new AtomicLong();
+	// Next sequence to write, only written by dispatcher
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	private volatile boolean running = true;
+
+	/**
+	 * Wrap an observer and start its worker thread.
+	 * @param observer observer to notify asynchronously
+	 * @param minimumCapacity minimum number of queued frames. Rounded up to next power of two.
+	 * @param frameLengths frame length of each source, indexed by {@link DataSource#ordinal()}
+	 * @param overflowPolicy what to do when queue is full
+	 */
+	public AsyncObserver(DataObserver observer, int minimumCapacity, int[] frameLengths, OverflowPolicy overflowPolicy) {
+		this.observer = observer;
+		this.overflowPolicy = overflowPolicy;
+		int size = 1;
+		while(size < minimumCapacity) size <<= 1;
+		capacity = size;
+		mask = size - 1;
+		frames = new byte[capacity][frameLengths.length][];
+		for (int i = 0; i < capacity; i++) {
+			for (int j = 0; j < frameLengths.length; j++) frames[i][j] = new byte[frameLengths[j]];
+		}
+		unknownSourceFrames = new byte[capacity][0];
+		sources = new DataSource[capacity];
+		frameSequences = new int[capacity];
+		acquisitionTimes = new long[capacity];
+		workerFrames = new byte[frameLengths.length][];
+		for (int j = 0; j < frameLengths.length; j++) workerFrames[j] = new byte[frameLengths[j]];
+		worker = new Thread(observer.getClass().getSimpleName() + " worker") {
+			public void run() {
+				notifyObserver();
+			}
+		};
+		worker.setDaemon(true);
+		worker.setPriority(Thread.MAX_PRIORITY);
+		worker.start();
+	}
+
+	/**
+	 * Queue a frame of unknown source, observer is notified with {@link DataObserver#update(byte[])}.
+	 * Only waits when queue is full and policy is {@link OverflowPolicy#BLOCK}.
+	 */
+	@Override
+	public void update(byte[] bytesBuffer) {
+		long sequence = claim();
+		if(sequence < 0) return;
+		int slot = (int) (sequence & mask);
+		if(unknownSourceFrames[slot].length != bytesBuffer.length) unknownSourceFrames[slot] = new byte[bytesBuffer.length];
+		System.arraycopy(bytesBuffer, 0, unknownSourceFrames[slot], 0, bytesBuffer.length);
+		sources[slot] = null;
+		tail.lazySet(sequence + 1);
+	}
+
+	/**
+	 * Queue frame, without sequence number nor acquisition time.
+	 */
+	@Override
+	public void update(DataSource source, byte[] bytesBuffer) {
+		update(source, 0, 0, bytesBuffer);
+	}
+
+	/**
+	 * Queue frame. Only waits when queue is full and policy is {@link OverflowPolicy#BLOCK}.
+	 */
+	@Override
+	public void update(DataSource source, int frameSequence, long acquisitionTime, byte[] bytesBuffer) {
+		long sequence = claim();
+		if(sequence < 0) return;
+		int slot = (int) (sequence & mask);
+		byte[] slotFrame = frames[slot][source.ordinal()];
+		System.arraycopy(bytesBuffer, 0, slotFrame, 0, slotFrame.length);
+		sources[slot] = source;
+		frameSequences[slot] = frameSequence;
+		acquisitionTimes[slot] = acquisitionTime;
+		tail.lazySet(sequence + 1);
+	}
+
+	/**
+	 * Does nothing : observer is only used by worker thread, which flushes it when queue is empty.
+	 */
+	@Override
+	public void flush() {
+	}
+
+	/**
+	 * Make room for next frame, according to overflow policy.
+	 * @return sequence of next frame, -1 if it is dropped
+	 */
+	private long claim() {
+		long sequence = tail.get();
+		while(sequence - head.get() >= capacity) {
+			if(overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+				droppedFrames.incrementAndGet();
+				return -1;
+			}
+			if(overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+				long oldest = head.get();
+				if(sequence - oldest >= capacity && head.compareAndSet(oldest, oldest + 1)) droppedFrames.incrementAndGet();
+			} else Thread.yield();
+		}
+		return sequence;
+	}
+
+	private void notifyObserver() {
+		int idleCount = 0;
+		long lastFlushTime = System.nanoTime();
+		while(true) {
+			long sequence = head.get();
+			if(sequence >= tail.get()) {
+				if(!running) break;
+				long time = System.nanoTime();
+				if(time - lastFlushTime >= FLUSH_PERIOD) {
+					lastFlushTime = time;
+					try {
+						observer.flush();
+					} catch (Throwable e) {
+						e.printStackTrace();
+					}
+				}
+				if(idleCount++ < IDLE_SPINS) Thread.yield();
+				else LockSupport.parkNanos(IDLE_PARK_TIME);
+				continue;
+			}
+			idleCount = 0;
+			int slot = (int) (sequence & mask);
+			DataSource source = sources[slot];
+			byte[] workerFrame;
+			if(source == null) {
+				byte[] unknownSourceFrame = unknownSourceFrames[slot];
+				if(workerUnknownSourceFrame.length != unknownSourceFrame.length) workerUnknownSourceFrame = new byte[unknownSourceFrame.length];
+				workerFrame = workerUnknownSourceFrame;
+				System.arraycopy(unknownSourceFrame, 0, workerFrame, 0, workerFrame.length);
+			} else {
+				workerFrame = workerFrames[source.ordinal()];
+				System.arraycopy(frames[slot][source.ordinal()], 0, workerFrame, 0, workerFrame.length);
+			}
+			int frameSequence = frameSequences[slot];
+			long acquisitionTime = acquisitionTimes[slot];
+			// Fails if dispatcher dropped this frame while it was copied
+			if(head.compareAndSet(sequence, sequence + 1)) {
+				try {
+					if(source == null) observer.update(workerFrame);
+					else observer.update(source, frameSequence, acquisitionTime, workerFrame);
+				} catch (Throwable e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Notify queued frames then stop worker thread.
+	 */
+	public void dispose() {
+		running = false;
+		try {
+			worker.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public DataObserver getObserver() {
+		return observer;
+	}
+
+	public OverflowPolicy getOverflowPolicy() {
+		return overflowPolicy;
+	}
+
+	/**
+	 * @return number of frames waiting for worker
+	 */
+	public int getSize() {
+		return (int) (tail.get() - head.get());
+	}
+
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+}
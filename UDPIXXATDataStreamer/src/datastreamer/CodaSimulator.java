@@ -0,0 +1,221 @@
+package datastreamer;
+
+import java.util.concurrent.locks.LockSupport;
+
+import com.codamotion.system.Align;
+import com.codamotion.system.CODANETClient;
+import com.codamotion.system.CodaError;
+import com.codamotion.system.FrameData;
+import com.codamotion.system.Mode;
+
+/**
+ * Pure Java stand-in for a CX1 unit, used for load testing without Codamotion hardware
+ * nor CodaServerSimulate.<br>
+ * It implements {@link CODANETClient} calls used by {@link DataStreamer} without any network access.
+ * Frames are produced at mode frame rate (100, 120, 200, 400 or 800 Hz divided by decimation)
+ * from acquisition start, for up to 56 markers. Trajectories are deterministic : each marker
+ * follows its own ellipse, so that position only depends on frame number and marker index.<br>
+ * Visibility dropouts can be simulated : frames of each marker are split in blocks of dropout length
+ * and each block is invisible with dropout rate probability (deterministic pseudo random draw).
+ * @author fbuloup
+ */
+public class CodaSimulator extends CODANETClient {
+
+	public final static int MAX_MARKERS = 56;
+
+	private final static int[] FRAME_RATES = new int[] {100, 120, 200, 400, 800};
+
+	private final float dropoutRate;
+	private final int dropoutLength;
+
+	private int frameRate = 100;
+	private int decimation = 1;
+	private int maxMarker = 1;
+
+	private boolean connected;
+	private boolean acqPrepared;
+	private volatile boolean acqInProgress;
+	private long acqStartTime;
+	private int acqStartFrame;
+	private int lastGrabbedFrame;
+
+	/**
+	 * @param dropoutRate probability, between 0 and 1, that a marker is invisible during a dropout block
+	 * @param dropoutLength number of frames of a dropout block
+	 */
+	public CodaSimulator(float dropoutRate, int dropoutLength) {
+		this.dropoutRate = Math.max(0, Math.min(1, dropoutRate));
+		this.dropoutLength = Math.max(1, dropoutLength);
+	}
+
+	@Override
+	public synchronized void connect(String serverIP) throws CodaError {
+		connected = true;
+	}
+
+	@Override
+	public synchronized void disconnect() throws CodaError {
+		connected = false;
+	}
+
+	@Override
+	public synchronized void startup(String configuration) throws CodaError {
+		checkConnected();
+	}
+
+	@Override
+	public synchronized void shutdown() throws CodaError {
+		acqInProgress = false;
+		acqPrepared = false;
+	}
+
+	@Override
+	public synchronized void modeSet(Mode mode) throws CodaError {
+		checkConnected();
+		int markerMode = mode.getMarkerMode();
+		if(markerMode < 0 || markerMode >= FRAME_RATES.length) throw new CodaError("Invalid marker mode : " + markerMode);
+		if(mode.getMaxMarker() < 1 || mode.getMaxMarker() > MAX_MARKERS) throw new CodaError("Invalid number of markers : " + mode.getMaxMarker());
+		frameRate = FRAME_RATES[markerMode];
+		decimation = Math.max(1, mode.getDecimation());
+		maxMarker = mode.getMaxMarker();
+	}
+
+	@Override
+	public synchronized float getRateMarker() throws CodaError {
+		return (float)frameRate/decimation;
+	}
+
+	@Override
+	public synchronized int getNumMarkers() throws CodaError {
+		return maxMarker;
+	}
+
+	@Override
+	public synchronized void acqSetSaveMode(int saveMode) throws CodaError {
+	}
+
+	@Override
+	public synchronized void autoGrab(boolean autoGrab) throws CodaError {
+	}
+
+	@Override
+	public synchronized void alignmentClear() throws CodaError {
+		checkConnected();
+	}
+
+	@Override
+	public synchronized boolean isAligned() throws CodaError {
+		return connected;
+	}
+
+	@Override
+	public synchronized void align(Align align) throws CodaError {
+		checkConnected();
+	}
+
+	@Override
+	public synchronized void acqPrepare() throws CodaError {
+		checkConnected();
+		acqPrepared = true;
+	}
+
+	@Override
+	public synchronized void framePrepare() throws CodaError {
+		checkConnected();
+	}
+
+	@Override
+	public synchronized void acqStart(int maxFrames) throws CodaError {
+		if(!acqPrepared) throw new CodaError("Acquisition not prepared");
+		// Frame numbers keep on increasing after a pause, as with CX1 unit
+		acqStartFrame = lastGrabbedFrame;
+		acqStartTime = System.nanoTime();
+		acqInProgress = true;
+	}
+
+	@Override
+	public synchronized void acqStop() throws CodaError {
+		acqInProgress = false;
+	}
+
+	@Override
+	public synchronized boolean acqInProgress() throws CodaError {
+		return acqInProgress;
+	}
+
+	@Override
+	public synchronized void acqBufferUpdate() throws CodaError {
+	}
+
+	/**
+	 * Grab latest frame. If it has already been grabbed, wait until next one is due,
+	 * as real unit would not return a new frame before.
+	 */
+	@Override
+	public synchronized void frameGrab() throws CodaError {
+		if(!acqInProgress) throw new CodaError("Acquisition not started");
+		long framePeriod = 1000000000L*decimation/frameRate;
+		long elapsedTime = System.nanoTime() - acqStartTime;
+		int frame = acqStartFrame + (int) (elapsedTime/framePeriod);
+		if(frame == lastGrabbedFrame) {
+			LockSupport.parkNanos(framePeriod - elapsedTime%framePeriod);
+			frame++;
+		}
+		lastGrabbedFrame = frame;
+	}
+
+	/**
+	 * Fill frame data with last grabbed frame. Data and valid arrays of frame data are reused
+	 * when their length fit its number of channels.
+	 */
+	@Override
+	public synchronized void frameGetMarker(FrameData frameData) throws CodaError {
+		int channelStart = frameData.getChannelStart();
+		int numChannels = frameData.getNumChannels();
+		if(channelStart < 0 || channelStart + numChannels > MAX_MARKERS) throw new CodaError("Invalid channels : " + channelStart + " to " + (channelStart + numChannels - 1));
+		float[] data = frameData.getData();
+		if(data == null || data.length != 3*numChannels) {
+			data = new float[3*numChannels];
+			frameData.setData(data);
+		}
+		byte[] valid = frameData.getValid();
+		if(valid == null || valid.length != numChannels) {
+			valid = new byte[numChannels];
+			frameData.setValid(valid);
+		}
+		int frame = lastGrabbedFrame;
+		for (int i = 0; i < numChannels; i++) {
+			int marker = channelStart + i;
+			valid[i] = (byte) (isVisible(frame, marker) ? 1 : 0);
+			getPosition(frame, marker, data, 3*i);
+		}
+		frameData.setFrame(frame);
+	}
+
+	/**
+	 * Position (mm) of a marker at a given frame : an ellipse of its own radius and period,
+	 * travelled at mode frame rate.
+	 */
+	void getPosition(int frame, int marker, float[] position, int offset) {
+		double t = (double)frame*decimation/frameRate;
+		double omega = 2*Math.PI/(1 + 0.25*marker);
+		position[offset] = (float) (-1500 + 50*marker + 400*Math.cos(omega*t));
+		position[offset + 1] = (float) (300*Math.sin(omega*t));
+		position[offset + 2] = (float) (1000 + 100*Math.sin(2*omega*t));
+	}
+
+	boolean isVisible(int frame, int marker) {
+		if(dropoutRate == 0) return true;
+		long block = frame/dropoutLength;
+		long hash = (block*0x9E3779B97F4A7C15L) ^ ((marker + 1)*0xC2B2AE3D27D4EB4FL);
+		hash ^= hash >>> 31;
+		hash *= 0x94D049BB133111EBL;
+		hash ^= hash >>> 29;
+		return (hash >>> 40)/(double)(1L << 24) >= dropoutRate;
+	}
+
+	private void checkConnected() throws CodaError {
+		if(!connected) throw new CodaError("Not connected to server");
+	}
+
+}
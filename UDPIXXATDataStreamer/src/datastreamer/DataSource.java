@@ -0,0 +1,13 @@
+package datastreamer;
+
+/**
+ * Systems that can produce frames in {@link DataStreamer}.<br>
+ * Each enabled source is acquired by its own producer thread.
+ * @author fbuloup
+ */
+public enum DataSource {
+	CODA,
+	XSENS,
+	TIME_STAMP,
+	OPTITRACK;
+}
@@ -1,20 +1,12 @@
 package datastreamer;
 
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintWriter;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.InetSocketAddress;
-import java.net.MulticastSocket;
-import java.net.NetworkInterface;
-import java.net.SocketTimeoutException;
+import java.io.PrintStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.concurrent.locks.LockSupport;
 
 import com.codamotion.system.Align;
 import com.codamotion.system.CODANETClient;
@@ -23,15 +15,22 @@ import com.codamotion.system.FrameData;
 import com.codamotion.system.Mode;
 import com.sun.jna.WString;
 
+import optitrack.NatNetParser;
+import optitrack.NatNetReceiver;
 import optitrack.OptitrackData;
+import session.SessionReader;
 import udpixxatdatastreamer.DataObserver;
+import udpixxatdatastreamer.DataObserverAdapter;
+import udpixxatdatastreamer.FrameObserver;
 import udpixxatdatastreamer.UDPIXXATDataStreamer;
 
 /**
  * This is the main class that is responsible to run continuous acquisition
  * on Coda or Optitrack or xsens unit or time server. <br>It retrieves each 
  * frame and send its values to any registered
- * observer (these observers must implement DataObserver interface) .
+ * observer (these observers must implement DataObserver interface, or 
+ * FrameObserver interface to get frames without copy with their source, sequence
+ * number and acquisition time) .
  * Each sent frame can have up to 64 bits pattern.<br><br>
  * 
  * CODA or OPTITRACK SYTEM :<br>
@@ -41,7 +40,7 @@ import udpixxatdatastreamer.UDPIXXATDataStreamer;
  * b7b6 are system code on two bits : 00 for coda or optitrack<br>
  * b5 is visibility bit<br>
  * b4b3b2b1b0 are sensor number (max 32)<br>
- * SECOND BYTE : frameID<br>
+ * SECOND BYTE : frameID, device frame number modulo 256 (a jump tells frames lost before streamer)<br>
  * THIRD AND FOURTH BYTES : X sensor value<br>
  * FIFTH AND SIXTH : Y sensor value<br>
  * SEVENTH AND NINTH : Z sensor value<br><br>
@@ -59,7 +58,20 @@ import udpixxatdatastreamer.UDPIXXATDataStreamer;
  * b7b6 are system code on two bits : 10 for time stamp - 
  * b5b4b3b2b1b0 : hours on five bits, b5 is always zero<br>
  * SECOND BYTE : minutes on six bits, b7 and b6 are always zero<br>
+ * THIRD BYTE : seconds on six bits, b7 and b6 are always zero<br><br>
+ * 
+ * With millisecond or microsecond resolution, time stamp frame is 8 bytes long : <br>
+ * FIRST BYTE : b7b6 b5 b4b3b2b1b0 - 
+ * b7b6 are system code on two bits : 10 for time stamp - 
+ * b5 is always one - 
+ * b4b3b2b1b0 : hours on five bits<br>
+ * SECOND BYTE : b7 is resolution : 0 for millisecond, 1 for microsecond - b6 is always zero - 
+ * b5b4b3b2b1b0 : minutes on six bits<br>
  * THIRD BYTE : seconds on six bits, b7 and b6 are always zero<br>
+ * FOURTH, FIFTH AND SIXTH BYTES : milliseconds (0 to 999) or microseconds (0 to 999999) in second, 
+ * most significant byte first<br>
+ * SEVENTH AND EIGHTH BYTES : tick number modulo 65536, most significant byte first. A missed tick
+ * (time stamp thread late by more than a period) shows as a gap<br>
  * 
  * @author fbuloup
  */
@@ -82,8 +94,11 @@ public class DataStreamer extends Thread {
 	public final static String simulModeToken = "-simulmode";
 	public final static String doAlignmentToken = "-doalignment";
 	public final static String displayMarkersInvisibilityToken = "-displaymarkersinvisibility";
+	public final static String codaSimulatorToken = "-codasimulator";
+	public final static String codaSimulatorDropoutRateToken = "-codasimulatordropoutrate";
+	public final static String codaSimulatorDropoutLengthToken = "-codasimulatordropoutlength";
 	
-	private final static CODANETClient codaUnit = new CODANETClient();
+	private static CODANETClient codaUnit = new CODANETClient();
 	private final static Mode codaUnitMode = new Mode();
 	private final static FrameData frame = new FrameData();
 	
@@ -93,30 +108,33 @@ public class DataStreamer extends Thread {
 	private static int firstMarkerIndex = 1;
 	private static int framesNumber = -1;
 	private static boolean autoGrab = true;
-	private static float[] codaValues;
+	private static volatile float[] codaValues;
 	private static byte[] codaVisibilities;
 	
 	private static int codaLastFrameID;
 	private static int codaFrameID;
-	private static byte frameID;
 	private static int codaLastFrameIDFromBufferUpdate;
-	
-	private static int[] framesIDs;
-	private static long[] framesTimes;
+	private static volatile int codaNbBufferUpdates;
 	
 	private static byte[] codaBytesBuffer = new byte[8];
 	
-	private static ArrayList<DataObserver> observers = new ArrayList<DataObserver>(0);
+	// Data observers are notified through a DataObserverAdapter
+	private static ArrayList<FrameObserver> observers = new ArrayList<FrameObserver>(0);
 	
-	private static boolean pause = false;
-	private static boolean display = false;
+	private static volatile boolean pause = false;
+	private static volatile boolean display = false;
 
 	private static XSensLibrary xSens;
 	
 	private static byte codaSystemCode = 0;
+	// Coda positions (mm) are sent in tenths of millimeter
+	private final static float CODA_SCALE = 10;
 	
 	private static boolean simulMode = false;
 	private static boolean displayMarkersInvisibility = false;
+	private static boolean useCodaSimulator = false;
+	private static float codaSimulatorDropoutRate = 0;
+	private static int codaSimulatorDropoutLength = 10;
 	
 	
 	/*
@@ -130,11 +148,9 @@ public class DataStreamer extends Thread {
 	
 	private static byte[] xsensBytesBuffer = new byte[7];
 	
-	private static short xsensAccX;
-	private static short xsensAccY;
-	private static short xsensGyroZ;
-
-	private static long lastTimeStamp;
+	private static volatile short xsensAccX;
+	private static volatile short xsensAccY;
+	private static volatile short xsensGyroZ;
 
 	private static byte xSensSystemCode = 1;
 	
@@ -142,12 +158,11 @@ public class DataStreamer extends Thread {
 	 * Time stamp
 	 */
 	public final static String timeStampSampleFrequencyToken = "-timestampsamplefrequency";
+	public final static String timeStampResolutionToken = "-timestampresolution";
 
 	private static int timeStampSampleFrequency;
-	
-	private static byte hours;
-	private static byte minutes;
-	private static byte seconds;
+	private static TimeStampEncoder.Resolution timeStampResolution = TimeStampEncoder.Resolution.SECOND;
+	private static TimeStampEncoder timeStampEncoder;
 	
 	private static byte[] timeStampBytesBuffer = new byte[3];
 	
@@ -157,8 +172,6 @@ public class DataStreamer extends Thread {
 	 * Optitrack
 	 */
 	
-	private final static int NAT_FRAMEOFDATA = 7;
-	
 	public final static String useMulticastToken = "-usemulticast";
 	public final static String optitrackNbUnlabeledMarkersToken = "-optitracknbunlabeledmarkers";
 	public final static String optitrackUDPServerIPToken = "-optitrackudpclientip";
@@ -166,6 +179,7 @@ public class DataStreamer extends Thread {
 	public final static String optitrackUDPCommandPortToken = "-optitrackudpcommandport";
 	public final static String optitrackfirstMarkerIndexToken = "-optitrackfirstmarkerindex";
 	public final static String optitrackMulticastIPToken = "-optitrackmulticastip";
+	public final static String optitrackFrameRateToken = "-optitrackframerate";
 	
 	private static boolean optitrackUseMulticast = true;
 	private static int optitrackNbUnlabeledMarkers = 0;
@@ -174,24 +188,101 @@ public class DataStreamer extends Thread {
 	private static int optitrackUDPCommandPort = 1510;	
 	private static int optitrackFirstMarkerIndex = 0;
 	private static String optitrackMulticastIP = "239.255.42.99";
+	// Frame rate is set in Motive, only used to estimate CAN bus load
+	private static int optitrackFrameRate = 120;
 	
 	
 	private static byte optitrackSystemCode = 0;
+	// Optitrack positions (m) are sent in millimeters
+	private final static float OPTITRACK_SCALE = 1000;
 	private static byte[] optitrackBytesBuffer = new byte[7];
-	private static DatagramSocket optitrackDgSocketData;
-	private static DatagramSocket optitrackDgSocketCommand;
-	private static byte[] optitrackReceiveBytesBuffer = new byte[128*1024];
-	private DatagramPacket optitrackDatagramPacket;
+	private final static long OPTITRACK_SELECT_TIMEOUT = 100;
+	private static NatNetReceiver optitrackReceiver;
+	private static ByteBuffer optitrackReceiveByteBuffer;
+	
+	/*
+	 * Replay
+	 */
+	public final static String replaySessionToken = "-replaysession";
+	public final static String replaySpeedToken = "-replayspeed";
+	
+	private static String replaySessionFileName;
+	// 1 : original timing, N : N times faster, 0 : as fast as possible
+	private static double replaySpeed = 1;
+	private static int[] replayFrameLengths = new int[DataSource.values().length];
+	private static volatile boolean replayFinished;
+	
+	/*
+	 * Producers
+	 */
+	private final static int RING_BUFFER_CAPACITY = 4096;
+	private final static long PRODUCER_JOIN_TIMEOUT = 2000;
+	
+	private static FramesRingBuffer framesRingBuffer;
+	private final ArrayList<SourceProducer> producers = new ArrayList<SourceProducer>(0);
+	private volatile Throwable producerError;
+	
+	/*
+	 * Frames layout : V1 is CAN compatible, V2 extends markers frames with float32 coordinates
+	 */
+	public final static String wireFormatToken = "-wireformat";
+	
+	private static WireFormat wireFormat = WireFormat.V1;
+	// V2 coordinates are in millimeters
+	private final static float CODA_MILLIMETER_SCALE = 1;
+	private final static float OPTITRACK_MILLIMETER_SCALE = 1000;
+	
+	/*
+	 * Scheduling : producers wait for next expected sample, dispatcher waits for next frame
+	 */
+	public final static String waitStrategyToken = "-waitstrategy";
+	public final static String waitMarginToken = "-waitmargin";
+	
+	// Default must leave cores idle between samples, see setWaitStrategy
+	private static WaitStrategy waitStrategy = WaitStrategy.PARK;
+	// Producers wait until this time (ns) before expected sample, then poll
+	private static long waitMargin = 200000;
+	// Park time of a producer polling for a late sample
+	private final static long PRODUCER_PARK_TIME = 50000;
+	// Park time of dispatcher waiting for a frame, producers wake it up when they publish
+	private final static long DISPATCHER_PARK_TIME = 1000000;
+	// Minimum time between two flushes of observers by dispatcher waiting for a frame
+	private final static long FLUSH_PERIOD = 1000000;
 	
 	/*
-	 * Other
+	 * Asynchronous observers
 	 */
-	private static long lastTimeStampDisplay;
-	private static boolean doDisplay;
+	public final static String asyncObserversToken = "-asyncobservers";
+	public final static String observerQueueCapacityToken = "-observerqueuecapacity";
+	public final static String observerOverflowPolicyToken = "-observeroverflowpolicy";
+	
+	private static boolean asyncObservers = false;
+	private static int observerQueueCapacity = 1024;
+	private static AsyncObserver.OverflowPolicy observerOverflowPolicy = AsyncObserver.OverflowPolicy.DROP_OLDEST;
 	
-	private static short xValue;
-	private static short yValue ;
-	private static short zValue ;
+	/*
+	 * Statistics
+	 */
+	public final static String statisticsFileToken = "-statisticsfile";
+	public final static String statisticsPeriodToken = "-statisticsperiod";
+	
+	private static String statisticsFileName = null;
+	private static int statisticsPeriod = 10;
+	private final static SourceStatistics[] statistics = new SourceStatistics[DataSource.values().length];
+	// JMX counters of each source
+	private final static SourceMonitor[] sourceMonitors = new SourceMonitor[DataSource.values().length];
+	static {
+		for (DataSource source : DataSource.values()) {
+			statistics[source.ordinal()] = new SourceStatistics(source);
+			sourceMonitors[source.ordinal()] = new SourceMonitor(statistics[source.ordinal()]);
+		}
+	}
+	
+	/*
+	 * Console display : rendered by its own thread from a snapshot published by dispatcher
+	 */
+	private final static long DISPLAY_PERIOD = 2000;
+	private static StatusSnapshot statusSnapshot;
 	
 	/**
 	 * See {@link UDPIXXATDataStreamer#main(String[])} for details.
@@ -230,6 +321,9 @@ public class DataStreamer extends Thread {
 	 * <li>-udpdestinationport : default udpsourceport</li>
 	 * <li>-framesNumber : default -1. Number of frames to send before stopping streaming. Specifying -1 means infinite streaming.</li>
 	 * <li>-autograb : default true. Use or not autograd frame.</li>
+	 * <li>-codasimulator : default false. Use in-process Coda simulator instead of CX1 unit (no server needed)</li>
+	 * <li>-codasimulatordropoutrate : default 0. With Coda simulator, probability (0 to 1) of a marker dropout</li>
+	 * <li>-codasimulatordropoutlength : default 10. With Coda simulator, length in frames of a marker dropout</li>
 	 * </ul>
 	 * For instance :
 	 * -codaServerIP 192.168.0.3 -frameRate 800 -decimation 1 -nbMarkers 1 -firstMarkerIndex 1 -udpclientip 192.168.0.30
@@ -258,15 +352,54 @@ public class DataStreamer extends Thread {
 	 * <li>-optitrackudpclientip : default localhost</li>
 	 * <li>-optitrackudpsourceport : default 1511</li>
 	 * <li>-multicastip : default 239.255.42.99</li>
+	 * <li>-optitrackframerate : default 120. Frame rate set in Motive, used to estimate CAN bus load</li>
 	 * </ul>
 	 * For instance :
 	 * -useoptitrack true -usemulticast true -optitracknbunlabeledmarkers 3 -optitrackfirstmarkerindex 4
 	 *  <br><br>
+	 * Timing statistics (interval between frames, grab-to-send latency and send duration) are always
+	 * recorded for each source, printed at the end of streaming and with displayed values :
+	 * <ul>
+	 * <li>-statisticsfile : default none. File where statistics are appended periodically</li>
+	 * <li>-statisticsperiod : default 10. Period in seconds of statistics file writing</li>
+	 * </ul>
+	 * For instance :
+	 * -statisticsfile statistics.txt -statisticsperiod 60
+	 *  <br><br>
+	 * Observers notification :
+	 * <ul>
+	 * <li>-asyncobservers : default false. If true, each observer is notified by its own thread from a bounded queue</li>
+	 * <li>-observerqueuecapacity : default 1024. Number of frames queued for each asynchronous observer</li>
+	 * <li>-observeroverflowpolicy : default dropoldest. When a queue is full : block, dropnewest or dropoldest</li>
+	 * </ul>
+	 * For instance :
+	 * -asyncobservers true -observerqueuecapacity 256 -observeroverflowpolicy dropnewest
+	 *  <br><br>
+	 * For replay of a recorded session :
+	 * <ul>
+	 * <li>-replaysession : default none. Session file name given to recorder</li>
+	 * <li>-replayspeed : default 1. 1 replays at original timing, N is N times faster, 0 is as fast as possible</li>
+	 * </ul>
+	 * For instance :
+	 * -replaysession experiment01 -replayspeed 2
+	 *  <br><br>
+	 * Frames layout :
+	 * <ul>
+	 * <li>-wireformat : default v1. v1 (CAN compatible) or v2 (coda and optitrack frames extended with float32 coordinates,
+	 * see {@link WireFormat}). A session must be replayed with the wire format it was recorded with</li>
+	 * </ul>
+	 *  <br>
 	 * @param params list of parameters configuration. See above.
 	 */
 	public DataStreamer(String[] params) {
 		this.setPriority(Thread.MAX_PRIORITY);
 		
+		// Frames layout, needed to size markers frames
+		for (int i = 0; i < params.length; i++) {
+			if(params[i].toLowerCase().equalsIgnoreCase(wireFormatToken)) wireFormat = WireFormat.parse(params[i+1]);
+		}
+		System.out.println("Wire format : " + wireFormat);
+		
 		//Use coda
 		if(UDPIXXATDataStreamer.useCodamotion) {
 			codaUnitMode.setActiveCoda(new byte[]{1,0,0,0});
@@ -310,14 +443,17 @@ public class DataStreamer extends Thread {
 				if(params[i].toLowerCase().equalsIgnoreCase(autoGrabToken)) autoGrab = Boolean.parseBoolean(params[i+1]);
 				if(params[i].toLowerCase().equalsIgnoreCase(simulModeToken)) simulMode = Boolean.parseBoolean(params[i+1]);
 				if(params[i].toLowerCase().equalsIgnoreCase(displayMarkersInvisibilityToken)) displayMarkersInvisibility = Boolean.parseBoolean(params[i+1]);
+				if(params[i].toLowerCase().equalsIgnoreCase(codaSimulatorToken)) useCodaSimulator = Boolean.parseBoolean(params[i+1]);
+				if(params[i].toLowerCase().equalsIgnoreCase(codaSimulatorDropoutRateToken)) codaSimulatorDropoutRate = Float.parseFloat(params[i+1]);
+				if(params[i].toLowerCase().equalsIgnoreCase(codaSimulatorDropoutLengthToken)) codaSimulatorDropoutLength = Integer.parseInt(params[i+1]);
 			}
 			
-			if(framesNumber != -1) {
-				framesIDs = new int[framesNumber];
-				framesTimes = new long[framesNumber];
+			if(useCodaSimulator) {
+				codaUnit = new CodaSimulator(codaSimulatorDropoutRate, codaSimulatorDropoutLength);
+				System.out.println("Using in-process Coda simulator with dropout rate " + codaSimulatorDropoutRate + " and dropout length " + codaSimulatorDropoutLength);
 			}
 			
-			codaBytesBuffer = new byte[8*nbMarkers];
+			codaBytesBuffer = new byte[wireFormat.getMarkerLength()*nbMarkers];
 			
 			frame.setChannelStart(firstMarkerIndex - 1);
 			frame.setNumChannels(nbMarkers);
@@ -381,9 +517,12 @@ public class DataStreamer extends Thread {
 		if(UDPIXXATDataStreamer.useTimeStamp) {
 			for (int i = 0; i < params.length; i++) {
 				if(params[i].toLowerCase().equalsIgnoreCase(timeStampSampleFrequencyToken)) timeStampSampleFrequency = Integer.parseInt(params[i+1]);
+				if(params[i].toLowerCase().equalsIgnoreCase(timeStampResolutionToken)) timeStampResolution = TimeStampEncoder.Resolution.parse(params[i+1]);
 			}
 			if(timeStampSampleFrequency == 0) timeStampSampleFrequency = 1;
-			System.out.println("Use time stamp with frequency : " + timeStampSampleFrequency);
+			timeStampEncoder = new TimeStampEncoder(timeStampResolution);
+			timeStampBytesBuffer = new byte[timeStampEncoder.getFrameLength()];
+			System.out.println("Use time stamp with frequency : " + timeStampSampleFrequency + " and resolution : " + timeStampResolution);
 		}
 		
 		// Use Optitrack {		
@@ -396,18 +535,72 @@ public class DataStreamer extends Thread {
 				if(params[i].toLowerCase().equalsIgnoreCase(optitrackUDPCommandPortToken)) optitrackUDPCommandPort = Integer.parseInt(params[i+1]);
 				if(params[i].toLowerCase().equalsIgnoreCase(optitrackfirstMarkerIndexToken)) optitrackFirstMarkerIndex = Integer.parseInt(params[i+1]);
 				if(params[i].toLowerCase().equalsIgnoreCase(optitrackMulticastIPToken)) optitrackMulticastIP = params[i+1];
+				if(params[i].toLowerCase().equalsIgnoreCase(optitrackFrameRateToken)) optitrackFrameRate = Integer.parseInt(params[i+1]);
+				if(params[i].toLowerCase().equalsIgnoreCase(displayMarkersInvisibilityToken)) displayMarkersInvisibility = Boolean.parseBoolean(params[i+1]);
+			}
+			optitrackBytesBuffer = new byte[wireFormat.getMarkerLength()*optitrackNbUnlabeledMarkers];
+		}
+		
+		// Replay
+		if(UDPIXXATDataStreamer.useReplay) {
+			for (int i = 0; i < params.length; i++) {
+				if(params[i].toLowerCase().equalsIgnoreCase(replaySessionToken)) replaySessionFileName = params[i+1];
+				if(params[i].toLowerCase().equalsIgnoreCase(replaySpeedToken)) replaySpeed = Double.parseDouble(params[i+1]);
 			}
-			optitrackBytesBuffer = new byte[8*optitrackNbUnlabeledMarkers];
+			try {
+				replayFrameLengths = SessionReader.getFrameLengths(replaySessionFileName);
+				System.out.println("Replay session " + replaySessionFileName + ((replaySpeed > 0) ? " at speed x" + replaySpeed : " as fast as possible"));
+				for (DataSource source : DataSource.values()) {
+					if(replayFrameLengths[source.ordinal()] == 0) continue;
+					if(isLive(source)) {
+						System.out.println("WARNING : " + source + " is acquired, its replayed frames are not sent !");
+						replayFrameLengths[source.ordinal()] = 0;
+					} else System.out.println("Replay " + source + " frames of " + replayFrameLengths[source.ordinal()] + " bytes");
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+				UDPIXXATDataStreamer.useReplay = false;
+			}
+		}
+		
+		// Scheduling
+		for (int i = 0; i < params.length; i++) {
+			if(params[i].toLowerCase().equalsIgnoreCase(waitStrategyToken)) waitStrategy = WaitStrategy.parse(params[i+1]);
+			if(params[i].toLowerCase().equalsIgnoreCase(waitMarginToken)) waitMargin = 1000L*Integer.parseInt(params[i+1]);
+		}
+		System.out.println("Wait strategy : " + waitStrategy + " with margin of " + waitMargin/1000 + " us");
+		
+		// Asynchronous observers
+		for (int i = 0; i < params.length; i++) {
+			if(params[i].toLowerCase().equalsIgnoreCase(asyncObserversToken)) asyncObservers = Boolean.parseBoolean(params[i+1]);
+			if(params[i].toLowerCase().equalsIgnoreCase(observerQueueCapacityToken)) observerQueueCapacity = Integer.parseInt(params[i+1]);
+			if(params[i].toLowerCase().equalsIgnoreCase(observerOverflowPolicyToken)) observerOverflowPolicy = AsyncObserver.OverflowPolicy.parse(params[i+1]);
+		}
+		if(asyncObservers) System.out.println("Observers notified asynchronously, queues of " + observerQueueCapacity + " frames, overflow policy " + observerOverflowPolicy);
+		
+		// Statistics
+		for (int i = 0; i < params.length; i++) {
+			if(params[i].toLowerCase().equalsIgnoreCase(statisticsFileToken)) statisticsFileName = params[i+1];
+			if(params[i].toLowerCase().equalsIgnoreCase(statisticsPeriodToken)) statisticsPeriod = Integer.parseInt(params[i+1]);
+		}
+		if(statisticsFileName != null) System.out.println("Statistics written to " + statisticsFileName + " every " + statisticsPeriod + " s");
+		
+		// Live counters through JMX
+		for (DataSource source : DataSource.values()) {
+			if(isUsed(source)) Monitoring.register(sourceMonitors[source.ordinal()], "Source", source.name());
 		}
 		
 	}
 	
 	/**
-	 * Use this method to add any coda observer to this streamer
+	 * Use this method to add any coda observer to this streamer. It is given ring slot arrays
+	 * directly, without copy : they are only valid during the call.
+	 * In asynchronous mode, observer is wrapped into an {@link AsyncObserver}.
 	 * @param codaObserver any object that implements {@link DataObserver}.
 	 */
 	public void addObserver(DataObserver codaObserver) {
-		observers.add(codaObserver);
+		if(asyncObservers) codaObserver = new AsyncObserver(codaObserver, observerQueueCapacity, getFrameLengths(), observerOverflowPolicy);
+		observers.add(new DataObserverAdapter(codaObserver));
 	}
 	
 	/**
@@ -415,12 +608,59 @@ public class DataStreamer extends Thread {
 	 * @param codaObserver any object that implements {@link DataObserver}.
 	 */
 	public void removeObserver(DataObserver codaObserver) {
-		observers.remove(codaObserver);
+		for (int i = 0; i < observers.size(); i++) {
+			DataObserver observer = getDataObserver(observers.get(i));
+			if(observer == codaObserver) {
+				observers.remove(i);
+				return;
+			}
+			if(observer instanceof AsyncObserver && ((AsyncObserver)observer).getObserver() == codaObserver) {
+				observers.remove(i);
+				((AsyncObserver)observer).dispose();
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Use this method to add an observer notified without copy, with source, sequence
+	 * number and acquisition time of each frame. It is always notified synchronously.
+	 * @param frameObserver any object that implements {@link FrameObserver}.
+	 */
+	public void addFrameObserver(FrameObserver frameObserver) {
+		observers.add(frameObserver);
+	}
+	
+	public void removeFrameObserver(FrameObserver frameObserver) {
+		observers.remove(frameObserver);
+	}
+	
+	/**
+	 * @return data observer notified by this observer, or null if it is not an adapter
+	 */
+	private static DataObserver getDataObserver(FrameObserver frameObserver) {
+		if(frameObserver instanceof DataObserverAdapter) return ((DataObserverAdapter)frameObserver).getObserver();
+		return null;
+	}
+	
+	/**
+	 * Notify frames still queued by asynchronous observers and stop their threads.
+	 */
+	private void stopAsyncObservers() {
+		for (FrameObserver frameObserver : observers) {
+			DataObserver observer = getDataObserver(frameObserver);
+			if(observer instanceof AsyncObserver) {
+				AsyncObserver asyncObserver = (AsyncObserver) observer;
+				asyncObserver.dispose();
+				System.out.println("Nb frames dropped by " + asyncObserver.getObserver().getClass().getSimpleName() + " queue (" + asyncObserver.getOverflowPolicy() + ") : " + asyncObserver.getDroppedFrames());
+			}
+		}
 	}
 	
 	/**
-	 * This is main thread method. It is responsible for starting acquisition
-	 * and handling all data frames in order to notify any registered observer
+	 * This is main thread method. It is responsible for starting acquisition,
+	 * starting one producer thread for each used system and dispatching all data 
+	 * frames published by these producers in order to notify any registered observer
 	 */
 	public void run() {
 		
@@ -429,12 +669,9 @@ public class DataStreamer extends Thread {
 		int nbTimerMessageSent = 0;
 		int nbOptitrackMessageSent = 0;
 		
-		//int systemNumber = (UDPDataStreamer.useCodamotion?1:0) + (UDPDataStreamer.useXSens?1:0) + (UDPDataStreamer.useTimeStampSpecified?1:0);
-		
 		long t = System.nanoTime();
 		int n = 0;
 		
-		boolean paused = false;
 		try {
 			
 			if(UDPIXXATDataStreamer.useCodamotion) {
@@ -446,248 +683,102 @@ public class DataStreamer extends Thread {
 			
 			if(UDPIXXATDataStreamer.useXSens) xSens.gotoMeasurement();
 			
-			if(UDPIXXATDataStreamer.useOptitrack && optitrackUseMulticast) {
-//				optitrackDataThread.start();
-//				optitrackCommandThread.start();
-				// data
-				optitrackDgSocketData = new MulticastSocket(optitrackUDPDataPort);
-				InetAddress group = InetAddress.getByName("239.255.42.99");
-				NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(optitrackUDPServerIP));
-				optitrackDgSocketData.setReuseAddress(true);
-				optitrackDgSocketData.setSoTimeout(100);
-				optitrackDgSocketData.joinGroup(new InetSocketAddress(group, optitrackUDPDataPort), networkInterface);
-				// command
-	            optitrackDgSocketCommand = new MulticastSocket(optitrackUDPCommandPort);
-	            optitrackDgSocketCommand.setReuseAddress(true);
-	            optitrackDgSocketCommand.setSoTimeout(2000);
-	            optitrackDgSocketCommand.joinGroup(new InetSocketAddress(group, optitrackUDPCommandPort), networkInterface);
+			if(UDPIXXATDataStreamer.useOptitrack) {
+				// data and command ports on same selector
+				optitrackReceiver = new NatNetReceiver(optitrackUDPDataPort, optitrackUDPCommandPort, optitrackUseMulticast ? optitrackMulticastIP : null, optitrackUDPServerIP);
 				System.out.println("Using optitrack on multicast : " + optitrackUseMulticast);
 				if(optitrackUseMulticast) System.out.println("Multicast IP : " + optitrackMulticastIP);
 				System.out.println("Nb unlabeled markers to find : " + optitrackNbUnlabeledMarkers);
 				System.out.println("Optitrack First Marker Index : " + optitrackFirstMarkerIndex);
-				optitrackReceiveBytesBuffer = new byte[128*1024];
-				optitrackDatagramPacket = new DatagramPacket(optitrackReceiveBytesBuffer, optitrackReceiveBytesBuffer.length);
+				optitrackReceiveByteBuffer = ByteBuffer.allocateDirect(128*1024);
+				optitrackReceiveByteBuffer.order(ByteOrder.LITTLE_ENDIAN);
 				OptitrackData.initMarkers(optitrackNbUnlabeledMarkers);
 			}
 			
+			framesRingBuffer = new FramesRingBuffer(RING_BUFFER_CAPACITY, getFrameLengths());
+			statusSnapshot = new StatusSnapshot(getFrameLengths(), wireFormat);
+			for (SourceMonitor sourceMonitor : sourceMonitors) sourceMonitor.reset();
+			for (SourceStatistics sourceStatistics : statistics) sourceStatistics.reset();
+			
+			// Frames number is counted on first used system
+			DataSource countedSource = DataSource.OPTITRACK;
+			if(isUsed(DataSource.TIME_STAMP)) countedSource = DataSource.TIME_STAMP;
+			if(isUsed(DataSource.XSENS)) countedSource = DataSource.XSENS;
+			if(isUsed(DataSource.CODA)) countedSource = DataSource.CODA;
+			
+			producerError = null;
+			producers.clear();
+			if(UDPIXXATDataStreamer.useCodamotion) producers.add(new CodaProducer());
+			if(UDPIXXATDataStreamer.useXSens) producers.add(new XSensProducer());
+			if(UDPIXXATDataStreamer.useTimeStamp) producers.add(new TimeStampProducer());
+			if(UDPIXXATDataStreamer.useOptitrack) producers.add(new OptitrackProducer());
+			replayFinished = false;
+			if(UDPIXXATDataStreamer.useReplay) producers.add(new ReplayProducer());
+			
 			t = System.nanoTime();
 			
-
+			for (SourceProducer producer : producers) producer.start();
 			
+			Thread statisticsWriter = startStatisticsWriter();
+			Thread statusRenderer = startStatusRenderer();
 			
+			int idleCount = 0;
+			long lastFlushTime = System.nanoTime();
 			while( ((n < framesNumber) || (framesNumber == -1)) && !isInterrupted()) {
-				if(!pause) {
-					
-					if((System.currentTimeMillis() - lastTimeStampDisplay > 2000) && display) doDisplay = true;
-					
-					if(doDisplay) {
-						new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
-					}
-					
-					
-					if(UDPIXXATDataStreamer.useCodamotion) {
-						
-						codaUnit.frameGrab();
-						codaUnit.frameGetMarker(frame);
-						codaFrameID = frame.getFrame();
-						
-						if(codaFrameID != codaLastFrameID) {
-							
-							codaValues = frame.getData();
-							codaVisibilities = frame.getValid();
-							frameID += (codaFrameID - codaLastFrameID);
-							codaLastFrameID = codaFrameID;
-							
-							if(!simulMode)
-								if((codaFrameID - codaLastFrameIDFromBufferUpdate) > 2000 ) {
-									codaUnit.acqBufferUpdate();
-									codaLastFrameIDFromBufferUpdate = codaFrameID;
-									System.out.println("Coda Buffer updated at frame number " + n);
-								}
-							
-							if(framesNumber != -1) {
-								framesTimes[n] = System.nanoTime();
-								framesIDs[n] = frameID;
-							}
-							
-							for (int j = 0; j < nbMarkers; j++) {
-								xValue = (short) (10*codaValues[3*j]);
-								yValue = (short) (10*codaValues[3*j + 1]);
-								zValue = (short) (10*codaValues[3*j + 2]);
-								
-								if(codaVisibilities[j] == 0 && displayMarkersInvisibility) {
-									System.out.println("Marker " + (j + 1) + " invisible at frame ID " + frameID);
-								}
-								
-								codaBytesBuffer[0 + 8*j] = (byte) ( (codaSystemCode << 6) | ((codaVisibilities[j] == 0) ? (byte)(j+1) : (byte)((j+1) | 0x20)) );
-								codaBytesBuffer[1 + 8*j] = frameID;
-								codaBytesBuffer[2 + 8*j] = (byte) (xValue >> 8);
-								codaBytesBuffer[3 + 8*j] = (byte) (xValue & 0xFF);
-								codaBytesBuffer[4 + 8*j] = (byte) (yValue >> 8);
-								codaBytesBuffer[5 + 8*j] = (byte) (yValue & 0xFF);
-								codaBytesBuffer[6 + 8*j] = (byte) (zValue >> 8);
-								codaBytesBuffer[7 + 8*j] = (byte) (zValue & 0xFF);
-								
-							}
-							
-							if(doDisplay) {
-								for (int j = 0; j < nbMarkers; j++) {
-									xValue = (short) (10*codaValues[3*j]);
-									yValue = (short) (10*codaValues[3*j + 1]);
-									zValue = (short) (10*codaValues[3*j + 2]);
-									System.out.println("Coda Marker " + (j + firstMarkerIndex) + " xValue : " + xValue);
-									System.out.println("Coda Marker " + (j + firstMarkerIndex) + " yValue : " + yValue);
-									System.out.println("Coda Marker " + (j + firstMarkerIndex) + " zValue : " + zValue);
-								}
-							}
-							
-							updateObservers(codaBytesBuffer);
-							nbCodaMessageSent++;
-
-							n++;
-						}
-					}
-					
-					if(UDPIXXATDataStreamer.useXSens) {
-						if(xSens.areNewValuesAvailable() == 1) {
-							
-							xsensAccX = (short) (1000*xSens.getAccelX());
-							xsensAccY = (short) (1000*xSens.getAccelY());
-							xsensGyroZ = (short) (100*xSens.getGyroZ()*180/Math.PI);
-							
-							xsensBytesBuffer[0] = (byte) (xSensSystemCode << 6);
-							xsensBytesBuffer[1] = (byte) (xsensAccX >> 8);;
-							xsensBytesBuffer[2] = (byte) (xsensAccX & 0xFF);
-							xsensBytesBuffer[3] = (byte) (xsensAccY >> 8);;
-							xsensBytesBuffer[4] = (byte) (xsensAccY & 0xFF);
-							xsensBytesBuffer[5] = (byte) (xsensGyroZ >> 8);;
-							xsensBytesBuffer[6] = (byte) (xsensGyroZ & 0xFF);
-							
-							updateObservers(xsensBytesBuffer);
-							nbXsensMessageSent++;
-						}
-						
-						if(doDisplay) {
-							System.out.println("XSens accel X :  " + xSens.getAccelX());
-							System.out.println("XSens accel Y :  " + xSens.getAccelY());
-							System.out.println("XSens gyro Z :  " + xSens.getGyroZ()*180/Math.PI);
-						}
-						
-						if(!UDPIXXATDataStreamer.useCodamotion) n++;		
-					}
-					
-					if(UDPIXXATDataStreamer.useTimeStamp) {
-						if((System.currentTimeMillis() - lastTimeStamp) > 1000.0/timeStampSampleFrequency) {
-							lastTimeStamp = System.currentTimeMillis();
-							
-							Calendar now = Calendar.getInstance();
-							
-							hours = (byte) now.get(Calendar.HOUR_OF_DAY);
-							minutes = (byte) now.get(Calendar.MINUTE);
-							seconds = (byte) now.get(Calendar.SECOND);
-							
-							timeStampBytesBuffer[0] = (byte) ((timeStampSystemCode << 6) | hours);
-							timeStampBytesBuffer[1] = (byte) (minutes);
-							timeStampBytesBuffer[2] = (byte) (seconds);
-							
-							updateObservers(timeStampBytesBuffer);
-							nbTimerMessageSent++;
-						}
-						
-						if(doDisplay) {
-							System.out.println("Current time :  " + hours + "h" + minutes + "mn" + seconds + "s");
-						}
-						
-						if(!UDPIXXATDataStreamer.useCodamotion && !UDPIXXATDataStreamer.useXSens) n++;		
-					}
-					
-					if(UDPIXXATDataStreamer.useOptitrack) {
-						try {
-							optitrackDgSocketData.receive(optitrackDatagramPacket);
-							
-							ByteBuffer byteBuffer = ByteBuffer.wrap(optitrackDatagramPacket.getData());
-							byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-							// Message id and packet size
-							short messageID = byteBuffer.getShort();
-							short packetSize = byteBuffer.getShort();
-							if(messageID == NAT_FRAMEOFDATA && packetSize > 0) {
-								processOptitrackDataFrame(byteBuffer, false);
-								
-								if(OptitrackData.frameID != OptitrackData.lastFrameID) {
-									
-									frameID += (OptitrackData.frameID - OptitrackData.lastFrameID);
-									
-									OptitrackData.lastFrameID = OptitrackData.frameID;
-									
-									for(int j = 0; j < optitrackNbUnlabeledMarkers; j++) {
-										xValue = (short) (1000*OptitrackData.unlabeledMarkers[j].x);
-										yValue = (short) (1000*OptitrackData.unlabeledMarkers[j].y);
-										zValue = (short) (1000*OptitrackData.unlabeledMarkers[j].z);
-										
-										if(OptitrackData.unlabeledMarkers[j].visibility == 0) {
-											System.out.println("Optitrack Marker " + (j + 1) + " invisible at frame ID " + frameID);
-										}
-										
-										optitrackBytesBuffer[0 + 8*j] = (byte) ( (optitrackSystemCode << 6) | ((OptitrackData.unlabeledMarkers[j].visibility == 0) ? (byte)(j+1) : (byte)((j+1) | 0x20)) );
-										optitrackBytesBuffer[1 + 8*j] = frameID;
-										optitrackBytesBuffer[2 + 8*j] = (byte) (xValue >> 8);
-										optitrackBytesBuffer[3 + 8*j] = (byte) (xValue & 0xFF);
-										optitrackBytesBuffer[4 + 8*j] = (byte) (yValue >> 8);
-										optitrackBytesBuffer[5 + 8*j] = (byte) (yValue & 0xFF);
-										optitrackBytesBuffer[6 + 8*j] = (byte) (zValue >> 8);
-										optitrackBytesBuffer[7 + 8*j] = (byte) (zValue & 0xFF);
-									}
-									
-									updateObservers(optitrackBytesBuffer);
-									nbOptitrackMessageSent++;
-									
-									if(doDisplay) {
-										for (int j = 0; j < optitrackNbUnlabeledMarkers; j++) {
-											xValue = (short) (1000*OptitrackData.unlabeledMarkers[j].x);
-											yValue = (short) (1000*OptitrackData.unlabeledMarkers[j].y);
-											zValue = (short) (1000*OptitrackData.unlabeledMarkers[j].z);
-											System.out.println("Optitrack Marker " + (j + optitrackFirstMarkerIndex) + " xValue (mm) : " + xValue);
-											System.out.println("Optitrack Marker " + (j + optitrackFirstMarkerIndex) + " yValue (mm) : " + yValue);
-											System.out.println("Optitrack Marker " + (j + optitrackFirstMarkerIndex) + " zValue (mm) : " + zValue);
-										}
-									}
-								}
-							}
-							
-							if(!UDPIXXATDataStreamer.useCodamotion && !UDPIXXATDataStreamer.useXSens && !UDPIXXATDataStreamer.useTimeStamp) n++;
-							
-						} catch (SocketTimeoutException e) {
-							System.err.println("Time out on optitrack connection !");
-						}
-							
-					}
-					
-					if(doDisplay) {
-						System.out.println(">>>> Display every 2 seconds - 'S' + ENTER to stop streaming - 'P' + ENTER to pause streaming - 'D' + ENTER to toggle display");
+				
+				int slot = framesRingBuffer.poll();
+				if(slot < 0) {
+					// Replayed session is over and all its frames have been sent
+					if(replayFinished) break;
+					// Frames kept by observers are not delayed until next frame
+					long time = System.nanoTime();
+					if(time - lastFlushTime >= FLUSH_PERIOD) {
+						lastFlushTime = time;
+						flushObservers();
 					}
+					waitStrategy.idle(idleCount++, DISPATCHER_PARK_TIME);
+					continue;
 				}
+				idleCount = 0;
 				
+				DataSource source = framesRingBuffer.getSource(slot);
 				
+				long acquisitionTime = framesRingBuffer.getAcquisitionTime(slot);
+				long sendStartTime = System.nanoTime();
+				updateObservers(slot);
+				statistics[source.ordinal()].record(acquisitionTime, sendStartTime, System.nanoTime());
+				statusSnapshot.update(source, framesRingBuffer.getFrame(slot));
+				sourceMonitors[source.ordinal()].recordFrame(framesRingBuffer.getSequence(slot));
+				framesRingBuffer.release();
 				
-				if(!paused && pause) {
-					if(UDPIXXATDataStreamer.useCodamotion) codaUnit.acqStop();
-					paused = true;
-				}
-				
-				if(paused && !pause) {
-					if(UDPIXXATDataStreamer.useCodamotion) codaUnit.acqStart(Integer.MAX_VALUE);
-					paused = false;
+				switch (source) {
+				case CODA:
+					nbCodaMessageSent++;
+					break;
+				case XSENS:
+					nbXsensMessageSent++;
+					break;
+				case TIME_STAMP:
+					nbTimerMessageSent++;
+					break;
+				case OPTITRACK:
+					nbOptitrackMessageSent++;
+					break;
 				}
 				
-				if(doDisplay) {
-					if(!"".equals(UDPIXXATDataStreamer.warningMessage)) System.out.println(UDPIXXATDataStreamer.warningMessage);
-					doDisplay = false;
-					lastTimeStampDisplay = System.currentTimeMillis();
-				}
+				if(source == countedSource) n++;
 			}
 			
 			t = System.nanoTime() - t;
 			
+			stopProducers();
+			if(statisticsWriter != null) statisticsWriter.interrupt();
+			statusRenderer.interrupt();
+			
+			if(producerError instanceof CodaError) throw (CodaError) producerError;
+			if(producerError instanceof Exception) throw (Exception) producerError;
+			if(producerError != null) producerError.printStackTrace();
+			
 			if(UDPIXXATDataStreamer.useCodamotion) shutDown();
 			
 			if(UDPIXXATDataStreamer.useXSens) {
@@ -696,8 +787,9 @@ public class DataStreamer extends Thread {
 			}
 			
 			if(UDPIXXATDataStreamer.useOptitrack) {
-				optitrackDgSocketData.close();
-				optitrackDgSocketCommand.close();
+				optitrackReceiver.close();
+				System.out.println("Nb Optitrack packets received : " + optitrackReceiver.getNbDataPackets());
+				System.out.println("Nb Optitrack time outs (" + OPTITRACK_SELECT_TIMEOUT + " ms without any packet) : " + optitrackReceiver.getNbTimeouts());
 			}
 			
 			System.out.println("Nb Coda messages sent : " + nbCodaMessageSent);
@@ -705,39 +797,17 @@ public class DataStreamer extends Thread {
 			System.out.println("Nb Timer messages sent : " + nbTimerMessageSent);
 			System.out.println("Nb Optitrack messages sent : " + nbOptitrackMessageSent);
 			System.out.println("Total messages sent : " + (nbTimerMessageSent + nbXsensMessageSent + nbCodaMessageSent + nbOptitrackMessageSent));
+			System.out.println("Nb messages dropped (producers faster than observers) : " + framesRingBuffer.getDroppedFrames());
 			
 			System.out.println("Duration (s) : " + t/1000000000.0);
 			System.out.println("Nb grabbed frames : " + n);
 			
-			if(framesNumber != -1 && UDPIXXATDataStreamer.useCodamotion) {
-				FileWriter fileWriter = new FileWriter("result" + frameRate + ".txt");
-				PrintWriter file = new PrintWriter(fileWriter);
-				file.println("Frame ID; deltaT");
-				double d = 0;
-				double max = Double.MIN_VALUE;
-				double min = Double.MAX_VALUE;
-				for (int i = 0; i < n; i++) {
-					if(i>0) {
-						double dLocal = (framesTimes[i] - framesTimes[i-1])/1000000000.0;
-						max = Math.max(dLocal, max);
-						min = Math.min(dLocal, min);
-						d = d + dLocal;
-						file.println(framesIDs[i] + ";" + dLocal);
-					}
-					else file.println(framesIDs[i] + ";" + 0);
-				}
-				file.println("Min time (s) : " + min);
-				file.println("Mean time (s) : " + d/(n-1));
-				file.println("Max time (s) : " + max);
-				file.close();
-				
-				System.out.println("Coda Min time (s) : " + min);
-				System.out.println("Coda Mean time (s) : " + d/(n-1));
-				System.out.println("Coda Max time (s) : " + max);
-			}
+			printStatistics(System.out);
+			writeStatistics();
 			
 			
 		} catch (CodaError e) {
+			stopProducers();
 			if(UDPIXXATDataStreamer.useXSens) {
 				xSens.closePort();
 				xSens.freeAllocatedMemory();
@@ -762,6 +832,7 @@ public class DataStreamer extends Thread {
 			System.out.println("Nb Optitrack messages sent : " + nbOptitrackMessageSent);					
 			System.out.println("Press ENTER to exit...");
 		} catch (Exception e) {
+			stopProducers();
 			if(UDPIXXATDataStreamer.useXSens) {
 				xSens.closePort();
 				xSens.freeAllocatedMemory();
@@ -787,247 +858,660 @@ public class DataStreamer extends Thread {
 				System.out.println("Nb Optitrack messages sent : " + nbOptitrackMessageSent);
 				System.out.println("Press ENTER to exit...");
 			}
+		} finally {
+			stopAsyncObservers();
 		}
 		
 	}
-
-	private void processOptitrackDataFrame(ByteBuffer byteBuffer, boolean systemLog) {
-
-		if(systemLog) System.out.println(">>>> Begin frame");
-		// Frame number
-		int frameNumber = byteBuffer.getInt();
-		OptitrackData.frameID = frameNumber;
-		
-		if(systemLog) System.out.println("Frame number : " + frameNumber);
-		// Marker set and data size
-		int markerSetCount = byteBuffer.getInt();
-		int dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("markerSetCount : " + markerSetCount + " - dataSize : " + dataSize);
-		// For all marker set data
-		for (int i = 0; i < markerSetCount; i++) {
-			// Read market set name to string
-			ArrayList<Byte> markerSetNameBytes = new ArrayList<Byte>();
-			byte value = byteBuffer.get();
-			while(value != 0) {
-				markerSetNameBytes.add(value);
-				value = byteBuffer.get();
+	
+	/**
+	 * @return number of frames waiting for dispatcher, 0 when not streaming
+	 */
+	static int getQueueDepth() {
+		FramesRingBuffer ringBuffer = framesRingBuffer;
+		return (ringBuffer == null) ? 0 : ringBuffer.getSize();
+	}
+	
+	/**
+	 * Stop all producer threads and wait for them to terminate.
+	 */
+	private void stopProducers() {
+		for (SourceProducer producer : producers) producer.terminate();
+		for (SourceProducer producer : producers) {
+			try {
+				producer.join(PRODUCER_JOIN_TIMEOUT);
+			} catch (InterruptedException e) {
+				// Dispatcher may have been interrupted to stop streaming
+				Thread.currentThread().interrupt();
 			}
-			byte[] markerSetNameBytesPrimitive = new byte[markerSetNameBytes.size()];
-			for (int j = 0; j < markerSetNameBytesPrimitive.length; j++) markerSetNameBytesPrimitive[j] = markerSetNameBytes.get(j);
-			String markerSetNameString = new String(markerSetNameBytesPrimitive, StandardCharsets.UTF_8);
-			int markersCount = byteBuffer.getInt();
-			if(systemLog) System.out.println("\tmarkerSet name : " + markerSetNameString + " - markers count : " + markersCount);
-			// for all markers in marker set
-			for (int j = 0; j < markersCount; j++) {
-				// Read 3D position
-				float posx = byteBuffer.getFloat();
-				float posy = byteBuffer.getFloat();
-				float posz = byteBuffer.getFloat();
-				if(systemLog) System.out.println("\t\tmarker " + j + " - x :" + posx + " - y : " + posy + " - z : " + posz);
+		}
+		// Clear interrupted status so that devices can be properly closed
+		Thread.interrupted();
+	}
+	
+	/**
+	 * @return layout of frames sent to observers
+	 */
+	public static WireFormat getWireFormat() {
+		return wireFormat;
+	}
+	
+	/**
+	 * Choose how producers and dispatcher wait, used from next start. Default is {@link WaitStrategy#PARK} :
+	 * threads sleep between samples and almost no CPU is used, but a frame may be dispatched up to OS timer
+	 * resolution late (tens of microseconds on Linux, up to 1 ms or more on Windows), which wait margin absorbs
+	 * for producers. {@link WaitStrategy#YIELD} and {@link WaitStrategy#SPIN} never sleep : latency drops to a few
+	 * microseconds, at the cost of one busy core per system and one for dispatcher, even when no frame comes.
+	 * @param waitStrategy wait strategy of producers and dispatcher
+	 */
+	public static void setWaitStrategy(WaitStrategy waitStrategy) {
+		DataStreamer.waitStrategy = waitStrategy;
+	}
+	
+	public static WaitStrategy getWaitStrategy() {
+		return waitStrategy;
+	}
+	
+	/**
+	 * @return length of frames sent to observers by each source, indexed by {@link DataSource#ordinal()}
+	 */
+	public int[] getFrameLengths() {
+		int[] frameLengths = new int[DataSource.values().length];
+		frameLengths[DataSource.CODA.ordinal()] = codaBytesBuffer.length;
+		frameLengths[DataSource.XSENS.ordinal()] = xsensBytesBuffer.length;
+		frameLengths[DataSource.TIME_STAMP.ordinal()] = timeStampBytesBuffer.length;
+		frameLengths[DataSource.OPTITRACK.ordinal()] = optitrackBytesBuffer.length;
+		if(UDPIXXATDataStreamer.useReplay) {
+			for (DataSource source : DataSource.values()) {
+				if(!isLive(source) && replayFrameLengths[source.ordinal()] > 0) frameLengths[source.ordinal()] = replayFrameLengths[source.ordinal()];
 			}
 		}
-		// !!!!!!!!!!!!!!!! Get legacy other markers data : this is unlabeled markers we are looking for !!!!!!!!!!!!!!!!
-		int otherMarkersCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("otherMarkersCount : " + otherMarkersCount + " - dataSize : " + dataSize);
-		// for all markers in marker set
-		int n = 0;
-		for (int i = 0; i < otherMarkersCount; i++) {
-			// Read 3D position
-			float posx = byteBuffer.getFloat();
-			float posy = byteBuffer.getFloat();
-			float posz = byteBuffer.getFloat();
-			if(systemLog) System.out.println("\tmarker " + i + " - x :" + posx + " - y : " + posy + " - z : " + posz);
-			if(i >= optitrackFirstMarkerIndex && i <=  optitrackFirstMarkerIndex + optitrackNbUnlabeledMarkers - 1) {
-				OptitrackData.unlabeledMarkers[n].x = posx;
-				OptitrackData.unlabeledMarkers[n].y = posy;
-				OptitrackData.unlabeledMarkers[n].z = posz;
-				n++;
+		return frameLengths;
+	}
+	
+	/**
+	 * @param source a source
+	 * @return expected frames per second of source from its configuration, 0 if it is not acquired
+	 */
+	public double getExpectedFrameRate(DataSource source) {
+		if(!isLive(source)) return 0;
+		switch (source) {
+		case CODA:
+			return (double) frameRate/codaUnitMode.getDecimation();
+		case XSENS:
+			return xsensSampleFrequency;
+		case TIME_STAMP:
+			return timeStampSampleFrequency;
+		default:
+			return optitrackFrameRate;
+		}
+	}
+	
+	/**
+	 * @return true if source is acquired from its system
+	 */
+	private static boolean isLive(DataSource source) {
+		switch (source) {
+		case CODA:
+			return UDPIXXATDataStreamer.useCodamotion;
+		case XSENS:
+			return UDPIXXATDataStreamer.useXSens;
+		case TIME_STAMP:
+			return UDPIXXATDataStreamer.useTimeStamp;
+		case OPTITRACK:
+			return UDPIXXATDataStreamer.useOptitrack;
+		}
+		return false;
+	}
+	
+	/**
+	 * @return true if source is acquired or replayed
+	 */
+	private static boolean isUsed(DataSource source) {
+		return isLive(source) || (UDPIXXATDataStreamer.useReplay && replayFrameLengths[source.ordinal()] > 0);
+	}
+	
+	/**
+	 * Print timing statistics and sequence counters of each source that has sent frames.
+	 * @param printStream where to print
+	 */
+	public void printStatistics(PrintStream printStream) {
+		for (DataSource source : DataSource.values()) {
+			SourceStatistics sourceStatistics = statistics[source.ordinal()];
+			if(sourceStatistics.getLatencyHistogram().getCount() == 0) continue;
+			sourceStatistics.print(printStream);
+			SourceMonitor sourceMonitor = sourceMonitors[source.ordinal()];
+			// XSens gives no frame number
+			if(source != DataSource.XSENS) sourceMonitor.getDeviceTracker().print(printStream, "Device frames");
+			sourceMonitor.getStreamTracker().print(printStream, "Stream frames");
+			if(sourceMonitor.getParserErrors() > 0) printStream.println("\tParser errors : " + sourceMonitor.getParserErrors());
+		}
+	}
+	
+	/**
+	 * Append timing statistics to statistics file, if any.
+	 */
+	private void writeStatistics() {
+		if(statisticsFileName == null) return;
+		try (PrintStream printStream = new PrintStream(new FileOutputStream(statisticsFileName, true))) {
+			printStream.println(">>>> " + new java.util.Date());
+			printStatistics(printStream);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Start low priority thread that periodically writes statistics file.
+	 * @return started thread or null if no statistics file is used
+	 */
+	private Thread startStatisticsWriter() {
+		if(statisticsFileName == null) return null;
+		Thread statisticsWriter = new Thread("Statistics writer") {
+			public void run() {
+				try {
+					while(!isInterrupted()) {
+						Thread.sleep(1000L*statisticsPeriod);
+						writeStatistics();
+					}
+				} catch (InterruptedException e) {
+					// Streaming is over
+				}
+			}
+		};
+		statisticsWriter.setDaemon(true);
+		statisticsWriter.setPriority(Thread.MIN_PRIORITY);
+		statisticsWriter.start();
+		return statisticsWriter;
+	}
+	
+	/**
+	 * Start console renderer thread. Every 2 seconds it copies status snapshot, then displays
+	 * latest values when display is on, and markers invisibility when it is asked for.
+	 * Dispatcher and producers never write to console while streaming.
+	 * @return renderer thread, to interrupt when streaming is over
+	 */
+	private Thread startStatusRenderer() {
+		Thread statusRenderer = new Thread("Status renderer") {
+			public void run() {
+				StatusSnapshot snapshot = new StatusSnapshot(statusSnapshot);
+				StatusSnapshot previousSnapshot = new StatusSnapshot(statusSnapshot);
+				try {
+					while(!isInterrupted()) {
+						Thread.sleep(DISPLAY_PERIOD);
+						statusSnapshot.copyTo(snapshot);
+						if(display) displayValues(snapshot);
+						if(displayMarkersInvisibility) displayInvisibleMarkers(snapshot, previousSnapshot);
+						StatusSnapshot swap = previousSnapshot;
+						previousSnapshot = snapshot;
+						snapshot = swap;
+					}
+				} catch (InterruptedException e) {
+					// Streaming is over
+				}
 			}
+		};
+		statusRenderer.setDaemon(true);
+		statusRenderer.setPriority(Thread.MIN_PRIORITY);
+		statusRenderer.start();
+		return statusRenderer;
+	}
+	
+	/**
+	 * Display latest values of each system that sent frames, decoded from its last frame.
+	 */
+	private void displayValues(StatusSnapshot snapshot) throws InterruptedException {
+		try {
+			new ProcessBuilder("cmd", "/c", "cls").inheritIO().start().waitFor();
+		} catch (IOException e) {
+			// No cls command, console is not cleared
 		}
-		// Get rigid body data
-		int rigidBodyCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("rigidBodyCount : " + rigidBodyCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < rigidBodyCount; i++) {
-			// Rigid body for native version 3 and above
-			int rigidBodyID = byteBuffer.getInt();
-			float posx = byteBuffer.getFloat();
-			float posy = byteBuffer.getFloat();
-			float posz = byteBuffer.getFloat();
-			float q1 = byteBuffer.getFloat();
-			float q2 = byteBuffer.getFloat();
-			float q3 = byteBuffer.getFloat();
-			float q4 = byteBuffer.getFloat();
-			if(systemLog) {
-				System.out.println("\trigidBody num : " + i + " - ID : " + rigidBodyID);
-				System.out.println("\tx :" + posx + " - y : " + posy + " - z : " + posz);
-				System.out.println("\tq1 :" + q1 + " - q2 : " + q2 + " - q3 : " + q3 + " - q4 : " + q4);
+		
+		if(snapshot.getNbFrames(DataSource.CODA) > 0) {
+			displayMarkers("Coda", firstMarkerIndex, "", snapshot.getFrame(DataSource.CODA));
+			if(codaNbBufferUpdates > 0) System.out.println("Coda Buffer updates : " + codaNbBufferUpdates);
+		}
+		
+		if(snapshot.getNbFrames(DataSource.XSENS) > 0) {
+			byte[] frame = snapshot.getFrame(DataSource.XSENS);
+			System.out.println("XSens accel X :  " + getShort(frame, 1)/1000.0);
+			System.out.println("XSens accel Y :  " + getShort(frame, 3)/1000.0);
+			System.out.println("XSens gyro Z :  " + getShort(frame, 5)/100.0);
+		}
+		
+		if(snapshot.getNbFrames(DataSource.TIME_STAMP) > 0) {
+			byte[] frame = snapshot.getFrame(DataSource.TIME_STAMP);
+			String time = (frame[0] & 0x1F) + "h" + (frame[1] & 0x3F) + "mn" + (frame[2] & 0x3F) + "s";
+			if(frame.length == 8) {
+				int fraction = ((frame[3] & 0xFF) << 16) | ((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF);
+				time += ((frame[1] & 0x80) == 0) ? String.format("%03dms", fraction) : String.format("%06dus", fraction);
 			}
-			float markerError = byteBuffer.getFloat();
-			short tarckingValid = byteBuffer.getShort();
-			tarckingValid = (short) (tarckingValid & 0x01);
-			if(systemLog) {
-				System.out.println("\tMean Marker Error :" + markerError);
-				System.out.println("\ttarckingValid :" + tarckingValid);
+			System.out.println("Current time :  " + time);
+		}
+		
+		if(snapshot.getNbFrames(DataSource.OPTITRACK) > 0) {
+			displayMarkers("Optitrack", optitrackFirstMarkerIndex, " (mm)", snapshot.getFrame(DataSource.OPTITRACK));
+		}
+		
+		String nbFrames = "Frames sent :";
+		for (DataSource source : DataSource.values()) {
+			if(isUsed(source)) nbFrames += " " + source + " " + snapshot.getNbFrames(source);
+		}
+		System.out.println(nbFrames + " - dropped " + framesRingBuffer.getDroppedFrames());
+		
+		printStatistics(System.out);
+		
+		System.out.println(">>>> Display every 2 seconds - 'S' + ENTER to stop streaming - 'P' + ENTER to pause streaming - 'D' + ENTER to toggle display");
+		String warningMessage = UDPIXXATDataStreamer.warningMessage;
+		if(warningMessage != null && !"".equals(warningMessage)) System.out.println(warningMessage);
+	}
+	
+	/**
+	 * Display, for each marker, number of frames in which it was invisible since previous display.
+	 */
+	private void displayInvisibleMarkers(StatusSnapshot snapshot, StatusSnapshot previousSnapshot) {
+		for (DataSource source : new DataSource[] {DataSource.CODA, DataSource.OPTITRACK}) {
+			int firstIndex = (source == DataSource.CODA) ? firstMarkerIndex : optitrackFirstMarkerIndex;
+			String name = (source == DataSource.CODA) ? "Coda" : "Optitrack";
+			for (int j = 0; j < snapshot.getNbMarkers(source); j++) {
+				long nbInvisibleFrames = snapshot.getNbInvisibleFrames(source, j) - previousSnapshot.getNbInvisibleFrames(source, j);
+				if(nbInvisibleFrames > 0) System.out.println(name + " Marker " + (j + firstIndex) + " invisible in " + nbInvisibleFrames + " of last "
+						+ (snapshot.getNbFrames(source) - previousSnapshot.getNbFrames(source)) + " frames");
 			}
 		}
-		// Get Skeleton data
-		int skeletonCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("skeletonCount : " + skeletonCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < skeletonCount; i++) {
-			int skeletonID = byteBuffer.getInt();
-			rigidBodyCount = byteBuffer.getInt();
-			if(systemLog) System.out.println("\tskeletonID : " + skeletonID + "rigidBodyCount : " + rigidBodyCount);
-			for(int j = 0; j < rigidBodyCount; j++) {
-				// Rigid body for native version 3 and above
-				int rigidBodyID = byteBuffer.getInt();
-				float posx = byteBuffer.getFloat();
-				float posy = byteBuffer.getFloat();
-				float posz = byteBuffer.getFloat();
-				float q1 = byteBuffer.getFloat();
-				float q2 = byteBuffer.getFloat();
-				float q3 = byteBuffer.getFloat();
-				float q4 = byteBuffer.getFloat();
-				if(systemLog) {
-					System.out.println("\t\trigidBody num : " + j + " - ID : " + rigidBodyID);
-					System.out.println("\t\tx :" + posx + " - y : " + posy + " - z : " + posz);
-					System.out.println("\t\tq1 :" + q1 + " - q2 : " + q2 + " - q3 : " + q3 + " - q4 : " + q4);
-				}
-				float markerError = byteBuffer.getFloat();
-				short tarckingValid = byteBuffer.getShort();
-				tarckingValid = (short) (tarckingValid & 0x01);
-				if(systemLog) {
-					System.out.println("\t\tMean Marker Error :" + markerError);
-					System.out.println("\t\ttarckingValid :" + tarckingValid);
-				}
+	}
+	
+	/**
+	 * Display markers positions, from V1 shorts or from V2 float32 millimeters.
+	 * @param v1Unit unit of V1 values, appended to value names
+	 */
+	private static void displayMarkers(String name, int firstIndex, String v1Unit, byte[] frame) {
+		int nbMarkers = wireFormat.getNbMarkers(frame.length);
+		String[] axes = {"x", "y", "z"};
+		for (int j = 0; j < nbMarkers; j++) {
+			for (int k = 0; k < 3; k++) {
+				String valueName = name + " Marker " + (j + firstIndex) + " " + axes[k] + "Value";
+				if(wireFormat == WireFormat.V2) System.out.println(valueName + " (mm) : " + getFloat(frame, WireFormat.MARKER_LENGTH*nbMarkers + WireFormat.COORDINATES_LENGTH*j + 4*k));
+				else System.out.println(valueName + v1Unit + " : " + getShort(frame, WireFormat.MARKER_LENGTH*j + 2 + 2*k));
 			}
 		}
-		// Get asset Data
-		int assetCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("assetCount : " + assetCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < assetCount; i++) {
-			int assetID = byteBuffer.getInt();
-			rigidBodyCount = byteBuffer.getInt();
-			if(systemLog) System.out.println("\tassetID : " + assetID + "rigidBodyCount : " + rigidBodyCount);
-			for(int j = 0; j < rigidBodyCount; j++) {
-				int rigidBodyID = byteBuffer.getInt();
-				float posx = byteBuffer.getFloat();
-				float posy = byteBuffer.getFloat();
-				float posz = byteBuffer.getFloat();
-				float q1 = byteBuffer.getFloat();
-				float q2 = byteBuffer.getFloat();
-				float q3 = byteBuffer.getFloat();
-				float q4 = byteBuffer.getFloat();
-				if(systemLog) {
-					System.out.println("\t\trigidBody num : " + j + " - ID : " + rigidBodyID);
-					System.out.println("\t\tx :" + posx + " - y : " + posy + " - z : " + posz);
-					System.out.println("\t\tq1 :" + q1 + " - q2 : " + q2 + " - q3 : " + q3 + " - q4 : " + q4);
+	}
+	
+	private static short getShort(byte[] frame, int index) {
+		return (short) (((frame[index] & 0xFF) << 8) | (frame[index + 1] & 0xFF));
+	}
+	
+	private static float getFloat(byte[] frame, int index) {
+		return Float.intBitsToFloat(((frame[index] & 0xFF) << 24) | ((frame[index + 1] & 0xFF) << 16) | ((frame[index + 2] & 0xFF) << 8) | (frame[index + 3] & 0xFF));
+	}
+	
+	/**
+	 * Acquisition thread of one system. It acquires frames from its system
+	 * and publishes them into frames ring buffer, so that a slow system 
+	 * never delays frames of other systems.
+	 */
+	private abstract class SourceProducer extends Thread {
+		
+		private volatile boolean running = true;
+		
+		// Expected time between samples in ns, 0 if unknown
+		protected long period;
+		private long nextSampleTime;
+		private int idleCount;
+		
+		public SourceProducer(DataSource source) {
+			this(source + " producer");
+		}
+		
+		public SourceProducer(String name) {
+			super(name);
+			setPriority(Thread.MAX_PRIORITY);
+		}
+		
+		public void run() {
+			boolean paused = false;
+			try {
+				while(running) {
+					if(pause) {
+						if(!paused) {
+							pauseAcquisition();
+							paused = true;
+						}
+						Thread.sleep(1);
+						continue;
+					}
+					if(paused) {
+						resumeAcquisition();
+						paused = false;
+					}
+					acquire();
 				}
-				float meanError = byteBuffer.getFloat();
-				short params = byteBuffer.getShort();
-				if(systemLog) {
-					System.out.println("\t\tMean Marker Error :" + meanError);
-					System.out.println("\t\tparams :" + params);
+			} catch (InterruptedException e) {
+				// Producer terminated while paused
+			} catch (Throwable e) {
+				if(running) {
+					producerError = e;
+					DataStreamer.this.interrupt();
 				}
 			}
 		}
-		// Get labeled markers data
-		int labeledMarkersCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("labeledMarkersCount : " + labeledMarkersCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < labeledMarkersCount; i++) {
-			int tempID = byteBuffer.getInt();
-	        int modelID = tempID >> 16;
-	        int markerID = tempID & 0x0000ffff;
-	        float posx = byteBuffer.getFloat();
-			float posy = byteBuffer.getFloat();
-			float posz = byteBuffer.getFloat();
-			float size = byteBuffer.getFloat();
-			if(systemLog) {
-				System.out.println("\tlabeled marker num : " + i + " - marker ID : " + markerID+ " - modle ID : " + modelID);
-				System.out.println("\tx :" + posx + " - y : " + posy + " - z : " + posz);
-				System.out.println("\tsize :" + size);
-			}
-			short params = byteBuffer.getShort();
-			boolean occluded = (params & 0x01) != 0;
-            boolean point_cloud_solved = (params & 0x02) != 0;
-            boolean model_solved = (params & 0x04) != 0;
-			float residual = byteBuffer.getFloat();
-			if(systemLog) {
-				System.out.println("\toccluded :" + occluded + " - point_cloud_solved : " + point_cloud_solved + " - model_solved : " + model_solved);
-				System.out.println("\tresidual :" + residual);
+		
+		public void terminate() {
+			running = false;
+			interrupt();
+		}
+		
+		/**
+		 * Publish a frame and expect next one one period later.
+		 * With PARK strategy, dispatcher is woken up.
+		 */
+		protected void publish(DataSource source, byte[] bytesBuffer, long acquisitionTime) {
+			framesRingBuffer.publish(source, bytesBuffer, acquisitionTime);
+			if(waitStrategy == WaitStrategy.PARK) LockSupport.unpark(DataStreamer.this);
+			if(period > 0) nextSampleTime = acquisitionTime + period;
+			idleCount = 0;
+		}
+		
+		/**
+		 * Called when no sample is available : wait for next expected sample, or poll again soon
+		 * if it is unknown or late.
+		 */
+		protected void waitForSample() {
+			if(period > 0 && nextSampleTime != 0) waitForSample(nextSampleTime);
+			else waitStrategy.idle(idleCount++, PRODUCER_PARK_TIME);
+		}
+		
+		/**
+		 * Wait until wait margin before sample time, then poll.
+		 * @param sampleTime {@link System#nanoTime()} when sample is expected
+		 */
+		protected void waitForSample(long sampleTime) {
+			long waitTime = sampleTime - waitMargin;
+			if(System.nanoTime() - waitTime < 0) {
+				waitStrategy.waitUntil(waitTime);
+				idleCount = 0;
+			} else waitStrategy.idle(idleCount++, PRODUCER_PARK_TIME);
+		}
+		
+		/**
+		 * Acquire at most one frame and publish it.
+		 */
+		protected abstract void acquire() throws Throwable;
+		
+		protected void pauseAcquisition() throws Throwable {
+		}
+		
+		protected void resumeAcquisition() throws Throwable {
+		}
+		
+	}
+	
+	private class CodaProducer extends SourceProducer {
+		
+		public CodaProducer() {
+			super(DataSource.CODA);
+			period = 1000000000L*codaUnitMode.getDecimation()/frameRate;
+		}
+		
+		@Override
+		protected void acquire() throws Throwable {
+			codaUnit.frameGrab();
+			codaUnit.frameGetMarker(frame);
+			codaFrameID = frame.getFrame();
+			
+			if(codaFrameID != codaLastFrameID) {
+				
+				long acquisitionTime = System.nanoTime();
+				codaValues = frame.getData();
+				codaVisibilities = frame.getValid();
+				byte frameID = (byte) codaFrameID;
+				codaLastFrameID = codaFrameID;
+				sourceMonitors[DataSource.CODA.ordinal()].getDeviceTracker().record(codaFrameID);
+				
+				if(!simulMode)
+					if((codaFrameID - codaLastFrameIDFromBufferUpdate) > 2000 ) {
+						codaUnit.acqBufferUpdate();
+						codaLastFrameIDFromBufferUpdate = codaFrameID;
+						codaNbBufferUpdates++;
+					}
+				
+				MarkersEncoder.encode(codaSystemCode, frameID, codaValues, codaVisibilities, nbMarkers, CODA_SCALE, codaBytesBuffer);
+				if(wireFormat == WireFormat.V2) MarkersEncoder.encodeCoordinates(codaValues, nbMarkers, CODA_MILLIMETER_SCALE, codaBytesBuffer, WireFormat.MARKER_LENGTH*nbMarkers);
+				
+				publish(DataSource.CODA, codaBytesBuffer, acquisitionTime);
+			} else waitForSample();
+		}
+		
+		@Override
+		protected void pauseAcquisition() throws Throwable {
+			codaUnit.acqStop();
+		}
+		
+		@Override
+		protected void resumeAcquisition() throws Throwable {
+			// Coda unit numbers frames from start of acquisition again
+			codaLastFrameIDFromBufferUpdate = 0;
+			codaLastFrameID = 0;
+			sourceMonitors[DataSource.CODA.ordinal()].getDeviceTracker().restart();
+			codaUnit.acqStart(Integer.MAX_VALUE);
+		}
+		
+	}
+	
+	private class XSensProducer extends SourceProducer {
+		
+		public XSensProducer() {
+			super(DataSource.XSENS);
+			if(xsensSampleFrequency > 0) period = 1000000000L/xsensSampleFrequency;
+		}
+		
+		@Override
+		protected void acquire() throws Throwable {
+			if(xSens.areNewValuesAvailable() == 1) {
+				
+				long acquisitionTime = System.nanoTime();
+				xsensAccX = (short) (1000*xSens.getAccelX());
+				xsensAccY = (short) (1000*xSens.getAccelY());
+				xsensGyroZ = (short) (100*xSens.getGyroZ()*180/Math.PI);
+				
+				xsensBytesBuffer[0] = (byte) (xSensSystemCode << 6);
+				xsensBytesBuffer[1] = (byte) (xsensAccX >> 8);
+				xsensBytesBuffer[2] = (byte) (xsensAccX & 0xFF);
+				xsensBytesBuffer[3] = (byte) (xsensAccY >> 8);
+				xsensBytesBuffer[4] = (byte) (xsensAccY & 0xFF);
+				xsensBytesBuffer[5] = (byte) (xsensGyroZ >> 8);
+				xsensBytesBuffer[6] = (byte) (xsensGyroZ & 0xFF);
+				
+				publish(DataSource.XSENS, xsensBytesBuffer, acquisitionTime);
+			} else waitForSample();
+		}
+		
+	}
+	
+	private class TimeStampProducer extends SourceProducer {
+		
+		public TimeStampProducer() {
+			super(DataSource.TIME_STAMP);
+		}
+		
+		/*
+		 * Tick n is due at startTime + n/frequency second, so that rate does not drift.
+		 * A tick later than next one is skipped rather than sent in a burst.
+		 */
+		private long startTime;
+		private long tick;
+		private long pauseStartTime;
+		
+		@Override
+		protected void acquire() throws Throwable {
+			if(startTime == 0) startTime = System.nanoTime();
+			long deadline = startTime + tick*1000000000L/timeStampSampleFrequency;
+			if(System.nanoTime() - deadline < 0) {
+				waitForSample(deadline);
+				return;
 			}
+			
+			long acquisitionTime = System.nanoTime();
+			timeStampEncoder.encode(timeStampSystemCode, acquisitionTime, tick, timeStampBytesBuffer);
+			// Skipped ticks show as device gaps
+			sourceMonitors[DataSource.TIME_STAMP.ordinal()].getDeviceTracker().record(tick);
+			publish(DataSource.TIME_STAMP, timeStampBytesBuffer, acquisitionTime);
+			
+			tick++;
+			long nextDeadline = startTime + tick*1000000000L/timeStampSampleFrequency;
+			if(acquisitionTime - nextDeadline >= 0) tick = (acquisitionTime - startTime)*timeStampSampleFrequency/1000000000L + 1;
 		}
-		// Get force plate data
-		int forcePlateCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("forcePlateCount : " + forcePlateCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < forcePlateCount; i++) {
-			int forcePlateID = byteBuffer.getInt();
-			int forcePlateChannelsCount = byteBuffer.getInt();
-			if(systemLog) System.out.println("\tforcePlateID : " + forcePlateID + " - forcePlateChannelsCount : " + forcePlateChannelsCount);
-			for(int j = 0; j < forcePlateChannelsCount; j++) {
-				int forcePlateChannelFramesCount = byteBuffer.getInt();
-				if(systemLog) System.out.println("\tforcePlateChannel : " + j + " - forcePlateChannelFramesCount : " + forcePlateChannelFramesCount);
-				for(int k = 0; k < forcePlateChannelFramesCount; k++) {
-					float value = byteBuffer.getFloat();
-					if(systemLog) System.out.println("\t\fforcePlateChannelFramesCount : " + k + " - value : " + value);
+		
+		@Override
+		protected void pauseAcquisition() throws Throwable {
+			pauseStartTime = System.nanoTime();
+		}
+		
+		@Override
+		protected void resumeAcquisition() throws Throwable {
+			// Ticks are not sent in a burst after pause
+			if(startTime != 0) startTime += System.nanoTime() - pauseStartTime;
+		}
+		
+	}
+	
+	private class OptitrackProducer extends SourceProducer {
+		
+		public OptitrackProducer() {
+			super(DataSource.OPTITRACK);
+		}
+		
+		@Override
+		protected void acquire() throws Throwable {
+			// Drain every pending packet, a missing frame is only counted as a time out
+			if(optitrackReceiver.select(OPTITRACK_SELECT_TIMEOUT)) {
+				while(optitrackReceiver.receiveData(optitrackReceiveByteBuffer)) {
+					processPacket(optitrackReceiveByteBuffer, System.nanoTime());
 				}
-			}
+			} else sourceMonitors[DataSource.OPTITRACK.ordinal()].recordTimeout();
+			optitrackReceiver.drainCommands();
 		}
-		// Get device data
-		int deviceCount = byteBuffer.getInt();
-		dataSize = byteBuffer.getInt();
-		if(systemLog) System.out.println("deviceCount : " + deviceCount + " - dataSize : " + dataSize);
-		for (int i = 0; i < deviceCount; i++) {
-			int deviceID = byteBuffer.getInt();
-			int deviceChannelsCount = byteBuffer.getInt();
-			if(systemLog) System.out.println("\tforcePlateID : " + deviceID + " - forcePlateChannelsCount : " + deviceChannelsCount);
-			for(int j = 0; j < deviceChannelsCount; j++) {
-				float value = byteBuffer.getInt();
-				value = byteBuffer.getFloat();
-				if(systemLog) System.out.println("\t\tdeviceChannelsCount : " + j + " - value : " + value);
+		
+		private void processPacket(ByteBuffer byteBuffer, long acquisitionTime) {
+			SourceMonitor sourceMonitor = sourceMonitors[DataSource.OPTITRACK.ordinal()];
+			boolean isFrameOfData = NatNetParser.isFrameOfData(byteBuffer);
+			if(NatNetParser.parseFrameOfData(byteBuffer, optitrackFirstMarkerIndex)) {
+				
+				// Duplicated and reordered packets are counted but not streamed
+				SequenceTracker.Status status = sourceMonitor.getDeviceTracker().record(OptitrackData.frameID);
+				if(status != SequenceTracker.Status.DUPLICATE && status != SequenceTracker.Status.LATE) {
+					
+					byte frameID = (byte) OptitrackData.frameID;
+					
+					OptitrackData.lastFrameID = OptitrackData.frameID;
+					
+					byte[] visibilities = OptitrackData.unlabeledMarkersVisibilities;
+					
+					MarkersEncoder.encode(optitrackSystemCode, frameID, OptitrackData.unlabeledMarkersPositions, visibilities, optitrackNbUnlabeledMarkers, OPTITRACK_SCALE, optitrackBytesBuffer);
+					if(wireFormat == WireFormat.V2) MarkersEncoder.encodeCoordinates(OptitrackData.unlabeledMarkersPositions, optitrackNbUnlabeledMarkers, OPTITRACK_MILLIMETER_SCALE, optitrackBytesBuffer, WireFormat.MARKER_LENGTH*optitrackNbUnlabeledMarkers);
+					
+					publish(DataSource.OPTITRACK, optitrackBytesBuffer, acquisitionTime);
+				}
+			} else if(isFrameOfData) sourceMonitor.recordParserError();
+		}
+		
+	}
+
+	/**
+	 * Re-streams a recorded session, each frame keeping its original source.
+	 * Frames are paced on their recorded times divided by replay speed,
+	 * or sent as fast as observers accept them when replay speed is 0.
+	 * Replay never drops a frame : it waits for room in frames ring buffer.
+	 * Streaming stops once all session frames have been sent.
+	 */
+	private class ReplayProducer extends SourceProducer {
+		
+		private final SessionReader sessionReader;
+		private final byte[][] replayBytesBuffers = new byte[DataSource.values().length][];
+		private long firstFrameTime;
+		private long replayStartTime;
+		private long pauseStartTime;
+		
+		public ReplayProducer() throws IOException {
+			super("Replay producer");
+			sessionReader = new SessionReader(replaySessionFileName);
+			for (int i = 0; i < replayBytesBuffers.length; i++) replayBytesBuffers[i] = new byte[replayFrameLengths[i]];
+		}
+		
+		@Override
+		protected void acquire() throws Throwable {
+			if(replayFinished) {
+				Thread.sleep(1);
+				return;
+			}
+			if(!sessionReader.next()) {
+				replayFinished = true;
+				return;
+			}
+			DataSource source = sessionReader.getSource();
+			byte[] bytesBuffer = replayBytesBuffers[source.ordinal()];
+			if(bytesBuffer.length == 0) return;
+			sessionReader.getFrame(bytesBuffer);
+			
+			if(replayStartTime == 0) {
+				firstFrameTime = sessionReader.getTime();
+				replayStartTime = System.nanoTime();
+			}
+			if(replaySpeed > 0) {
+				long deadline = replayStartTime + (long) ((sessionReader.getTime() - firstFrameTime)/replaySpeed);
+				// Replay spins through wait margin to be on time
+				if(System.nanoTime() - (deadline - waitMargin) < 0) waitStrategy.waitUntil(deadline - waitMargin);
+				while(System.nanoTime() - deadline < 0) Thread.onSpinWait();
 			}
+			
+			for (int i = 0; framesRingBuffer.getSize() >= framesRingBuffer.getCapacity(); i++) waitStrategy.idle(i, PRODUCER_PARK_TIME);
+			publish(source, bytesBuffer, System.nanoTime());
+		}
+		
+		@Override
+		protected void pauseAcquisition() throws Throwable {
+			pauseStartTime = System.nanoTime();
 		}
-		// Get frame suffix
-		int timeCode = byteBuffer.getInt();
-		int subTimeCode = byteBuffer.getInt();
-		double timeStamp = byteBuffer.getDouble();
-		double midExposureTimeStamp = byteBuffer.getDouble();
-		long stampDataReceived = byteBuffer.getLong();
-		long stampTransmit = byteBuffer.getLong();
-		int precTimestampSecs = byteBuffer.getInt();
-		int precTimestampFracSecs = byteBuffer.getInt();
-		short params = byteBuffer.getShort();
-		boolean isRecording = (params & 0x01) != 0;
-		boolean trackedModelsChanged = (params & 0x02) != 0;
-		if(systemLog) {
-			System.out.println("timeCode : " + timeCode + " - subTimeCode : " + subTimeCode);
-			System.out.println("midExposureTimeStamp : " + midExposureTimeStamp + " - timeStamp : " + timeStamp);
-			System.out.println("stampDataReceived : " + stampDataReceived + " - stampTransmit : " + stampTransmit);
-			System.out.println("precTimestampSecs : " + precTimestampSecs + " - precTimestampFracSecs : " + precTimestampFracSecs);
-			System.out.println("isRecording : " + isRecording + " - trackedModelsChanged : " + trackedModelsChanged);
-			System.out.println(">>>> End frame");
+		
+		@Override
+		protected void resumeAcquisition() throws Throwable {
+			// Paused time is not replayed
+			if(replayStartTime != 0) replayStartTime += System.nanoTime() - pauseStartTime;
 		}
+		
 	}
 
 	/**
 	 * This method is called when it is necessary to notify obaservers
 	 */
-	private void updateObservers(byte[] buffer) {
+	private void updateObservers(int slot) {
+		DataSource source = framesRingBuffer.getSource(slot);
+		int sequence = framesRingBuffer.getSequence(slot);
+		long acquisitionTime = framesRingBuffer.getAcquisitionTime(slot);
+		byte[] bytesBuffer = framesRingBuffer.getFrame(slot);
+		ByteBuffer frame = framesRingBuffer.getFrameView(slot);
+		int length = frame.limit();
 		for (int i = 0; i < observers.size(); i++) {
-			observers.get(i).update(buffer);
+			FrameObserver observer = observers.get(i);
+			if(observer instanceof DataObserverAdapter) {
+				// Slot array is given as it is, without copy
+				((DataObserverAdapter) observer).getObserver().update(source, sequence, acquisitionTime, bytesBuffer);
+				continue;
+			}
+			// An observer may have moved view position
+			frame.clear();
+			observer.update(source, sequence, acquisitionTime, frame, 0, length);
 		}
 	}
 
+	/**
+	 * Let observers send frames they kept, see {@link FrameObserver#flush()}.
+	 */
+	private void flushObservers() {
+		for (int i = 0; i < observers.size(); i++) observers.get(i).flush();
+	}
+
 	public void setPause(boolean value) {
-		if(pause) {
-			codaLastFrameIDFromBufferUpdate = 0;
-			codaLastFrameID = 0;
-		}
 		pause = value;
 	}
 
@@ -0,0 +1,175 @@
+package datastreamer;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pre-allocated lock-free multi-producer single-consumer ring of frames.<br>
+ * Each source producer thread copies its encoded frame into a free slot with
+ * {@link #publish(DataSource, byte[], long)}. The dispatcher thread reads
+ * slots in publication order with {@link #poll()} and gives them back with
+ * {@link #release()}.<br><br>
+ * Each slot owns one array per source, sized to the frame length of that
+ * source, so observers always receive an array whose length is the frame
+ * length and no allocation happens once the ring is built. A read-only
+ * {@link ByteBuffer} view of each of these arrays is also built once.<br>
+ * When the ring is full, publication fails and the frame is counted as dropped :
+ * a producer never waits for the dispatcher.<br>
+ * Each publication attempt takes next 32-bit sequence number of its source,
+ * so that a dropped frame leaves a gap in the sequence seen by the consumer.
+ * @author fbuloup
+ */
+public final class FramesRingBuffer {
+
+	private final int capacity;
+	private final int mask;
+
+	private final byte[][][] frames;
+	private final ByteBuffer[][] frameViews;
+	private final DataSource[] sources;
+	private final int[] sequences;
+	private final long[] acquisitionTimes;
+	private final AtomicIntegerArray sourceSequences;
+
+	private final AtomicLongArray publishedSequences;
+	private final AtomicLong claimedSequence = new AtomicLong();
+	private final AtomicLong releasedSequence = new AtomicLong();
+	private final AtomicLong droppedFrames = new AtomicLong();
+
+	// Only accessed by consumer thread
+	private long nextSequence;
+
+	/**
+	 * Build a new ring.
+	 * @param minimumCapacity minimum number of slots. Rounded up to next power of two.
+	 * @param frameLengths frame length for each source, indexed by {@link DataSource#ordinal()}.
+	 * Use 0 for unused sources.
+	 */
+	public FramesRingBuffer(int minimumCapacity, int[] frameLengths) {
+		int size = 1;
+		while(size < minimumCapacity) size <<= 1;
+		capacity = size;
+		mask = size - 1;
+		frames = new byte[capacity][frameLengths.length][];
+		frameViews = new ByteBuffer[capacity][frameLengths.length];
+		for (int i = 0; i < capacity; i++) {
+			for (int j = 0; j < frameLengths.length; j++) {
+				frames[i][j] = new byte[frameLengths[j]];
+				frameViews[i][j] = ByteBuffer.wrap(frames[i][j]).asReadOnlyBuffer();
+			}
+		}
+		sources = new DataSource[capacity];
+		sequences = new int[capacity];
+		acquisitionTimes = new long[capacity];
+		sourceSequences = new AtomicIntegerArray(frameLengths.length);
+		publishedSequences = new AtomicLongArray(capacity);
+		for (int i = 0; i < capacity; i++) publishedSequences.set(i, -1);
+	}
+
+	/**
+	 * Copy a frame into next free slot. May be called concurrently by any number of producers.
+	 * @param source source of the frame
+	 * @param frame encoded frame. Its length must be the one given at construction for this source.
+	 * @param acquisitionTime {@link System#nanoTime()} when the frame has been acquired
+	 * @return true if frame has been published, false if ring was full and frame has been dropped
+	 */
+	public boolean publish(DataSource source, byte[] frame, long acquisitionTime) {
+		return publish(source, frame, sourceSequences.getAndIncrement(source.ordinal()), acquisitionTime);
+	}
+
+	/**
+	 * Same as {@link #publish(DataSource, byte[], long)}, frame keeping a sequence number given by caller
+	 * (for instance the one it was received with) instead of taking next sequence number of its source.
+	 * @param source source of the frame
+	 * @param frame encoded frame. Its length must be the one given at construction for this source.
+	 * @param sourceSequence sequence number of the frame within its source
+	 * @param acquisitionTime {@link System#nanoTime()} when the frame has been acquired
+	 * @return true if frame has been published, false if ring was full and frame has been dropped
+	 */
+	public boolean publish(DataSource source, byte[] frame, int sourceSequence, long acquisitionTime) {
+		long sequence;
+		do {
+			sequence = claimedSequence.get();
+			if(sequence - releasedSequence.get() >= capacity) {
+				droppedFrames.incrementAndGet();
+				return false;
+			}
+		} while(!claimedSequence.compareAndSet(sequence, sequence + 1));
+		int slot = (int) (sequence & mask);
+		byte[] slotFrame = frames[slot][source.ordinal()];
+		System.arraycopy(frame, 0, slotFrame, 0, slotFrame.length);
+		sources[slot] = source;
+		sequences[slot] = sourceSequence;
+		acquisitionTimes[slot] = acquisitionTime;
+		publishedSequences.lazySet(slot, sequence);
+		return true;
+	}
+
+	/**
+	 * Consumer side : get next published slot.
+	 * @return slot index or -1 if next frame is not yet published
+	 */
+	public int poll() {
+		int slot = (int) (nextSequence & mask);
+		if(publishedSequences.get(slot) != nextSequence) return -1;
+		return slot;
+	}
+
+	/**
+	 * Consumer side : give back slot returned by last {@link #poll()} to producers.
+	 */
+	public void release() {
+		nextSequence++;
+		releasedSequence.lazySet(nextSequence);
+	}
+
+	public DataSource getSource(int slot) {
+		return sources[slot];
+	}
+
+	public byte[] getFrame(int slot) {
+		return frames[slot][sources[slot].ordinal()];
+	}
+
+	/**
+	 * @return read-only view of slot frame, positioned at 0 and limited to frame length.
+	 * Same view is returned each time for a given slot and source.
+	 */
+	public ByteBuffer getFrameView(int slot) {
+		ByteBuffer frameView = frameViews[slot][sources[slot].ordinal()];
+		frameView.clear();
+		return frameView;
+	}
+
+	/**
+	 * @return sequence number of slot frame within its source
+	 */
+	public int getSequence(int slot) {
+		return sequences[slot];
+	}
+
+	public long getAcquisitionTime(int slot) {
+		return acquisitionTimes[slot];
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of frames waiting for the consumer
+	 */
+	public int getSize() {
+		return (int) (claimedSequence.get() - releasedSequence.get());
+	}
+
+	/**
+	 * @return number of frames dropped because ring was full
+	 */
+	public long getDroppedFrames() {
+		return droppedFrames.get();
+	}
+
+}
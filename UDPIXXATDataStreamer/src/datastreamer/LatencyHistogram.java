@@ -0,0 +1,99 @@
+package datastreamer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Constant memory histogram of durations in nanoseconds.<br>
+ * Buckets are log-linear : each power of two is split in 64 sub buckets, so that
+ * any recorded value is known with a relative error lower than 1/64 (about 1.6%).
+ * Values from 0 to 2^40 ns (about 18 minutes) are recorded, bigger values are clamped.<br>
+ * Recording must be done by a single thread, any other thread may read the histogram
+ * at any time without locking.
+ * @author fbuloup
+ */
+public final class LatencyHistogram {
+
+	private final static int SUB_BUCKET_BITS = 6;
+	private final static int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+	private final static long MAX_VALUE = (1L << 40) - 1;
+	private final static int COUNTS_LENGTH = indexOf(MAX_VALUE) + 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(COUNTS_LENGTH);
+	// 0 : total count, 1 : sum, 2 : min, 3 : max
+	private final AtomicLongArray summary = new AtomicLongArray(4);
+
+	public LatencyHistogram() {
+		summary.set(2, Long.MAX_VALUE);
+	}
+
+	private static int indexOf(long value) {
+		int shift = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS);
+		return (shift << SUB_BUCKET_BITS) + (int) (value >>> shift);
+	}
+
+	private static long highestValueAt(int index) {
+		int shift = Math.max(0, (index >> SUB_BUCKET_BITS) - 1);
+		long mantissa = index - (shift << SUB_BUCKET_BITS);
+		return ((mantissa + 1) << shift) - 1;
+	}
+
+	/**
+	 * Record a duration. Must always be called from the same thread.
+	 * @param value duration in nanoseconds, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if(value < 0) value = 0;
+		if(value > MAX_VALUE) value = MAX_VALUE;
+		int index = indexOf(value);
+		counts.lazySet(index, counts.get(index) + 1);
+		summary.lazySet(0, summary.get(0) + 1);
+		summary.lazySet(1, summary.get(1) + value);
+		if(value < summary.get(2)) summary.lazySet(2, value);
+		if(value > summary.get(3)) summary.lazySet(3, value);
+	}
+
+	/**
+	 * Forget recorded values. Must be called from recording thread, or before it starts recording.
+	 */
+	public void reset() {
+		for (int i = 0; i < COUNTS_LENGTH; i++) counts.set(i, 0);
+		summary.set(0, 0);
+		summary.set(1, 0);
+		summary.set(2, Long.MAX_VALUE);
+		summary.set(3, 0);
+	}
+
+	public long getCount() {
+		return summary.get(0);
+	}
+
+	public long getMin() {
+		return getCount() == 0 ? 0 : summary.get(2);
+	}
+
+	public long getMax() {
+		return summary.get(3);
+	}
+
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) summary.get(1)/count;
+	}
+
+	/**
+	 * @param percentile between 0 and 100
+	 * @return highest value (ns) below which given percentile of recorded values fall
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount();
+		if(count == 0) return 0;
+		long countAtPercentile = Math.max(1, (long) Math.ceil(percentile/100.0*count));
+		long total = 0;
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			total += counts.get(i);
+			if(total >= countAtPercentile) return Math.min(highestValueAt(i), getMax());
+		}
+		return getMax();
+	}
+
+}
@@ -0,0 +1,56 @@
+package datastreamer;
+
+/**
+ * Packs markers positions into coda/optitrack frames, 8 bytes per marker
+ * (see {@link DataStreamer} for frame layout), followed by float32 coordinates
+ * in {@link WireFormat#V2}.
+ * @author fbuloup
+ */
+public final class MarkersEncoder {
+
+	/**
+	 * Pack markers positions.
+	 * @param systemCode system code on two bits
+	 * @param frameID frame ID written in second byte of each marker
+	 * @param positions x, y and z of each marker
+	 * @param visibilities visibility of each marker, 0 meaning invisible
+	 * @param nbMarkers number of markers to pack
+	 * @param scale factor applied to positions before they are truncated to short
+	 * @param bytesBuffer destination, at least 8*nbMarkers long
+	 */
+	public static void encode(byte systemCode, byte frameID, float[] positions, byte[] visibilities, int nbMarkers, float scale, byte[] bytesBuffer) {
+		for (int j = 0; j < nbMarkers; j++) {
+			short xValue = (short) (scale*positions[3*j]);
+			short yValue = (short) (scale*positions[3*j + 1]);
+			short zValue = (short) (scale*positions[3*j + 2]);
+
+			bytesBuffer[0 + 8*j] = (byte) ( (systemCode << 6) | ((visibilities[j] == 0) ? (byte)(j+1) : (byte)((j+1) | 0x20)) );
+			bytesBuffer[1 + 8*j] = frameID;
+			bytesBuffer[2 + 8*j] = (byte) (xValue >> 8);
+			bytesBuffer[3 + 8*j] = (byte) (xValue & 0xFF);
+			bytesBuffer[4 + 8*j] = (byte) (yValue >> 8);
+			bytesBuffer[5 + 8*j] = (byte) (yValue & 0xFF);
+			bytesBuffer[6 + 8*j] = (byte) (zValue >> 8);
+			bytesBuffer[7 + 8*j] = (byte) (zValue & 0xFF);
+		}
+	}
+
+	/**
+	 * Pack markers positions as big endian float32, 12 bytes per marker.
+	 * @param positions x, y and z of each marker
+	 * @param nbMarkers number of markers to pack
+	 * @param scale factor applied to positions so that they are in millimeters
+	 * @param bytesBuffer destination
+	 * @param offset index of first x in destination
+	 */
+	public static void encodeCoordinates(float[] positions, int nbMarkers, float scale, byte[] bytesBuffer, int offset) {
+		for (int i = 0; i < 3*nbMarkers; i++) {
+			int value = Float.floatToIntBits(scale*positions[i]);
+			bytesBuffer[offset + 4*i] = (byte) (value >> 24);
+			bytesBuffer[offset + 4*i + 1] = (byte) (value >> 16);
+			bytesBuffer[offset + 4*i + 2] = (byte) (value >> 8);
+			bytesBuffer[offset + 4*i + 3] = (byte) (value & 0xFF);
+		}
+	}
+
+}
@@ -0,0 +1,36 @@
+package datastreamer;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registration of monitoring MBeans into platform MBean server, so that counters
+ * can be watched live with JConsole or VisualVM.<br>
+ * MBeans are named udpixxatdatastreamer:type=&lt;type&gt;,name=&lt;name&gt;. An MBean
+ * already registered with the same name (previous streaming in same JVM) is replaced.
+ * @author fbuloup
+ */
+public final class Monitoring {
+
+	public final static String DOMAIN = "udpixxatdatastreamer";
+
+	/**
+	 * @param mbean standard MBean
+	 * @param type MBean type, Source or Transport
+	 * @param name MBean name within its type
+	 */
+	public static void register(Object mbean, String type, String name) {
+		try {
+			MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+			if(mBeanServer.isRegistered(objectName)) mBeanServer.unregisterMBean(objectName);
+			mBeanServer.registerMBean(mbean, objectName);
+		} catch (JMException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
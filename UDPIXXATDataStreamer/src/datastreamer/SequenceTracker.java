@@ -0,0 +1,159 @@
+package datastreamer;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Follows a sequence of frame numbers and classifies each number against the highest one seen :
+ * next one, gap (numbers skipped), duplicate, late (reordered, received after a higher one)
+ * or restart (far behind, numbering started again).<br>
+ * Last {@value #WINDOW} numbers are remembered, so that a late frame is told from a duplicate and
+ * is no longer counted as missing. Gap lengths are counted in power of two buckets :
+ * 1, 2, 3-4, 5-8... 65-128 and more than 128 frames.<br>
+ * Numbers must be recorded by a single thread, counters may be read by any thread.
+ * @author fbuloup
+ */
+public final class SequenceTracker {
+
+	public enum Status {
+		FIRST, NEXT, GAP, DUPLICATE, LATE, RESTART
+	}
+
+	private final static int WINDOW = 64;
+	private final static int NB_GAP_LENGTHS = 9;
+
+	private final static int GAPS = 0;
+	private final static int MISSING = 1;
+	private final static int DUPLICATES = 2;
+	private final static int LATES = 3;
+	private final static int RESTARTS = 4;
+
+	// Only updated on anomalies, so that in order frames cost no atomic write
+	private final AtomicLongArray counters = new AtomicLongArray(5);
+	private final AtomicLongArray gapLengths = new AtomicLongArray(NB_GAP_LENGTHS);
+
+	// Writer side
+	private boolean started;
+	private long first;
+	private long last;
+	// Bit i is set when number last - i has been received
+	private long received;
+
+	/**
+	 * Classify a frame number and update counters.
+	 * @param number frame number, incremented by one for each frame at its origin
+	 * @return status of this number
+	 */
+	public Status record(long number) {
+		if(!started) {
+			started = true;
+			first = number;
+			last = number;
+			received = 1;
+			return Status.FIRST;
+		}
+		long delta = number - last;
+		if(delta == 1) {
+			last = number;
+			received = (received << 1) | 1;
+			return Status.NEXT;
+		}
+		if(delta > 1) {
+			long length = delta - 1;
+			counters.incrementAndGet(GAPS);
+			counters.addAndGet(MISSING, length);
+			gapLengths.incrementAndGet(Math.min(NB_GAP_LENGTHS - 1, 64 - Long.numberOfLeadingZeros(length - 1)));
+			last = number;
+			received = (delta < WINDOW) ? (received << delta) | 1 : 1;
+			return Status.GAP;
+		}
+		if(-delta < WINDOW) {
+			long bit = 1L << -delta;
+			if((received & bit) != 0) {
+				counters.incrementAndGet(DUPLICATES);
+				return Status.DUPLICATE;
+			}
+			received |= bit;
+			counters.incrementAndGet(LATES);
+			// Numbers before first one were never counted as missing
+			if(number > first) counters.decrementAndGet(MISSING);
+			return Status.LATE;
+		}
+		counters.incrementAndGet(RESTARTS);
+		first = number;
+		last = number;
+		received = 1;
+		return Status.RESTART;
+	}
+
+	/**
+	 * Writer side : next number starts a new sequence, without being counted as a restart.
+	 * Counters are kept, for instance when acquisition resumes after a pause.
+	 */
+	public void restart() {
+		started = false;
+	}
+
+	/**
+	 * Forget sequence and clear counters, for a new streaming. Must not be called while numbers are recorded.
+	 */
+	public void reset() {
+		started = false;
+		for (int i = 0; i < counters.length(); i++) counters.set(i, 0);
+		for (int i = 0; i < gapLengths.length(); i++) gapLengths.set(i, 0);
+	}
+
+	/**
+	 * @return number of gaps, whatever their length
+	 */
+	public long getGaps() {
+		return counters.get(GAPS);
+	}
+
+	/**
+	 * @return frames skipped by gaps and not received late
+	 */
+	public long getMissingFrames() {
+		return counters.get(MISSING);
+	}
+
+	public long getDuplicates() {
+		return counters.get(DUPLICATES);
+	}
+
+	public long getLateFrames() {
+		return counters.get(LATES);
+	}
+
+	public long getRestarts() {
+		return counters.get(RESTARTS);
+	}
+
+	/**
+	 * @return number of gaps of each length bucket, for instance "1:12 2:3 3-4:0 5-8:1 ..."
+	 */
+	public String getGapLengths() {
+		StringBuilder gapLengthsString = new StringBuilder();
+		for (int i = 0; i < NB_GAP_LENGTHS; i++) {
+			if(i > 0) gapLengthsString.append(' ');
+			long from = (i < 2) ? i + 1 : (1L << (i - 1)) + 1;
+			long to = 1L << i;
+			if(i == NB_GAP_LENGTHS - 1) gapLengthsString.append('>').append(from - 1);
+			else if(from == to) gapLengthsString.append(from);
+			else gapLengthsString.append(from).append('-').append(to);
+			gapLengthsString.append(':').append(gapLengths.get(i));
+		}
+		return gapLengthsString.toString();
+	}
+
+	/**
+	 * @param printStream where to print
+	 * @param name name of the sequence
+	 */
+	public void print(PrintStream printStream, String name) {
+		printStream.println("\t" + name + " : gaps " + getGaps() + " (" + getMissingFrames() + " frames missing) - duplicates " + getDuplicates()
+				+ " - late " + getLateFrames() + " - restarts " + getRestarts());
+		if(getGaps() > 0) printStream.println("\t" + name + " gap lengths : " + getGapLengths());
+	}
+
+}
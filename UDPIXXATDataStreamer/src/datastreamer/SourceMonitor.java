@@ -0,0 +1,150 @@
+package datastreamer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Live counters of a source, registered as MBean udpixxatdatastreamer:type=Source,name=&lt;source&gt;.<br>
+ * Losses are tracked at each stage, to tell where they come from :
+ * <ul>
+ * <li>device : frame numbers given by the device (coda frame, NatNet frame, time stamp tick),
+ * recorded by source producer</li>
+ * <li>parser : received packets that could not be decoded, recorded by source producer</li>
+ * <li>stream : ring sequence numbers seen by dispatcher, gaps are frames dropped because ring was full</li>
+ * </ul>
+ * Time outs are recorded by source producer. Latencies are read from source {@link SourceStatistics}.
+ * @author fbuloup
+ */
+public final class SourceMonitor implements SourceMonitorMBean {
+
+	private final SourceStatistics sourceStatistics;
+	private final ThroughputCounter frames = new ThroughputCounter();
+	private final LongAdder timeouts = new LongAdder();
+	private final LongAdder parserErrors = new LongAdder();
+	private final SequenceTracker deviceTracker = new SequenceTracker();
+	private final SequenceTracker streamTracker = new SequenceTracker();
+
+	SourceMonitor(SourceStatistics sourceStatistics) {
+		this.sourceStatistics = sourceStatistics;
+	}
+
+	/**
+	 * Clear every counter and forget last frame numbers : a new streaming starts from scratch.
+	 * Must be called before producers and dispatcher start.
+	 */
+	void reset() {
+		frames.reset();
+		timeouts.reset();
+		parserErrors.reset();
+		deviceTracker.reset();
+		streamTracker.reset();
+	}
+
+	/**
+	 * Dispatcher side : count a frame sent to observers and the frames missing before it.
+	 * @param sequence frame sequence number within its source
+	 */
+	void recordFrame(int sequence) {
+		streamTracker.record(sequence);
+		frames.increment();
+	}
+
+	void recordTimeout() {
+		timeouts.increment();
+	}
+
+	void recordParserError() {
+		parserErrors.increment();
+	}
+
+	/**
+	 * @return producer side tracker of device frame numbers
+	 */
+	SequenceTracker getDeviceTracker() {
+		return deviceTracker;
+	}
+
+	SequenceTracker getStreamTracker() {
+		return streamTracker;
+	}
+
+	@Override
+	public long getTotalFrames() {
+		return frames.get();
+	}
+
+	@Override
+	public double getFramesPerSecond() {
+		return frames.getRate();
+	}
+
+	@Override
+	public long getSequenceGaps() {
+		return streamTracker.getMissingFrames();
+	}
+
+	@Override
+	public String getSequenceGapLengths() {
+		return streamTracker.getGapLengths();
+	}
+
+	@Override
+	public long getDeviceGaps() {
+		return deviceTracker.getGaps();
+	}
+
+	@Override
+	public long getDeviceMissingFrames() {
+		return deviceTracker.getMissingFrames();
+	}
+
+	@Override
+	public String getDeviceGapLengths() {
+		return deviceTracker.getGapLengths();
+	}
+
+	@Override
+	public long getDeviceDuplicates() {
+		return deviceTracker.getDuplicates();
+	}
+
+	@Override
+	public long getDeviceLateFrames() {
+		return deviceTracker.getLateFrames();
+	}
+
+	@Override
+	public long getDeviceRestarts() {
+		return deviceTracker.getRestarts();
+	}
+
+	@Override
+	public long getParserErrors() {
+		return parserErrors.sum();
+	}
+
+	@Override
+	public long getTimeouts() {
+		return timeouts.sum();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		return DataStreamer.getQueueDepth();
+	}
+
+	@Override
+	public double getLatencyP50Micros() {
+		return sourceStatistics.getLatencyHistogram().getValueAtPercentile(50)/1000.0;
+	}
+
+	@Override
+	public double getLatencyP99Micros() {
+		return sourceStatistics.getLatencyHistogram().getValueAtPercentile(99)/1000.0;
+	}
+
+	@Override
+	public double getLatencyMaxMicros() {
+		return sourceStatistics.getLatencyHistogram().getMax()/1000.0;
+	}
+
+}
@@ -0,0 +1,77 @@
+package datastreamer;
+
+/**
+ * Live counters of a source, see {@link SourceMonitor}.
+ * @author fbuloup
+ */
+public interface SourceMonitorMBean {
+
+	/**
+	 * @return frames sent to observers
+	 */
+	long getTotalFrames();
+
+	double getFramesPerSecond();
+
+	/**
+	 * @return frames missing from sequence seen by dispatcher (dropped because ring was full)
+	 */
+	long getSequenceGaps();
+
+	/**
+	 * @return number of ring sequence gaps of 1, 2, 3-4, 5-8... frames
+	 */
+	String getSequenceGapLengths();
+
+	/**
+	 * @return gaps in device frame numbers (frames lost by device, network or skipped by producer)
+	 */
+	long getDeviceGaps();
+
+	/**
+	 * @return device frames skipped by gaps and not received late
+	 */
+	long getDeviceMissingFrames();
+
+	/**
+	 * @return number of device gaps of 1, 2, 3-4, 5-8... frames
+	 */
+	String getDeviceGapLengths();
+
+	/**
+	 * @return device frames received twice, not streamed
+	 */
+	long getDeviceDuplicates();
+
+	/**
+	 * @return device frames received after a more recent one, not streamed
+	 */
+	long getDeviceLateFrames();
+
+	/**
+	 * @return times device frame numbers went far backwards (device numbering restarted)
+	 */
+	long getDeviceRestarts();
+
+	/**
+	 * @return received packets that could not be decoded
+	 */
+	long getParserErrors();
+
+	/**
+	 * @return waits for data that ended without any frame
+	 */
+	long getTimeouts();
+
+	/**
+	 * @return frames of all sources waiting for dispatcher
+	 */
+	int getQueueDepth();
+
+	double getLatencyP50Micros();
+
+	double getLatencyP99Micros();
+
+	double getLatencyMaxMicros();
+
+}
@@ -0,0 +1,89 @@
+package datastreamer;
+
+import java.io.PrintStream;
+
+/**
+ * Always-on timing statistics of one source, recorded by {@link DataStreamer} dispatcher
+ * for each frame sent to observers :
+ * <ul>
+ * <li>Interval : time between acquisitions of two successive frames (jitter)</li>
+ * <li>Latency : time from frame acquisition to end of observers notification (grab-to-send)</li>
+ * <li>Send : duration of observers notification</li>
+ * </ul>
+ * @author fbuloup
+ */
+public final class SourceStatistics {
+
+	private final DataSource source;
+	private final LatencyHistogram intervalHistogram = new LatencyHistogram();
+	private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+	private final LatencyHistogram sendHistogram = new LatencyHistogram();
+
+	private long lastAcquisitionTime = Long.MIN_VALUE;
+
+	public SourceStatistics(DataSource source) {
+		this.source = source;
+	}
+
+	/**
+	 * Record timings of a frame. Must always be called from the same thread.
+	 * @param acquisitionTime {@link System#nanoTime()} when frame has been acquired
+	 * @param sendStartTime {@link System#nanoTime()} before observers notification
+	 * @param sendEndTime {@link System#nanoTime()} after observers notification
+	 */
+	public void record(long acquisitionTime, long sendStartTime, long sendEndTime) {
+		if(lastAcquisitionTime != Long.MIN_VALUE) intervalHistogram.record(acquisitionTime - lastAcquisitionTime);
+		lastAcquisitionTime = acquisitionTime;
+		latencyHistogram.record(sendEndTime - acquisitionTime);
+		sendHistogram.record(sendEndTime - sendStartTime);
+	}
+
+	/**
+	 * Forget recorded timings : a new streaming starts. Must be called before dispatcher starts recording.
+	 */
+	public void reset() {
+		intervalHistogram.reset();
+		latencyHistogram.reset();
+		sendHistogram.reset();
+		lastAcquisitionTime = Long.MIN_VALUE;
+	}
+
+	public DataSource getSource() {
+		return source;
+	}
+
+	public LatencyHistogram getIntervalHistogram() {
+		return intervalHistogram;
+	}
+
+	public LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram;
+	}
+
+	public LatencyHistogram getSendHistogram() {
+		return sendHistogram;
+	}
+
+	/**
+	 * Print percentiles of all histograms, in microseconds.
+	 * @param printStream where to print
+	 */
+	public void print(PrintStream printStream) {
+		printStream.println(source + " frames : " + latencyHistogram.getCount());
+		print(printStream, "Interval", intervalHistogram);
+		print(printStream, "Latency", latencyHistogram);
+		print(printStream, "Send", sendHistogram);
+	}
+
+	private static void print(PrintStream printStream, String name, LatencyHistogram histogram) {
+		printStream.println(String.format("\t%-8s (us) : min %10.1f - p50 %10.1f - p99 %10.1f - p99.9 %10.1f - max %10.1f - mean %10.1f",
+				name,
+				histogram.getMin()/1000.0,
+				histogram.getValueAtPercentile(50)/1000.0,
+				histogram.getValueAtPercentile(99)/1000.0,
+				histogram.getValueAtPercentile(99.9)/1000.0,
+				histogram.getMax()/1000.0,
+				histogram.getMean()/1000.0));
+	}
+
+}
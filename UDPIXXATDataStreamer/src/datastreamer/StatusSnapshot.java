@@ -0,0 +1,108 @@
+package datastreamer;
+
+import java.lang.invoke.VarHandle;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latest frame of each source with frames and invisible markers counters, written by
+ * dispatcher after each frame and copied by console renderer without lock.<br>
+ * Writer makes version odd, updates values then makes version even again : a reader
+ * retries its copy until it saw the same even version before and after it. Writer
+ * never waits, reader only retries when it raced with an update.
+ * @author fbuloup
+ */
+final class StatusSnapshot {
+
+	private final AtomicLong version = new AtomicLong();
+	// Indexed by DataSource#ordinal()
+	private final byte[][] frames;
+	private final long[] nbFrames;
+	// Number of frames in which each marker was invisible, for coda and optitrack
+	private final long[][] nbInvisibleFrames;
+
+	/**
+	 * @param frameLengths frame length of each source, indexed by {@link DataSource#ordinal()}
+	 * @param wireFormat layout of frames
+	 */
+	StatusSnapshot(int[] frameLengths, WireFormat wireFormat) {
+		frames = new byte[frameLengths.length][];
+		nbFrames = new long[frameLengths.length];
+		nbInvisibleFrames = new long[frameLengths.length][];
+		for (int i = 0; i < frameLengths.length; i++) {
+			frames[i] = new byte[frameLengths[i]];
+			nbInvisibleFrames[i] = new long[WireFormat.hasMarkers(DataSource.values()[i]) ? wireFormat.getNbMarkers(frameLengths[i]) : 0];
+		}
+	}
+
+	/**
+	 * Build a snapshot whose arrays have the same lengths, to copy this one into.
+	 */
+	StatusSnapshot(StatusSnapshot statusSnapshot) {
+		int[] frameLengths = new int[statusSnapshot.frames.length];
+		for (int i = 0; i < frameLengths.length; i++) frameLengths[i] = statusSnapshot.frames[i].length;
+		frames = new byte[frameLengths.length][];
+		nbFrames = new long[frameLengths.length];
+		nbInvisibleFrames = new long[frameLengths.length][];
+		for (int i = 0; i < frameLengths.length; i++) {
+			frames[i] = new byte[frameLengths[i]];
+			nbInvisibleFrames[i] = new long[statusSnapshot.nbInvisibleFrames[i].length];
+		}
+	}
+
+	/**
+	 * Writer side, single thread : store a frame that has been sent.
+	 * @param source source of the frame
+	 * @param frame encoded frame
+	 */
+	void update(DataSource source, byte[] frame) {
+		int i = source.ordinal();
+		long v = version.get();
+		version.set(v + 1);
+		VarHandle.storeStoreFence();
+		System.arraycopy(frame, 0, frames[i], 0, frames[i].length);
+		nbFrames[i]++;
+		long[] invisibleFrames = nbInvisibleFrames[i];
+		for (int j = 0; j < invisibleFrames.length; j++) {
+			if((frame[WireFormat.MARKER_LENGTH*j] & 0x20) == 0) invisibleFrames[j]++;
+		}
+		version.set(v + 2);
+	}
+
+	/**
+	 * Reader side : copy this snapshot.
+	 * @param copy snapshot built from this one
+	 */
+	void copyTo(StatusSnapshot copy) {
+		while(true) {
+			long v = version.get();
+			if((v & 1) != 0) {
+				Thread.onSpinWait();
+				continue;
+			}
+			for (int i = 0; i < frames.length; i++) {
+				System.arraycopy(frames[i], 0, copy.frames[i], 0, frames[i].length);
+				System.arraycopy(nbInvisibleFrames[i], 0, copy.nbInvisibleFrames[i], 0, nbInvisibleFrames[i].length);
+			}
+			System.arraycopy(nbFrames, 0, copy.nbFrames, 0, nbFrames.length);
+			VarHandle.loadLoadFence();
+			if(version.get() == v) return;
+		}
+	}
+
+	byte[] getFrame(DataSource source) {
+		return frames[source.ordinal()];
+	}
+
+	long getNbFrames(DataSource source) {
+		return nbFrames[source.ordinal()];
+	}
+
+	long getNbInvisibleFrames(DataSource source, int marker) {
+		return nbInvisibleFrames[source.ordinal()][marker];
+	}
+
+	int getNbMarkers(DataSource source) {
+		return nbInvisibleFrames[source.ordinal()].length;
+	}
+
+}
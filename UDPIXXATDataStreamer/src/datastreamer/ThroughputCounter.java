@@ -0,0 +1,59 @@
+package datastreamer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Striped counter of events, cheap to increment from any number of threads,
+ * with a rate computed when it is read.<br>
+ * Rate is measured between two reads at least one second apart, so that
+ * a monitoring client polling every few seconds sees average rate over its period.
+ * @author fbuloup
+ */
+public final class ThroughputCounter {
+
+	private final static long RATE_PERIOD = 1000000000L;
+
+	private final LongAdder count = new LongAdder();
+
+	// Reader side, guarded by this
+	private long lastCount;
+	private long lastTime;
+	private double rate;
+
+	public void increment() {
+		count.increment();
+	}
+
+	public void add(long value) {
+		count.add(value);
+	}
+
+	public long get() {
+		return count.sum();
+	}
+
+	/**
+	 * Clear count and rate. Must not be called while events are counted.
+	 */
+	public synchronized void reset() {
+		count.reset();
+		lastCount = 0;
+		lastTime = 0;
+		rate = 0;
+	}
+
+	/**
+	 * @return events per second since previous rate computation
+	 */
+	public synchronized double getRate() {
+		long time = System.nanoTime();
+		if(lastTime == 0 || time - lastTime >= RATE_PERIOD) {
+			long value = get();
+			if(lastTime != 0) rate = (value - lastCount)*1e9/(time - lastTime);
+			lastCount = value;
+			lastTime = time;
+		}
+		return rate;
+	}
+
+}
@@ -0,0 +1,96 @@
+package datastreamer;
+
+import java.time.Instant;
+import java.util.TimeZone;
+
+/**
+ * Packs local time of day into time stamp frames (see {@link DataStreamer} for frame layouts).<br>
+ * Wall clock is read once, when encoder is created : time of day is then derived from
+ * {@link System#nanoTime()}, so that time stamps are monotonic (never moved by clock adjustments,
+ * daylight saving time included) and nothing is allocated per frame.
+ * @author fbuloup
+ */
+public final class TimeStampEncoder {
+
+	public enum Resolution {
+		SECOND, MILLISECOND, MICROSECOND;
+
+		/**
+		 * @param value second, millisecond or microsecond, case insensitive
+		 * @return matching resolution
+		 */
+		public static Resolution parse(String value) {
+			for (Resolution resolution : values()) {
+				if(resolution.name().equalsIgnoreCase(value)) return resolution;
+			}
+			throw new IllegalArgumentException("Unknown time stamp resolution : " + value);
+		}
+	}
+
+	private final static long NANOS_PER_SECOND = 1000000000L;
+	private final static long NANOS_PER_DAY = 24*3600*NANOS_PER_SECOND;
+
+	private final Resolution resolution;
+	private final long originNanoTime;
+	private final long originNanoOfDay;
+
+	/**
+	 * Read wall clock and time zone.
+	 * @param resolution SECOND for 3 bytes frames, MILLISECOND or MICROSECOND for 8 bytes frames
+	 */
+	public TimeStampEncoder(Resolution resolution) {
+		this.resolution = resolution;
+		Instant now = Instant.now();
+		originNanoTime = System.nanoTime();
+		long localMillis = now.toEpochMilli() + TimeZone.getDefault().getOffset(now.toEpochMilli());
+		originNanoOfDay = Math.floorMod(localMillis, NANOS_PER_DAY/1000000)*1000000 + now.getNano()%1000000;
+	}
+
+	public Resolution getResolution() {
+		return resolution;
+	}
+
+	public int getFrameLength() {
+		return (resolution == Resolution.SECOND) ? 3 : 8;
+	}
+
+	/**
+	 * @param nanoTime a {@link System#nanoTime()} value
+	 * @return local time of day in nanoseconds
+	 */
+	public long getNanoOfDay(long nanoTime) {
+		return Math.floorMod(originNanoOfDay + nanoTime - originNanoTime, NANOS_PER_DAY);
+	}
+
+	/**
+	 * Pack time of day.
+	 * @param systemCode system code on two bits
+	 * @param nanoTime {@link System#nanoTime()} to encode
+	 * @param tick tick number, only its 16 lower bits are written in 8 bytes frames
+	 * @param bytesBuffer destination, at least {@link #getFrameLength()} long
+	 */
+	public void encode(byte systemCode, long nanoTime, long tick, byte[] bytesBuffer) {
+		long nanoOfDay = getNanoOfDay(nanoTime);
+		long secondOfDay = nanoOfDay/NANOS_PER_SECOND;
+		int hours = (int) (secondOfDay/3600);
+		int minutes = (int) (secondOfDay/60%60);
+		int seconds = (int) (secondOfDay%60);
+		if(resolution == Resolution.SECOND) {
+			bytesBuffer[0] = (byte) ((systemCode << 6) | hours);
+			bytesBuffer[1] = (byte) minutes;
+			bytesBuffer[2] = (byte) seconds;
+			return;
+		}
+		long nanoOfSecond = nanoOfDay%NANOS_PER_SECOND;
+		int fraction = (int) ((resolution == Resolution.MILLISECOND) ? nanoOfSecond/1000000 : nanoOfSecond/1000);
+		bytesBuffer[0] = (byte) ((systemCode << 6) | 0x20 | hours);
+		bytesBuffer[1] = (byte) (((resolution == Resolution.MICROSECOND) ? 0x80 : 0) | minutes);
+		bytesBuffer[2] = (byte) seconds;
+		bytesBuffer[3] = (byte) (fraction >> 16);
+		bytesBuffer[4] = (byte) (fraction >> 8);
+		bytesBuffer[5] = (byte) (fraction & 0xFF);
+		bytesBuffer[6] = (byte) (tick >> 8);
+		bytesBuffer[7] = (byte) (tick & 0xFF);
+	}
+
+}
@@ -0,0 +1,75 @@
+package datastreamer;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * How acquisition threads wait for next sample and how dispatcher waits for next frame,
+ * trading CPU for latency :
+ * <ul>
+ * <li>SPIN : busy spin, lowest latency, one core per waiting thread</li>
+ * <li>YIELD : spin a little then yield, low latency, cores stay busy but are given to other ready threads</li>
+ * <li>PARK : sleep until shortly before expected sample, then spin and yield, then sleep by short steps
+ * if sample is late. Almost no CPU, latency depends on OS timer resolution. Default strategy.</li>
+ * </ul>
+ * See {@link DataStreamer#setWaitStrategy(WaitStrategy)} for latency trade-off.
+ * @author fbuloup
+ */
+public enum WaitStrategy {
+
+	SPIN, YIELD, PARK;
+
+	// Number of idle loops spent spinning (YIELD) or yielding (PARK) before next step
+	private final static int IDLE_SPINS = 100;
+
+	/**
+	 * @param value spin, yield or park, case insensitive
+	 * @return matching strategy
+	 */
+	public static WaitStrategy parse(String value) {
+		for (WaitStrategy waitStrategy : values()) {
+			if(waitStrategy.name().equalsIgnoreCase(value)) return waitStrategy;
+		}
+		throw new IllegalArgumentException("Unknown wait strategy : " + value);
+	}
+
+	/**
+	 * Wait until a time well before next expected sample. PARK may return earlier, on interrupt.
+	 * @param deadline {@link System#nanoTime()} to wait for
+	 */
+	public void waitUntil(long deadline) {
+		switch (this) {
+		case SPIN:
+			while(System.nanoTime() - deadline < 0) Thread.onSpinWait();
+			break;
+		case YIELD:
+			while(System.nanoTime() - deadline < 0) Thread.yield();
+			break;
+		default:
+			long delay = deadline - System.nanoTime();
+			if(delay > 0) LockSupport.parkNanos(delay);
+			break;
+		}
+	}
+
+	/**
+	 * Wait once while polling for a sample or a frame that is due.
+	 * @param idleCount number of successive idle calls, 0 for first one
+	 * @param parkTime PARK sleep time once it has yielded long enough, in nanoseconds
+	 */
+	public void idle(int idleCount, long parkTime) {
+		switch (this) {
+		case SPIN:
+			Thread.onSpinWait();
+			break;
+		case YIELD:
+			if(idleCount < IDLE_SPINS) Thread.onSpinWait();
+			else Thread.yield();
+			break;
+		default:
+			if(idleCount < IDLE_SPINS) Thread.yield();
+			else LockSupport.parkNanos(parkTime);
+			break;
+		}
+	}
+
+}
@@ -0,0 +1,65 @@
+package datastreamer;
+
+/**
+ * Layout of frames given to observers :
+ * <ul>
+ * <li>V1 : CAN compatible layout (see {@link DataStreamer}). Markers positions are packed as shorts,
+ * 8 bytes per marker, and frame ID wraps at 256</li>
+ * <li>V2 : coda and optitrack frames are extended. V1 markers block is followed by x, y and z of each marker
+ * in millimeters, as big endian float32, 12 bytes per marker. CAN is still sent V1 block only, UDP clients
+ * are sent self-describing datagrams with 32-bit sequence numbers and acquisition time
+ * (see udpixxatdatastreamer.WireFormatV2Encoder)</li>
+ * </ul>
+ * Other sources frames are the same in both formats.
+ * @author fbuloup
+ */
+public enum WireFormat {
+
+	V1, V2;
+
+	public final static int MARKER_LENGTH = 8;
+	public final static int COORDINATES_LENGTH = 3*4;
+
+	/**
+	 * @param value v1 or v2, case insensitive
+	 * @return matching format
+	 */
+	public static WireFormat parse(String value) {
+		for (WireFormat wireFormat : values()) {
+			if(wireFormat.name().equalsIgnoreCase(value)) return wireFormat;
+		}
+		throw new IllegalArgumentException("Unknown wire format : " + value);
+	}
+
+	/**
+	 * @return true if source frames hold markers positions
+	 */
+	public static boolean hasMarkers(DataSource source) {
+		return source == DataSource.CODA || source == DataSource.OPTITRACK;
+	}
+
+	/**
+	 * @return number of bytes of each marker in a markers frame
+	 */
+	public int getMarkerLength() {
+		return (this == V2) ? MARKER_LENGTH + COORDINATES_LENGTH : MARKER_LENGTH;
+	}
+
+	/**
+	 * @param frameLength length of a markers frame
+	 * @return number of markers in this frame
+	 */
+	public int getNbMarkers(int frameLength) {
+		return frameLength/getMarkerLength();
+	}
+
+	/**
+	 * @param source source of the frame
+	 * @param frameLength frame length in this format
+	 * @return length of V1 part of the frame, the whole frame unless it is an extended markers frame
+	 */
+	public int getV1Length(DataSource source, int frameLength) {
+		return hasMarkers(source) ? MARKER_LENGTH*getNbMarkers(frameLength) : frameLength;
+	}
+
+}
@@ -0,0 +1,271 @@
+package optitrack;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.DatagramChannel;
+import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * NatNet frame of data traffic generator, standing for a Motive PC in Optitrack load tests.<br>
+ * It sends NatNet 3.x/4.x NAT_FRAMEOFDATA packets at a fixed rate to a multicast group or to a
+ * unicast address. Scene size (marker sets, unlabeled markers, rigid bodies, labeled markers) is
+ * configurable and unlabeled markers move on deterministic circles. Packet loss and reordering
+ * can be injected with a seeded random generator, so that a run can be reproduced.<br>
+ * Command line arguments :
+ * <ul>
+ * <li>-destinationip : default 239.255.42.99. Multicast group or unicast IP packets are sent to</li>
+ * <li>-port : default 1511. NatNet data port</li>
+ * <li>-rate : default 100. Frames per second, up to 1000</li>
+ * <li>-framesnumber : default -1. Number of frames to generate, -1 means infinite</li>
+ * <li>-nbmarkersets : default 1</li>
+ * <li>-nbunlabeledmarkers : default 4</li>
+ * <li>-nbrigidbodies : default 0</li>
+ * <li>-nblabeledmarkers : default 0</li>
+ * <li>-lossrate : default 0. Probability (0 to 1) that a frame is not sent</li>
+ * <li>-reorderrate : default 0. Probability (0 to 1) that a frame is sent after the next one</li>
+ * <li>-seed : default 0. Seed of loss and reorder random draws</li>
+ * </ul>
+ * For instance :
+ * java -cp bin optitrack.NatNetGenerator -destinationip 127.0.0.1 -rate 1000 -nbunlabeledmarkers 32 -lossrate 0.01
+ */
+public final class NatNetGenerator {
+
+	public final static String destinationIPToken = "-destinationip";
+	public final static String portToken = "-port";
+	public final static String rateToken = "-rate";
+	public final static String framesNumberToken = "-framesnumber";
+	public final static String nbMarkerSetsToken = "-nbmarkersets";
+	public final static String nbUnlabeledMarkersToken = "-nbunlabeledmarkers";
+	public final static String nbRigidBodiesToken = "-nbrigidbodies";
+	public final static String nbLabeledMarkersToken = "-nblabeledmarkers";
+	public final static String lossRateToken = "-lossrate";
+	public final static String reorderRateToken = "-reorderrate";
+	public final static String seedToken = "-seed";
+
+	public final static int MAX_RATE = 1000;
+	public final static int MAX_PACKET_SIZE = 65507;
+
+	private final static byte[] MARKER_SET_NAME = new byte[] {'M', 'a', 'r', 'k', 'e', 'r', 'S', 'e', 't'};
+	private final static int MARKERS_PER_MARKER_SET = 10;
+
+	private final DatagramChannel channel;
+	private final InetSocketAddress destination;
+	private final int rate;
+	private final int nbMarkerSets;
+	private final int nbUnlabeledMarkers;
+	private final int nbRigidBodies;
+	private final int nbLabeledMarkers;
+	private final double lossRate;
+	private final double reorderRate;
+	private final Random random;
+
+	private ByteBuffer byteBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private ByteBuffer heldByteBuffer = ByteBuffer.allocateDirect(MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private boolean packetHeld;
+
+	private long nbSentPackets;
+	private long nbLostPackets;
+	private long nbReorderedPackets;
+	private long nbLatePackets;
+
+	public NatNetGenerator(String destinationIP, int port, int rate, int nbMarkerSets, int nbUnlabeledMarkers, int nbRigidBodies, int nbLabeledMarkers,
+			double lossRate, double reorderRate, long seed) throws IOException {
+		InetAddress address = InetAddress.getByName(destinationIP);
+		destination = new InetSocketAddress(address, port);
+		channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		if(address.isMulticastAddress()) channel.setOption(StandardSocketOptions.IP_MULTICAST_LOOP, true);
+		channel.setOption(StandardSocketOptions.SO_SNDBUF, 4*1024*1024);
+		this.rate = Math.max(1, Math.min(MAX_RATE, rate));
+		this.nbMarkerSets = nbMarkerSets;
+		this.nbUnlabeledMarkers = nbUnlabeledMarkers;
+		this.nbRigidBodies = nbRigidBodies;
+		this.nbLabeledMarkers = nbLabeledMarkers;
+		this.lossRate = lossRate;
+		this.reorderRate = reorderRate;
+		random = new Random(seed);
+	}
+
+	/**
+	 * Send frames at generator rate. Deadlines are absolute, so that a late frame
+	 * does not shift next ones.
+	 * @param framesNumber number of frames to send, -1 means until thread is interrupted
+	 * @throws IOException if a packet cannot be sent
+	 */
+	public void run(int framesNumber) throws IOException {
+		long period = 1000000000L/rate;
+		long startTime = System.nanoTime();
+		for (int frameNumber = 1; framesNumber == -1 || frameNumber <= framesNumber; frameNumber++) {
+			if(Thread.currentThread().isInterrupted()) break;
+			long deadline = startTime + (frameNumber - 1)*period;
+			long delay = deadline - System.nanoTime();
+			if(delay > 0) LockSupport.parkNanos(delay);
+			else if(delay < -period) nbLatePackets++;
+
+			byteBuffer.clear();
+			writeFrameOfData(byteBuffer, frameNumber, (double)(frameNumber - 1)/rate, nbMarkerSets, nbUnlabeledMarkers, nbRigidBodies, nbLabeledMarkers);
+			byteBuffer.flip();
+
+			if(random.nextDouble() < lossRate) {
+				nbLostPackets++;
+				continue;
+			}
+			if(!packetHeld && random.nextDouble() < reorderRate) {
+				// Keep this frame, it will be sent after next one
+				ByteBuffer swap = heldByteBuffer;
+				heldByteBuffer = byteBuffer;
+				byteBuffer = swap;
+				packetHeld = true;
+				nbReorderedPackets++;
+				continue;
+			}
+			send(byteBuffer);
+			if(packetHeld) {
+				send(heldByteBuffer);
+				packetHeld = false;
+			}
+		}
+		if(packetHeld) {
+			send(heldByteBuffer);
+			packetHeld = false;
+		}
+	}
+
+	private void send(ByteBuffer packet) throws IOException {
+		channel.send(packet, destination);
+		nbSentPackets++;
+	}
+
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	public long getNbSentPackets() {
+		return nbSentPackets;
+	}
+
+	public long getNbLostPackets() {
+		return nbLostPackets;
+	}
+
+	public long getNbReorderedPackets() {
+		return nbReorderedPackets;
+	}
+
+	public long getNbLatePackets() {
+		return nbLatePackets;
+	}
+
+	/**
+	 * Write a NatNet 4.1 frame of data packet, from byte buffer position.
+	 * Byte buffer must be little endian. Nothing is allocated.
+	 * @param byteBuffer destination
+	 * @param frameNumber frame number of the packet
+	 * @param timestamp time stamp (s) written in frame suffix, also used to move unlabeled markers
+	 * @param nbMarkerSets number of marker sets, of ten markers each
+	 * @param nbUnlabeledMarkers number of legacy unlabeled (other) markers
+	 * @param nbRigidBodies number of rigid bodies
+	 * @param nbLabeledMarkers number of labeled markers
+	 */
+	public static void writeFrameOfData(ByteBuffer byteBuffer, int frameNumber, double timestamp, int nbMarkerSets, int nbUnlabeledMarkers, int nbRigidBodies, int nbLabeledMarkers) {
+		int start = byteBuffer.position();
+		byteBuffer.putShort((short) NatNetParser.NAT_FRAMEOFDATA);
+		byteBuffer.putShort((short) 0);
+		byteBuffer.putInt(frameNumber);
+		// Marker sets
+		byteBuffer.putInt(nbMarkerSets);
+		int dataSizePosition = byteBuffer.position();
+		byteBuffer.putInt(0);
+		for (int i = 0; i < nbMarkerSets; i++) {
+			byteBuffer.put(MARKER_SET_NAME);
+			byteBuffer.put((byte) ('0' + i/10%10));
+			byteBuffer.put((byte) ('0' + i%10));
+			byteBuffer.put((byte) 0);
+			byteBuffer.putInt(MARKERS_PER_MARKER_SET);
+			for (int j = 0; j < 3*MARKERS_PER_MARKER_SET; j++) byteBuffer.putFloat(0.01f*j);
+		}
+		byteBuffer.putInt(dataSizePosition, byteBuffer.position() - dataSizePosition - 4);
+		// Unlabeled markers (m) : circles of 10 cm radius, one turn per second
+		byteBuffer.putInt(nbUnlabeledMarkers);
+		byteBuffer.putInt(12*nbUnlabeledMarkers);
+		double angle = 2*Math.PI*timestamp;
+		for (int i = 0; i < nbUnlabeledMarkers; i++) {
+			byteBuffer.putFloat((float) (0.2*i + 0.1*Math.cos(angle + i)));
+			byteBuffer.putFloat((float) (1 + 0.1*Math.sin(angle + i)));
+			byteBuffer.putFloat(0.5f);
+		}
+		// Rigid bodies
+		byteBuffer.putInt(nbRigidBodies);
+		byteBuffer.putInt(38*nbRigidBodies);
+		for (int i = 0; i < nbRigidBodies; i++) {
+			byteBuffer.putInt(i);
+			for (int j = 0; j < 8; j++) byteBuffer.putFloat(j);
+			byteBuffer.putShort((short) 1);
+		}
+		// Skeletons and assets
+		byteBuffer.putInt(0).putInt(0);
+		byteBuffer.putInt(0).putInt(0);
+		// Labeled markers
+		byteBuffer.putInt(nbLabeledMarkers);
+		byteBuffer.putInt(26*nbLabeledMarkers);
+		for (int i = 0; i < nbLabeledMarkers; i++) {
+			byteBuffer.putInt(i);
+			for (int j = 0; j < 4; j++) byteBuffer.putFloat(j);
+			byteBuffer.putShort((short) 0);
+			byteBuffer.putFloat(0);
+		}
+		// Force plates and devices
+		byteBuffer.putInt(0).putInt(0);
+		byteBuffer.putInt(0).putInt(0);
+		// Suffix : timecode, timecode sub, timestamp, camera mid exposure, data received, transmit, precision, params
+		byteBuffer.putInt(0).putInt(0).putDouble(timestamp).putDouble(0).putLong(0).putLong(0).putInt(0).putInt(0).putShort((short) 0);
+		byteBuffer.putShort(start + 2, (short) (byteBuffer.position() - start - 4));
+	}
+
+	public static void main(String[] args) throws IOException {
+		String destinationIP = "239.255.42.99";
+		int port = 1511;
+		int rate = 100;
+		int framesNumber = -1;
+		int nbMarkerSets = 1;
+		int nbUnlabeledMarkers = 4;
+		int nbRigidBodies = 0;
+		int nbLabeledMarkers = 0;
+		double lossRate = 0;
+		double reorderRate = 0;
+		long seed = 0;
+
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].toLowerCase().equalsIgnoreCase(destinationIPToken)) destinationIP = args[i+1];
+			if(args[i].toLowerCase().equalsIgnoreCase(portToken)) port = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(rateToken)) rate = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(framesNumberToken)) framesNumber = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(nbMarkerSetsToken)) nbMarkerSets = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(nbUnlabeledMarkersToken)) nbUnlabeledMarkers = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(nbRigidBodiesToken)) nbRigidBodies = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(nbLabeledMarkersToken)) nbLabeledMarkers = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(lossRateToken)) lossRate = Double.parseDouble(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(reorderRateToken)) reorderRate = Double.parseDouble(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(seedToken)) seed = Long.parseLong(args[i+1]);
+		}
+
+		NatNetGenerator natNetGenerator = new NatNetGenerator(destinationIP, port, rate, nbMarkerSets, nbUnlabeledMarkers, nbRigidBodies, nbLabeledMarkers, lossRate, reorderRate, seed);
+		System.out.println("Sending NatNet frames to " + destinationIP + ":" + port + " at " + natNetGenerator.rate + " Hz");
+		System.out.println((framesNumber == -1) ? "For infinite generation (Ctrl+C to stop)" : "For " + framesNumber + " frames");
+		long time = System.nanoTime();
+		natNetGenerator.run(framesNumber);
+		time = System.nanoTime() - time;
+		natNetGenerator.close();
+		System.out.println("Nb packets sent : " + natNetGenerator.getNbSentPackets());
+		System.out.println("Nb packets lost : " + natNetGenerator.getNbLostPackets());
+		System.out.println("Nb packets reordered : " + natNetGenerator.getNbReorderedPackets());
+		System.out.println("Nb packets late by more than a period : " + natNetGenerator.getNbLatePackets());
+		System.out.println("Duration (s) : " + time/1000000000.0);
+	}
+
+}
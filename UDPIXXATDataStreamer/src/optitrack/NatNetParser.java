@@ -0,0 +1,80 @@
+package optitrack;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parser of NatNet (3.x and above) frame of data packets.<br>
+ * Only legacy unlabeled ("other") markers are read, into {@link OptitrackData}
+ * pre-allocated arrays. Marker sets are jumped over using their declared data size
+ * and parsing stops right after unlabeled markers, so nothing is allocated per frame.
+ */
+public final class NatNetParser {
+
+	public final static int NAT_FRAMEOFDATA = 7;
+
+	private final static int MARKER_SIZE = 3*4;
+
+	/**
+	 * Tell whether a packet claims to be a frame of data, without moving buffer position.
+	 * @param byteBuffer received packet, little endian, positioned at the start of the packet
+	 * @return true if packet message id is frame of data
+	 */
+	public static boolean isFrameOfData(ByteBuffer byteBuffer) {
+		return byteBuffer.remaining() >= 2 && byteBuffer.getShort(byteBuffer.position()) == NAT_FRAMEOFDATA;
+	}
+
+	/**
+	 * Parse a NatNet packet. Byte buffer must be little endian, positioned at
+	 * the start of the packet and limited to its length.
+	 * @param byteBuffer received packet
+	 * @param firstMarkerIndex index of first unlabeled marker to keep
+	 * @return true if packet was a valid frame of data and {@link OptitrackData} has been updated
+	 */
+	public static boolean parseFrameOfData(ByteBuffer byteBuffer, int firstMarkerIndex) {
+		if(byteBuffer.remaining() < 4) return false;
+		// Message id and packet size
+		short messageID = byteBuffer.getShort();
+		int packetSize = byteBuffer.getShort() & 0xFFFF;
+		if(messageID != NAT_FRAMEOFDATA || packetSize <= 0) return false;
+		if(byteBuffer.remaining() < 3*4) return false;
+
+		int frameNumber = byteBuffer.getInt();
+
+		// Marker sets : not streamed, skip them
+		byteBuffer.getInt();
+		int dataSize = byteBuffer.getInt();
+		if(!skip(byteBuffer, dataSize)) return false;
+
+		// Legacy other markers : this is unlabeled markers we are looking for
+		if(byteBuffer.remaining() < 2*4) return false;
+		int otherMarkersCount = byteBuffer.getInt();
+		dataSize = byteBuffer.getInt();
+		if(otherMarkersCount < 0 || dataSize < otherMarkersCount*MARKER_SIZE || dataSize > byteBuffer.remaining()) return false;
+		int start = byteBuffer.position();
+		float[] positions = OptitrackData.unlabeledMarkersPositions;
+		byte[] visibilities = OptitrackData.unlabeledMarkersVisibilities;
+		for (int n = 0; n < visibilities.length; n++) {
+			int i = firstMarkerIndex + n;
+			if(i < otherMarkersCount) {
+				int position = start + i*MARKER_SIZE;
+				positions[3*n] = byteBuffer.getFloat(position);
+				positions[3*n + 1] = byteBuffer.getFloat(position + 4);
+				positions[3*n + 2] = byteBuffer.getFloat(position + 8);
+				visibilities[n] = 1;
+			} else visibilities[n] = 0;
+		}
+		byteBuffer.position(start + dataSize);
+
+		// Rigid bodies, skeletons, assets, labeled markers, force plates, devices and
+		// frame suffix are not streamed : no need to go further
+		OptitrackData.frameID = frameNumber;
+		return true;
+	}
+
+	private static boolean skip(ByteBuffer byteBuffer, int dataSize) {
+		if(dataSize < 0 || dataSize > byteBuffer.remaining()) return false;
+		byteBuffer.position(byteBuffer.position() + dataSize);
+		return true;
+	}
+
+}
@@ -0,0 +1,167 @@
+package optitrack;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Enumeration;
+import java.util.Iterator;
+
+/**
+ * Non blocking receiver of NatNet data and command ports.<br>
+ * Both ports are datagram channels registered on the same selector.
+ * {@link #select(long)} waits for any of them, then {@link #receiveData(ByteBuffer)}
+ * drains every pending data packet and {@link #drainCommands()} every pending command packet.<br>
+ * A select that waits its whole time out without any packet is counted as a time out instead of being reported
+ * (a command packet alone is not a time out).
+ */
+public final class NatNetReceiver {
+
+	private final Selector selector;
+	private final DatagramChannel dataChannel;
+	private final DatagramChannel commandChannel;
+	private final SelectionKey dataKey;
+	private final SelectionKey commandKey;
+	private final ByteBuffer commandByteBuffer = ByteBuffer.allocate(64*1024);
+
+	private boolean dataReady;
+	private boolean commandReady;
+
+	private long nbDataPackets;
+	private long nbCommandPackets;
+	private long nbTimeouts;
+
+	/**
+	 * Open data and command channels.
+	 * @param dataPort NatNet data port
+	 * @param commandPort NatNet command port
+	 * @param multicastIP multicast group or null to use unicast
+	 * @param interfaceIP IP of the local interface used to join multicast group
+	 * @throws IOException if channels cannot be opened
+	 */
+	public NatNetReceiver(int dataPort, int commandPort, String multicastIP, String interfaceIP) throws IOException {
+		selector = Selector.open();
+		NetworkInterface networkInterface = null;
+		InetAddress group = null;
+		if(multicastIP != null) {
+			group = InetAddress.getByName(multicastIP);
+			networkInterface = getNetworkInterface(interfaceIP);
+		}
+		dataChannel = openChannel(dataPort, group, networkInterface);
+		commandChannel = openChannel(commandPort, group, networkInterface);
+		dataKey = dataChannel.register(selector, SelectionKey.OP_READ);
+		commandKey = commandChannel.register(selector, SelectionKey.OP_READ);
+	}
+
+	private static DatagramChannel openChannel(int port, InetAddress group, NetworkInterface networkInterface) throws IOException {
+		DatagramChannel channel = DatagramChannel.open(StandardProtocolFamily.INET);
+		channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+		channel.setOption(StandardSocketOptions.SO_RCVBUF, 4*1024*1024);
+		channel.bind(new InetSocketAddress(port));
+		if(group != null) channel.join(group, networkInterface);
+		channel.configureBlocking(false);
+		return channel;
+	}
+
+	private static NetworkInterface getNetworkInterface(String interfaceIP) throws IOException {
+		NetworkInterface networkInterface = NetworkInterface.getByInetAddress(InetAddress.getByName(interfaceIP));
+		if(networkInterface != null) return networkInterface;
+		// Fall back on first multicast capable interface
+		Enumeration<NetworkInterface> networkInterfaces = NetworkInterface.getNetworkInterfaces();
+		while(networkInterfaces.hasMoreElements()) {
+			networkInterface = networkInterfaces.nextElement();
+			try {
+				if(networkInterface.isUp() && networkInterface.supportsMulticast()) return networkInterface;
+			} catch (SocketException e) {
+				e.printStackTrace();
+			}
+		}
+		throw new IOException("No multicast network interface found for " + interfaceIP);
+	}
+
+	/**
+	 * Wait until a packet is available on any port.
+	 * @param timeout maximum wait in milliseconds
+	 * @return true if data packets are available
+	 * @throws IOException on selector error
+	 */
+	public boolean select(long timeout) throws IOException {
+		dataReady = false;
+		commandReady = false;
+		if(selector.select(timeout) == 0) {
+			nbTimeouts++;
+			return false;
+		}
+		Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+		while(iterator.hasNext()) {
+			SelectionKey key = iterator.next();
+			iterator.remove();
+			if(key == dataKey) dataReady = true;
+			if(key == commandKey) commandReady = true;
+		}
+		return dataReady;
+	}
+
+	/**
+	 * Receive next pending data packet, if any. Byte buffer is cleared,
+	 * then flipped so that it holds exactly the received packet.
+	 * @param byteBuffer buffer to fill
+	 * @return false if there is no more pending data packet
+	 * @throws IOException on channel error
+	 */
+	public boolean receiveData(ByteBuffer byteBuffer) throws IOException {
+		if(!dataReady) return false;
+		byteBuffer.clear();
+		if(dataChannel.receive(byteBuffer) == null) {
+			dataReady = false;
+			return false;
+		}
+		byteBuffer.flip();
+		nbDataPackets++;
+		return true;
+	}
+
+	/**
+	 * Read and discard every pending command packet.
+	 * @throws IOException on channel error
+	 */
+	public void drainCommands() throws IOException {
+		if(!commandReady) return;
+		commandByteBuffer.clear();
+		while(commandChannel.receive(commandByteBuffer) != null) {
+			commandByteBuffer.clear();
+			nbCommandPackets++;
+		}
+		commandReady = false;
+	}
+
+	public void close() {
+		try {
+			selector.close();
+			dataChannel.close();
+			commandChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	public long getNbDataPackets() {
+		return nbDataPackets;
+	}
+
+	public long getNbCommandPackets() {
+		return nbCommandPackets;
+	}
+
+	public long getNbTimeouts() {
+		return nbTimeouts;
+	}
+
+}
@@ -4,12 +4,15 @@ public final class OptitrackData {
 
 	public static int frameID;
 	public static int lastFrameID;
-	public static UnlabeledMarker[] unlabeledMarkers;
+	// x, y and z (m) of each unlabeled marker
+	public static float[] unlabeledMarkersPositions = new float[0];
+	public static byte[] unlabeledMarkersVisibilities = new byte[0];
 	
 	public static void initMarkers(int optitrackNbUnlabeledMarkers) {
-		OptitrackData.unlabeledMarkers = new UnlabeledMarker[optitrackNbUnlabeledMarkers];
-		for (int i = 0; i < unlabeledMarkers.length; i++) {
-			unlabeledMarkers[i] = new UnlabeledMarker();
+		OptitrackData.unlabeledMarkersPositions = new float[3*optitrackNbUnlabeledMarkers];
+		OptitrackData.unlabeledMarkersVisibilities = new byte[optitrackNbUnlabeledMarkers];
+		for (int i = 0; i < unlabeledMarkersVisibilities.length; i++) {
+			unlabeledMarkersVisibilities[i] = 1;
 		}
 		
 	}
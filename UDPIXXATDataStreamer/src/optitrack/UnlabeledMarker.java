@@ -1,10 +0,0 @@
-package optitrack;
-
-public class UnlabeledMarker {
-	
-	public float x;
-	public float y;
-	public float z;
-	public byte visibility = 1;
-
-}
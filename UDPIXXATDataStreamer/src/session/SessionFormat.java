@@ -0,0 +1,45 @@
+package session;
+
+/**
+ * Layout of recorded session files.<br>
+ * A session is a list of segment files named &lt;session&gt;.0000, &lt;session&gt;.0001...
+ * All values are big endian. Each segment is pre-sized and starts with a header :
+ * <ul>
+ * <li>int : magic number, "UDXS"</li>
+ * <li>short : format version</li>
+ * <li>short : header size</li>
+ * <li>int : segment index</li>
+ * <li>int : reserved</li>
+ * <li>long : {@link System#nanoTime()} when recording started</li>
+ * <li>long : {@link System#currentTimeMillis()} when recording started</li>
+ * </ul>
+ * Header is followed by records, one per frame sent to observers :
+ * <ul>
+ * <li>short : frame length</li>
+ * <li>byte : source ({@link datastreamer.DataSource#ordinal()})</li>
+ * <li>byte : reserved</li>
+ * <li>int : sequence number of the frame within its source, a gap means frames have been dropped
+ * before being recorded</li>
+ * <li>long : {@link System#nanoTime()} when frame was acquired</li>
+ * <li>frame length bytes : frame</li>
+ * </ul>
+ * A record of length 0 (unused pre-sized space) ends the segment.
+ * @author fbuloup
+ */
+public final class SessionFormat {
+
+	public final static int MAGIC = 0x55445853;
+	public final static short VERSION = 1;
+	public final static int HEADER_SIZE = 32;
+	public final static int RECORD_HEADER_SIZE = 16;
+
+	/**
+	 * @param sessionFileName session file name given to recorder
+	 * @param segmentIndex index of the segment
+	 * @return file name of the segment
+	 */
+	public static String getSegmentFileName(String sessionFileName, int segmentIndex) {
+		return String.format("%s.%04d", sessionFileName, segmentIndex);
+	}
+
+}
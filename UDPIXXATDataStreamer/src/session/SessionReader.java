@@ -0,0 +1,146 @@
+package session;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+import datastreamer.DataSource;
+
+/**
+ * Sequential reader of a session recorded by {@link SessionRecorder}.<br>
+ * Segments are memory-mapped one after the other. {@link #next()} moves to next record,
+ * whose fields are then available through getters. Nothing is allocated per record.
+ * @author fbuloup
+ */
+public final class SessionReader {
+
+	private final static DataSource[] SOURCES = DataSource.values();
+
+	private final String sessionFileName;
+
+	private MappedByteBuffer segment;
+	private int segmentIndex = -1;
+	private long startNanoTime;
+	private long startMillis;
+
+	private DataSource source;
+	private int sequence;
+	private long time;
+	private int frameLength;
+	private int framePosition;
+
+	/**
+	 * Open first segment of a session.
+	 * @param sessionFileName session file name given to recorder
+	 * @throws IOException if first segment cannot be read or is not a session segment
+	 */
+	public SessionReader(String sessionFileName) throws IOException {
+		this.sessionFileName = sessionFileName;
+		if(!nextSegment()) throw new IOException("No session segment found for " + sessionFileName);
+	}
+
+	private boolean nextSegment() throws IOException {
+		Path path = Paths.get(SessionFormat.getSegmentFileName(sessionFileName, segmentIndex + 1));
+		if(!Files.exists(path)) return false;
+		segmentIndex++;
+		try (FileChannel fileChannel = FileChannel.open(path, StandardOpenOption.READ)) {
+			segment = fileChannel.map(MapMode.READ_ONLY, 0, fileChannel.size());
+		}
+		if(segment.remaining() < SessionFormat.HEADER_SIZE || segment.getInt() != SessionFormat.MAGIC) throw new IOException(path + " is not a session segment");
+		short version = segment.getShort();
+		if(version != SessionFormat.VERSION) throw new IOException(path + " : unsupported session version " + version);
+		int headerSize = segment.getShort();
+		segment.getInt();
+		segment.getInt();
+		startNanoTime = segment.getLong();
+		startMillis = segment.getLong();
+		segment.position(headerSize);
+		return true;
+	}
+
+	/**
+	 * Move to next record, opening next segment if needed.
+	 * @return false when there is no more record
+	 * @throws IOException if next segment cannot be read
+	 */
+	public boolean next() throws IOException {
+		while(true) {
+			if(framePosition > 0) segment.position(framePosition + frameLength);
+			framePosition = 0;
+			if(segment.remaining() >= SessionFormat.RECORD_HEADER_SIZE) {
+				frameLength = segment.getShort() & 0xFFFF;
+				if(frameLength > 0 && segment.remaining() >= SessionFormat.RECORD_HEADER_SIZE - 2 + frameLength) {
+					int sourceOrdinal = segment.get();
+					if(sourceOrdinal < 0 || sourceOrdinal >= SOURCES.length) throw new IOException("Invalid source " + sourceOrdinal + " in segment " + segmentIndex);
+					source = SOURCES[sourceOrdinal];
+					segment.get();
+					sequence = segment.getInt();
+					time = segment.getLong();
+					framePosition = segment.position();
+					return true;
+				}
+			}
+			// End of segment
+			if(!nextSegment()) return false;
+		}
+	}
+
+	public DataSource getSource() {
+		return source;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} of recording JVM when frame was acquired
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	public int getFrameLength() {
+		return frameLength;
+	}
+
+	/**
+	 * Copy current frame.
+	 * @param frame destination, at least frame length long
+	 */
+	public void getFrame(byte[] frame) {
+		segment.position(framePosition);
+		segment.get(frame, 0, frameLength);
+	}
+
+	public long getStartNanoTime() {
+		return startNanoTime;
+	}
+
+	public long getStartMillis() {
+		return startMillis;
+	}
+
+	/**
+	 * Read a whole session to find frame length of each source.
+	 * @param sessionFileName session file name given to recorder
+	 * @return frame length of each source, indexed by {@link DataSource#ordinal()}, 0 for sources not in session
+	 * @throws IOException if session cannot be read or a source has several frame lengths
+	 */
+	public static int[] getFrameLengths(String sessionFileName) throws IOException {
+		int[] frameLengths = new int[SOURCES.length];
+		SessionReader sessionReader = new SessionReader(sessionFileName);
+		while(sessionReader.next()) {
+			int i = sessionReader.getSource().ordinal();
+			if(frameLengths[i] == 0) frameLengths[i] = sessionReader.getFrameLength();
+			else if(frameLengths[i] != sessionReader.getFrameLength()) throw new IOException("Several frame lengths for " + sessionReader.getSource() + " in session " + sessionFileName);
+		}
+		return frameLengths;
+	}
+
+}
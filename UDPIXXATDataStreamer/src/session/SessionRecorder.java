@@ -0,0 +1,174 @@
+package session;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.locks.LockSupport;
+
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+import datastreamer.FramesRingBuffer;
+import udpixxatdatastreamer.DataObserver;
+
+/**
+ * Observer recording every frame sent by {@link DataStreamer} into a session file
+ * (see {@link SessionFormat} for layout).<br>
+ * {@link #update(DataSource, int, long, byte[])} only copies the frame into a pre-allocated ring, with
+ * its stream sequence number and acquisition time. A writer thread appends ring frames to memory-mapped,
+ * pre-sized segments and rolls to a new segment when current one is full. This way, no file I/O happens
+ * on the dispatcher thread. If the writer does not keep up, frames are dropped and counted : they leave
+ * a gap in recorded sequence numbers of their source, as frames dropped before the recorder do.<br>
+ * Current segment is forced to disk every second, so that a crash loses at most last second of recording.
+ * @author fbuloup
+ */
+public class SessionRecorder implements DataObserver {
+
+	public final static String recordSessionToken = "-recordsession";
+	public final static String recordSegmentSizeToken = "-recordsegmentsize";
+
+	public final static int RING_BUFFER_CAPACITY = 16384;
+	// Writer thread sleep time when there is nothing to write
+	private final static long WRITER_PARK_TIME = 1000000;
+	// Period of current segment write back to disk
+	private final static long FORCE_PERIOD = 1000000000L;
+
+	private final String sessionFileName;
+	private final long segmentSize;
+	private final FramesRingBuffer framesRingBuffer;
+	private final Thread writerThread;
+	private final long startNanoTime = System.nanoTime();
+	private final long startMillis = System.currentTimeMillis();
+
+	private volatile boolean disposed;
+
+	// Only accessed by writer thread
+	private MappedByteBuffer segment;
+	private int segmentIndex = -1;
+	private long lastForceTime;
+	private long nbRecordedFrames;
+	private IOException writerError;
+
+	/**
+	 * Create session first segment and start writer thread.
+	 * @param sessionFileName session file name, segment index is appended to it
+	 * @param segmentSize size in bytes of each segment
+	 * @param frameLengths frame length of each source, indexed by {@link DataSource#ordinal()}
+	 * @throws IOException if first segment cannot be created
+	 */
+	public SessionRecorder(String sessionFileName, long segmentSize, int[] frameLengths) throws IOException {
+		this.sessionFileName = sessionFileName;
+		this.segmentSize = segmentSize;
+		int maxFrameLength = 0;
+		for (int frameLength : frameLengths) maxFrameLength = Math.max(maxFrameLength, frameLength);
+		if(segmentSize < SessionFormat.HEADER_SIZE + SessionFormat.RECORD_HEADER_SIZE + maxFrameLength) throw new IOException("Segment size too small : " + segmentSize);
+		framesRingBuffer = new FramesRingBuffer(RING_BUFFER_CAPACITY, frameLengths);
+		nextSegment();
+		writerThread = new Thread("Session recorder") {
+			public void run() {
+				write();
+			}
+		};
+		writerThread.setDaemon(true);
+		writerThread.start();
+		System.out.println("Recording session to " + sessionFileName + " with segments of " + segmentSize + " bytes");
+	}
+
+	/**
+	 * Frames without known source are not recorded.
+	 */
+	@Override
+	public void update(byte[] bytesBuffer) {
+	}
+
+	/**
+	 * Sequence number and acquisition time are unknown : frame is recorded with next sequence number
+	 * of its source in the recorder and current {@link System#nanoTime()}.
+	 */
+	@Override
+	public void update(DataSource source, byte[] bytesBuffer) {
+		if(!disposed) framesRingBuffer.publish(source, bytesBuffer, System.nanoTime());
+	}
+
+	@Override
+	public void update(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		if(!disposed) framesRingBuffer.publish(source, bytesBuffer, sequence, acquisitionTime);
+	}
+
+	private void write() {
+		try {
+			lastForceTime = System.nanoTime();
+			while(true) {
+				if(System.nanoTime() - lastForceTime >= FORCE_PERIOD) {
+					segment.force();
+					lastForceTime = System.nanoTime();
+				}
+				int slot = framesRingBuffer.poll();
+				if(slot == -1) {
+					if(disposed) break;
+					LockSupport.parkNanos(WRITER_PARK_TIME);
+					continue;
+				}
+				byte[] frame = framesRingBuffer.getFrame(slot);
+				if(segment.remaining() < SessionFormat.RECORD_HEADER_SIZE + frame.length) nextSegment();
+				segment.putShort((short) frame.length);
+				segment.put((byte) framesRingBuffer.getSource(slot).ordinal());
+				segment.put((byte) 0);
+				segment.putInt(framesRingBuffer.getSequence(slot));
+				segment.putLong(framesRingBuffer.getAcquisitionTime(slot));
+				segment.put(frame);
+				framesRingBuffer.release();
+				nbRecordedFrames++;
+			}
+			segment.force();
+		} catch (IOException e) {
+			writerError = e;
+			e.printStackTrace();
+		}
+	}
+
+	private void nextSegment() throws IOException {
+		if(segment != null) segment.force();
+		segmentIndex++;
+		String segmentFileName = SessionFormat.getSegmentFileName(sessionFileName, segmentIndex);
+		try (FileChannel fileChannel = FileChannel.open(Paths.get(segmentFileName), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			// Mapping stays valid once channel is closed
+			segment = fileChannel.map(MapMode.READ_WRITE, 0, segmentSize);
+		}
+		segment.putInt(SessionFormat.MAGIC);
+		segment.putShort(SessionFormat.VERSION);
+		segment.putShort((short) SessionFormat.HEADER_SIZE);
+		segment.putInt(segmentIndex);
+		segment.putInt(0);
+		segment.putLong(startNanoTime);
+		segment.putLong(startMillis);
+	}
+
+	/**
+	 * Stop recording : frames still in ring are written, then last segment is flushed to disk.
+	 * Must be called once {@link DataStreamer} has stopped.
+	 */
+	public void dispose() {
+		disposed = true;
+		try {
+			writerThread.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		System.out.println("Nb recorded frames : " + nbRecordedFrames + " in " + (segmentIndex + 1) + " segment(s)");
+		System.out.println("Nb frames not recorded (writer slower than streaming) : " + framesRingBuffer.getDroppedFrames());
+		if(writerError != null) System.out.println("Recording stopped on error : " + writerError.getMessage());
+	}
+
+	public long getNbRecordedFrames() {
+		return nbRecordedFrames;
+	}
+
+	public long getNbDroppedFrames() {
+		return framesRingBuffer.getDroppedFrames();
+	}
+
+}
@@ -0,0 +1,120 @@
+package udpixxatdatastreamer;
+
+import datastreamer.DataSource;
+
+/**
+ * Expected IXXAT CAN bus load of each source, computed from configured frame rates and frame lengths
+ * before streaming starts.<br>
+ * Every message is a standard (11 bits identifier) data frame of 8 bytes. Its length is counted with
+ * worst case bit stuffing : a stuff bit every 4 bits from start of frame to end of CRC, that is 135 bits
+ * instead of 111 without stuffing.<br>
+ * When load is above ceiling, {@link Policy} tells whether streaming starts anyway with a warning,
+ * is refused, or starts with CAN decimation : only one frame out of n of a source is sent to CAN
+ * (UDP and recording still get every frame). Decimation is increased for the source with the highest
+ * load until total load is under ceiling.
+ * @author fbuloup
+ */
+final class CANBusLoad {
+
+	enum Policy {
+		WARN, REFUSE, DECIMATE;
+
+		/**
+		 * @param value warn, refuse or decimate, case insensitive
+		 * @return matching policy
+		 */
+		static Policy parse(String value) {
+			for (Policy policy : values()) {
+				if(policy.name().equalsIgnoreCase(value)) return policy;
+			}
+			throw new IllegalArgumentException("Unknown CAN bus load policy : " + value);
+		}
+	}
+
+	// CanBitrate.Cia1000KBit
+	final static int BITRATE = 1000000;
+	private final static int MESSAGE_LENGTH = 8;
+	private final static int MAX_DECIMATION = 1000;
+
+	private final double[] frameRates;
+	private final int[] nbMessages;
+	private final int[] decimations = new int[DataSource.values().length];
+
+	/**
+	 * @param frameRates expected frames per second of each source, indexed by {@link DataSource#ordinal()}
+	 * @param frameLengths length of frames sent to CAN by each source
+	 */
+	CANBusLoad(double[] frameRates, int[] frameLengths) {
+		this.frameRates = frameRates;
+		nbMessages = new int[frameLengths.length];
+		for (int i = 0; i < frameLengths.length; i++) {
+			nbMessages[i] = Math.max(1, (frameLengths[i] + MESSAGE_LENGTH - 1)/MESSAGE_LENGTH);
+			decimations[i] = 1;
+		}
+	}
+
+	/**
+	 * @param nbDataBytes data length code
+	 * @return number of bits of a standard data frame, with worst case bit stuffing and interframe space
+	 */
+	static int getMessageBits(int nbDataBytes) {
+		// Start of frame, identifier, RTR, IDE, r0, DLC, data and CRC are stuffed
+		int stuffedBits = 1 + 11 + 1 + 1 + 1 + 4 + 8*nbDataBytes + 15;
+		// CRC delimiter, ACK slot and delimiter, end of frame, interframe space
+		return stuffedBits + (stuffedBits - 1)/4 + 1 + 2 + 7 + 3;
+	}
+
+	/**
+	 * @return messages per second of source, after CAN decimation
+	 */
+	double getMessageRate(DataSource source) {
+		int i = source.ordinal();
+		return frameRates[i]*nbMessages[i]/decimations[i];
+	}
+
+	/**
+	 * @return fraction of bus bandwidth used by source
+	 */
+	double getLoad(DataSource source) {
+		return getMessageRate(source)*getMessageBits(MESSAGE_LENGTH)/BITRATE;
+	}
+
+	double getTotalLoad() {
+		double load = 0;
+		for (DataSource source : DataSource.values()) load += getLoad(source);
+		return load;
+	}
+
+	/**
+	 * Increase decimation of the most loading source until total load is under ceiling.
+	 * @param ceiling maximum fraction of bus bandwidth
+	 * @return true if total load is now under ceiling
+	 */
+	boolean decimate(double ceiling) {
+		while(getTotalLoad() > ceiling) {
+			DataSource mostLoading = null;
+			for (DataSource source : DataSource.values()) {
+				if(decimations[source.ordinal()] >= MAX_DECIMATION || getLoad(source) == 0) continue;
+				if(mostLoading == null || getLoad(source) > getLoad(mostLoading)) mostLoading = source;
+			}
+			if(mostLoading == null) return false;
+			decimations[mostLoading.ordinal()]++;
+		}
+		return true;
+	}
+
+	int getDecimation(DataSource source) {
+		return decimations[source.ordinal()];
+	}
+
+	void print() {
+		for (DataSource source : DataSource.values()) {
+			if(frameRates[source.ordinal()] == 0) continue;
+			System.out.println(String.format("CAN bus load of %s : %.1f%% (%.0f frames/s, %d messages per frame%s)", source, 100*getLoad(source),
+					frameRates[source.ordinal()]/getDecimation(source), nbMessages[source.ordinal()],
+					(getDecimation(source) > 1) ? ", one frame out of " + getDecimation(source) : ""));
+		}
+		System.out.println(String.format("CAN bus load : %.1f%% of %d kbit/s, with worst case bit stuffing", 100*getTotalLoad(), BITRATE/1000));
+	}
+
+}
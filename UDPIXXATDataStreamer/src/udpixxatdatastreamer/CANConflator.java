@@ -0,0 +1,202 @@
+package udpixxatdatastreamer;
+
+import java.util.concurrent.locks.LockSupport;
+
+import datastreamer.DataSource;
+import datastreamer.LatencyHistogram;
+import de.ixxat.vci3.bal.can.CanMessage;
+import de.ixxat.vci3.bal.can.ICanMessageWriter;
+
+/**
+ * Latest-value-wins output stage for IXXAT CAN bus.<br>
+ * Each 8 bytes CAN message of a frame is a self-contained sample (one marker for coda/optitrack,
+ * whole sample for xsens and time stamp), so that frames are split into one slot per
+ * (source, message index). {@link #update(DataSource, byte[])} only overwrites slots with
+ * the newest values : a slot not yet sent is conflated, never queued. Frames of unknown source
+ * have their own slots.<br>
+ * A writer thread, only user of CAN message writer, sends pending slots, in round robin order, as soon as transmit FIFO has room.
+ * When bus is saturated, each slot is therefore sent at least once per round and its value is
+ * always the freshest one, which bounds staleness instead of building a backlog of old positions.<br>
+ * Age of each sent value (time from update to write) is recorded. Written messages and waits for FIFO room
+ * are also given to {@link TransportMonitor}.
+ * @author fbuloup
+ */
+class CANConflator {
+
+	private final static int MESSAGE_LENGTH = 8;
+	// Writer thread sleep time when there is nothing to send
+	private final static long IDLE_PARK_TIME = 1000000;
+	// Time out in milliseconds of a wait for transmit FIFO room
+	private final static int FIFO_WAIT_TIMEOUT = 1;
+	// Slots index of frames of unknown source, after those of DataSource values
+	private final static int UNKNOWN_SOURCE = DataSource.values().length;
+
+	private final ICanMessageWriter canMessageWriter;
+	private final CanMessage canMessage;
+	private final byte[] payload = new byte[MESSAGE_LENGTH];
+	private final TransportMonitor transportMonitor;
+
+	// Slots of each source, indexed by DataSource#ordinal() or UNKNOWN_SOURCE, allocated with first frame of the source
+	private final byte[][][] slots = new byte[UNKNOWN_SOURCE + 1][0][];
+	private final long[][] updateTimes = new long[UNKNOWN_SOURCE + 1][0];
+	private final boolean[][] pendings = new boolean[UNKNOWN_SOURCE + 1][0];
+	// Round robin position of writer
+	private int sourceIndex;
+	private int slotIndex;
+	// Number of pending slots, read by monitoring
+	private volatile int nbPendings;
+
+	private final Object lock = new Object();
+	private final Thread writer;
+	private volatile boolean running = true;
+
+	private long nbSamplesUpdated;
+	private long nbSamplesConflated;
+	private long nbMessagesSent;
+	private final LatencyHistogram ageHistogram = new LatencyHistogram();
+
+	/**
+	 * Start writer thread.
+	 * @param canMessageWriter started CAN channel message writer
+	 * @param canMessage message whose identifier and flags are used for every message
+	 * @param transportMonitor CAN transport counters
+	 */
+	CANConflator(ICanMessageWriter canMessageWriter, CanMessage canMessage, TransportMonitor transportMonitor) {
+		this.canMessageWriter = canMessageWriter;
+		this.transportMonitor = transportMonitor;
+		this.canMessage = canMessage;
+		canMessage.m_bDataLength = (byte) MESSAGE_LENGTH;
+		canMessage.m_abData = payload;
+		writer = new Thread("CAN conflator") {
+			public void run() {
+				write();
+			}
+		};
+		writer.setDaemon(true);
+		writer.setPriority(Thread.MAX_PRIORITY);
+		writer.start();
+	}
+
+	/**
+	 * Overwrite slots of the source with frame values. Last message is padded with zeros.
+	 * @param source source of the frame, null if unknown
+	 * @param bytesBuffer frame values
+	 */
+	void update(DataSource source, byte[] bytesBuffer) {
+		int nbMessages = Math.max(1, (bytesBuffer.length + MESSAGE_LENGTH - 1)/MESSAGE_LENGTH);
+		int i = source == null ? UNKNOWN_SOURCE : source.ordinal();
+		long updateTime = System.nanoTime();
+		synchronized (lock) {
+			// Only a longer frame than any previous one of this source allocates
+			if(slots[i].length < nbMessages) grow(i, nbMessages);
+			for (int n = 0; n < nbMessages; n++) {
+				int messageLength = Math.max(0, Math.min(MESSAGE_LENGTH, bytesBuffer.length - MESSAGE_LENGTH*n));
+				System.arraycopy(bytesBuffer, MESSAGE_LENGTH*n, slots[i][n], 0, messageLength);
+				for (int j = messageLength; j < MESSAGE_LENGTH; j++) slots[i][n][j] = 0;
+				if(pendings[i][n]) nbSamplesConflated++;
+				else nbPendings++;
+				pendings[i][n] = true;
+				updateTimes[i][n] = updateTime;
+				nbSamplesUpdated++;
+			}
+		}
+		LockSupport.unpark(writer);
+	}
+
+	private void grow(int i, int nbMessages) {
+		byte[][] sourceSlots = new byte[nbMessages][];
+		long[] sourceUpdateTimes = new long[nbMessages];
+		boolean[] sourcePendings = new boolean[nbMessages];
+		for (int n = 0; n < nbMessages; n++) {
+			if(n < slots[i].length) {
+				sourceSlots[n] = slots[i][n];
+				sourceUpdateTimes[n] = updateTimes[i][n];
+				sourcePendings[n] = pendings[i][n];
+			} else sourceSlots[n] = new byte[MESSAGE_LENGTH];
+		}
+		slots[i] = sourceSlots;
+		updateTimes[i] = sourceUpdateTimes;
+		pendings[i] = sourcePendings;
+	}
+
+	/**
+	 * Copy next pending slot, in round robin order, into CAN message payload.
+	 * @return update time of copied slot, or -1 if no slot is pending
+	 */
+	private long takeNextPending() {
+		synchronized (lock) {
+			for (int k = 0; k <= slots.length; k++) {
+				boolean[] sourcePendings = pendings[sourceIndex];
+				while(slotIndex < sourcePendings.length) {
+					int n = slotIndex++;
+					if(sourcePendings[n]) {
+						sourcePendings[n] = false;
+						nbPendings--;
+						System.arraycopy(slots[sourceIndex][n], 0, payload, 0, MESSAGE_LENGTH);
+						return updateTimes[sourceIndex][n];
+					}
+				}
+				sourceIndex = (sourceIndex + 1)%slots.length;
+				slotIndex = 0;
+			}
+			return -1;
+		}
+	}
+
+	private void write() {
+		try {
+			int freeCount = 0;
+			while(running) {
+				if(freeCount == 0) {
+					freeCount = canMessageWriter.GetFreeCount();
+					if(freeCount == 0) {
+						transportMonitor.recordFifoFull();
+						canMessageWriter.WaitFor(FIFO_WAIT_TIMEOUT);
+						continue;
+					}
+				}
+				long updateTime = takeNextPending();
+				if(updateTime == -1) {
+					LockSupport.parkNanos(this, IDLE_PARK_TIME);
+					continue;
+				}
+				canMessageWriter.WriteMessage(canMessage);
+				ageHistogram.record(System.nanoTime() - updateTime);
+				nbMessagesSent++;
+				transportMonitor.recordPacket();
+				freeCount--;
+			}
+		} catch (Throwable e) {
+			transportMonitor.recordSendError();
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Stop writer thread. Slots not yet sent are discarded.
+	 */
+	void dispose() {
+		running = false;
+		LockSupport.unpark(writer);
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return number of markers waiting to be sent
+	 */
+	int getNbPendings() {
+		return nbPendings;
+	}
+
+	void printCounters() {
+		System.out.println("Nb CAN samples updated : " + nbSamplesUpdated + ", conflated (overwritten before being sent) : " + nbSamplesConflated);
+		System.out.println("Nb CAN messages sent : " + nbMessagesSent);
+		System.out.println(String.format("CAN sent values age (us) : p50 %.1f - p99 %.1f - max %.1f", ageHistogram.getValueAtPercentile(50)/1000.0,
+				ageHistogram.getValueAtPercentile(99)/1000.0, ageHistogram.getMax()/1000.0));
+	}
+
+}
@@ -0,0 +1,154 @@
+package udpixxatdatastreamer;
+
+import datastreamer.DataSource;
+import datastreamer.WireFormat;
+
+/**
+ * Compact encoding of V1 markers frames for bandwidth-limited CAN links.<br>
+ * A V1 frame costs one 8 bytes CAN message per marker. Here, a marker that moved by less than
+ * 32 units on each axis since previous frame is sent as a delta, two markers per message :
+ * <ul>
+ * <li>byte 0 : b7b6 are system code, b5..b0 are 0 (a V1 marker message never has these bits all 0)</li>
+ * <li>byte 1 : frameID, as in V1 messages</li>
+ * <li>bytes 2 to 7, as a big endian 48 bits value :
+ * b47..b42 index of first marker of a pair (even, from 0), b41..b22 this marker, b21..b2 next marker, b1b0 unused.
+ * Each marker is a present bit, a visibility bit then x, y and z deltas as 6 bits two's complement values</li>
+ * </ul>
+ * A marker whose delta does not fit, or whose index is above 63, is sent as its V1 message (key message).
+ * Every key frame interval, and after a frame could not be written, whole frame is sent as V1 messages,
+ * so that a receiver that lost a message resynchronizes on next key frame (a frameID jump tells
+ * it lost a frame).<br>
+ * Deltas are taken from last sent values, so that a receiver rebuilds exact V1 values.
+ * Other sources frames are sent unchanged.<br>
+ * With moderate motion, a frame of n markers takes about n/2 messages instead of n.
+ * @author fbuloup
+ */
+class CANDeltaEncoder {
+
+	private final static int MESSAGE_LENGTH = WireFormat.MARKER_LENGTH;
+	private final static int MARKERS_PER_MESSAGE = 2;
+	private final static int DELTA_BITS = 6;
+	private final static int MAX_DELTA = (1 << (DELTA_BITS - 1)) - 1;
+	private final static int MIN_DELTA = -(1 << (DELTA_BITS - 1));
+	private final static int MAX_INDEX = (1 << 6) - 1;
+	private final static int MARKER_BITS = 2 + 3*DELTA_BITS;
+
+	private final int keyFrameInterval;
+
+	// Last sent values of each marker, indexed by DataSource#ordinal(), allocated with first frame of the source
+	private final short[][] lastValues = new short[DataSource.values().length][0];
+	private final int[] nbFramesSinceKeyFrame = new int[DataSource.values().length];
+	private final boolean[] forceKeyFrame = new boolean[DataSource.values().length];
+	// Encoded messages of last frame
+	private byte[] messages = new byte[0];
+
+	private long nbKeyFrames;
+	private long nbKeyMessages;
+	private long nbDeltaMessages;
+	private long nbDeltaMarkers;
+	private long nbV1Messages;
+
+	/**
+	 * @param keyFrameInterval number of frames between two key frames of a source
+	 */
+	CANDeltaEncoder(int keyFrameInterval) {
+		this.keyFrameInterval = Math.max(1, keyFrameInterval);
+	}
+
+	/**
+	 * Encode a frame. Encoded messages are available with {@link #getMessages()}.
+	 * @param source system that produced the frame
+	 * @param bytesBuffer V1 frame
+	 * @return length of encoded messages, a multiple of 8 for markers frames
+	 */
+	int encode(DataSource source, byte[] bytesBuffer) {
+		if(messages.length < bytesBuffer.length) messages = new byte[bytesBuffer.length];
+		if(!WireFormat.hasMarkers(source)) {
+			System.arraycopy(bytesBuffer, 0, messages, 0, bytesBuffer.length);
+			return bytesBuffer.length;
+		}
+		int nbMarkers = WireFormat.V1.getNbMarkers(bytesBuffer.length);
+		nbV1Messages += nbMarkers;
+		short[] values = lastValues[source.ordinal()];
+		int i = source.ordinal();
+		boolean keyFrame = values.length != 3*nbMarkers || forceKeyFrame[i] || nbFramesSinceKeyFrame[i] >= keyFrameInterval;
+		if(values.length != 3*nbMarkers) {
+			values = new short[3*nbMarkers];
+			lastValues[i] = values;
+		}
+		if(keyFrame) {
+			nbFramesSinceKeyFrame[i] = 0;
+			forceKeyFrame[i] = false;
+			nbKeyFrames++;
+		}
+		nbFramesSinceKeyFrame[i]++;
+
+		int length = 0;
+		for (int j = 0; j < nbMarkers; j += MARKERS_PER_MESSAGE) {
+			long packedMarkers = 0;
+			int nbPacked = 0;
+			for (int k = j; k < Math.min(j + MARKERS_PER_MESSAGE, nbMarkers); k++) {
+				long packedMarker = keyFrame || k > MAX_INDEX ? -1 : packDelta(bytesBuffer, k, values);
+				if(packedMarker < 0) {
+					System.arraycopy(bytesBuffer, MESSAGE_LENGTH*k, messages, length, MESSAGE_LENGTH);
+					length += MESSAGE_LENGTH;
+					nbKeyMessages++;
+				} else {
+					packedMarkers |= packedMarker << (2 + MARKER_BITS*(MARKERS_PER_MESSAGE - 1 - (k - j)));
+					nbPacked++;
+				}
+				for (int axis = 0; axis < 3; axis++) values[3*k + axis] = getShort(bytesBuffer, MESSAGE_LENGTH*k + 2 + 2*axis);
+			}
+			if(nbPacked == 0) continue;
+			packedMarkers |= ((long) j) << 42;
+			messages[length] = (byte) (bytesBuffer[0] & 0xC0);
+			messages[length + 1] = bytesBuffer[1];
+			for (int n = 0; n < 6; n++) messages[length + 2 + n] = (byte) (packedMarkers >> (40 - 8*n));
+			length += MESSAGE_LENGTH;
+			nbDeltaMessages++;
+			nbDeltaMarkers += nbPacked;
+		}
+		return length;
+	}
+
+	/**
+	 * @return present bit, visibility bit and deltas of a marker, or -1 if a delta does not fit
+	 */
+	private static long packDelta(byte[] bytesBuffer, int marker, short[] values) {
+		long packedMarker = 1;
+		packedMarker = (packedMarker << 1) | (((bytesBuffer[MESSAGE_LENGTH*marker] & 0x20) != 0) ? 1 : 0);
+		for (int axis = 0; axis < 3; axis++) {
+			int delta = (short) (getShort(bytesBuffer, MESSAGE_LENGTH*marker + 2 + 2*axis) - values[3*marker + axis]);
+			if(delta < MIN_DELTA || delta > MAX_DELTA) return -1;
+			packedMarker = (packedMarker << DELTA_BITS) | (delta & ((1 << DELTA_BITS) - 1));
+		}
+		return packedMarker;
+	}
+
+	private static short getShort(byte[] bytesBuffer, int index) {
+		return (short) (((bytesBuffer[index] & 0xFF) << 8) | (bytesBuffer[index + 1] & 0xFF));
+	}
+
+	/**
+	 * @return messages encoded by last {@link #encode(DataSource, byte[])}, reused for next frames
+	 */
+	byte[] getMessages() {
+		return messages;
+	}
+
+	/**
+	 * Last frame of source could not be written now : next one is a key frame.
+	 */
+	void resync(DataSource source) {
+		forceKeyFrame[source.ordinal()] = true;
+	}
+
+	void printCounters() {
+		System.out.println("Nb CAN delta key frames : " + nbKeyFrames);
+		System.out.println("Nb CAN delta messages : " + nbDeltaMessages + " for " + nbDeltaMarkers + " markers - key messages : " + nbKeyMessages);
+		long nbMessages = nbDeltaMessages + nbKeyMessages;
+		if(nbMessages > 0) System.out.println("Nb CAN markers messages : " + nbMessages + " instead of " + nbV1Messages
+				+ String.format(" (%.1f%%)", 100.0*nbMessages/nbV1Messages));
+	}
+
+}
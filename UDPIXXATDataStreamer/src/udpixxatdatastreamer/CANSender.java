@@ -0,0 +1,244 @@
+package udpixxatdatastreamer;
+
+import de.ixxat.vci3.bal.can.CanMessage;
+import de.ixxat.vci3.bal.can.ICanMessageWriter;
+
+/**
+ * Writes frames to IXXAT CAN message writer, 8 bytes per CAN message
+ * (last message of a frame is padded with zeros).<br>
+ * CAN message and its payload are allocated once and reused for every message.
+ * Free transmit FIFO entries are read once per frame : a frame is only written when
+ * all its messages fit, so that a frame is never partially sent. Otherwise {@link FifoPolicy} applies :
+ * <ul>
+ * <li>WAIT : wait for room up to a time out, then drop the frame</li>
+ * <li>DROP_FRAME : drop the whole frame</li>
+ * <li>DROP_OLDEST : keep the frame in a bounded backlog, written as soon as FIFO has room : before next
+ * frame, or on {@link #flush()} when no frame is waiting. When backlog is full, its oldest frame is dropped.</li>
+ * </ul>
+ * Each outcome is counted, written messages and frames that did not fit are also given to {@link TransportMonitor}.
+ * @author fbuloup
+ */
+class CANSender {
+
+	enum FifoPolicy {
+		WAIT, DROP_FRAME, DROP_OLDEST;
+
+		/**
+		 * @param value wait, dropframe or dropoldest, case insensitive
+		 * @return matching policy
+		 */
+		static FifoPolicy parse(String value) {
+			for (FifoPolicy fifoPolicy : values()) {
+				if(fifoPolicy.name().replace("_", "").equalsIgnoreCase(value)) return fifoPolicy;
+			}
+			throw new IllegalArgumentException("Unknown CAN FIFO policy : " + value);
+		}
+	}
+
+	private final static int MESSAGE_LENGTH = 8;
+
+	private final ICanMessageWriter canMessageWriter;
+	private final CanMessage canMessage;
+	private final byte[] payload = new byte[MESSAGE_LENGTH];
+	private final FifoPolicy fifoPolicy;
+	private final int waitTimeout;
+	private final TransportMonitor transportMonitor;
+
+	// DROP_OLDEST backlog : ring of frames waiting for FIFO room
+	private final byte[][] backlog;
+	private final int[] backlogLengths;
+	private int backlogHead;
+	// Read by monitoring
+	private volatile int backlogSize;
+
+	private int freeCount;
+	private long nbFramesSent;
+	private long nbMessagesSent;
+	private long nbFramesWaited;
+	private long nbFramesTimedOut;
+	private long nbFramesDropped;
+	private long nbFramesDelayed;
+	private long nbBacklogFramesDropped;
+
+	/**
+	 * @param canMessageWriter started CAN channel message writer
+	 * @param canMessage message whose identifier and flags are used for every message
+	 * @param fifoPolicy what to do when transmit FIFO is full
+	 * @param waitTimeout WAIT policy time out in milliseconds
+	 * @param backlogCapacity DROP_OLDEST policy number of frames kept while FIFO is full
+	 * @param transportMonitor CAN transport counters
+	 */
+	CANSender(ICanMessageWriter canMessageWriter, CanMessage canMessage, FifoPolicy fifoPolicy, int waitTimeout, int backlogCapacity, TransportMonitor transportMonitor) {
+		this.canMessageWriter = canMessageWriter;
+		this.transportMonitor = transportMonitor;
+		this.canMessage = canMessage;
+		this.fifoPolicy = fifoPolicy;
+		this.waitTimeout = waitTimeout;
+		canMessage.m_bDataLength = (byte) MESSAGE_LENGTH;
+		canMessage.m_abData = payload;
+		int capacity = (fifoPolicy == FifoPolicy.DROP_OLDEST) ? Math.max(1, backlogCapacity) : 0;
+		backlog = new byte[capacity][0];
+		backlogLengths = new int[capacity];
+	}
+
+	/**
+	 * Write a frame, applying FIFO policy if it does not fit.
+	 * @param bytesBuffer frame values
+	 * @return true if frame has been written now
+	 * @throws Throwable on IXXAT error
+	 */
+	boolean send(byte[] bytesBuffer) throws Throwable {
+		return send(bytesBuffer, bytesBuffer.length);
+	}
+
+	/**
+	 * Write a frame, applying FIFO policy if it does not fit.
+	 * @param bytesBuffer frame values
+	 * @param length frame length
+	 * @return true if frame has been written now
+	 * @throws Throwable on IXXAT error
+	 */
+	boolean send(byte[] bytesBuffer, int length) throws Throwable {
+		int nbMessages = getNbMessages(length);
+		freeCount = canMessageWriter.GetFreeCount();
+		if(backlogSize > 0) flushBacklog();
+		if(backlogSize == 0 && freeCount >= nbMessages) {
+			write(bytesBuffer, length);
+			return true;
+		}
+		transportMonitor.recordFifoFull();
+		switch (fifoPolicy) {
+		case WAIT:
+			long deadline = System.nanoTime() + 1000000L*waitTimeout;
+			while(freeCount < nbMessages) {
+				long remaining = deadline - System.nanoTime();
+				if(remaining <= 0) {
+					nbFramesTimedOut++;
+					return false;
+				}
+				canMessageWriter.WaitFor((int) Math.max(1, remaining/1000000));
+				freeCount = canMessageWriter.GetFreeCount();
+			}
+			nbFramesWaited++;
+			write(bytesBuffer, length);
+			return true;
+		case DROP_OLDEST:
+			addToBacklog(bytesBuffer, length);
+			return false;
+		default:
+			nbFramesDropped++;
+			return false;
+		}
+	}
+
+	/**
+	 * Write backlog frames that now fit in transmit FIFO.
+	 * @throws Throwable on IXXAT error
+	 */
+	void flush() throws Throwable {
+		if(backlogSize == 0) return;
+		freeCount = canMessageWriter.GetFreeCount();
+		flushBacklog();
+	}
+
+	/**
+	 * Wait for transmit FIFO room until all backlog frames are written, up to a time out.
+	 * @param timeout time out in milliseconds
+	 * @throws Throwable on IXXAT error
+	 */
+	void drain(int timeout) throws Throwable {
+		long deadline = System.nanoTime() + 1000000L*timeout;
+		flush();
+		while(backlogSize > 0) {
+			long remaining = deadline - System.nanoTime();
+			if(remaining <= 0) return;
+			canMessageWriter.WaitFor((int) Math.max(1, remaining/1000000));
+			flush();
+		}
+	}
+
+	private void write(byte[] bytesBuffer, int length) throws Throwable {
+		for (int n = 0; n < length; n += MESSAGE_LENGTH) {
+			int messageLength = Math.min(MESSAGE_LENGTH, length - n);
+			System.arraycopy(bytesBuffer, n, payload, 0, messageLength);
+			for (int i = messageLength; i < MESSAGE_LENGTH; i++) payload[i] = 0;
+			canMessageWriter.WriteMessage(canMessage);
+			nbMessagesSent++;
+			transportMonitor.recordPacket();
+		}
+		if(length == 0) {
+			for (int i = 0; i < MESSAGE_LENGTH; i++) payload[i] = 0;
+			canMessageWriter.WriteMessage(canMessage);
+			nbMessagesSent++;
+			transportMonitor.recordPacket();
+		}
+		freeCount -= getNbMessages(length);
+		nbFramesSent++;
+	}
+
+	private void flushBacklog() throws Throwable {
+		while(backlogSize > 0) {
+			int length = backlogLengths[backlogHead];
+			if(freeCount < getNbMessages(length)) return;
+			write(backlog[backlogHead], length);
+			backlogHead = (backlogHead + 1)%backlog.length;
+			backlogSize--;
+		}
+	}
+
+	private void addToBacklog(byte[] bytesBuffer, int length) {
+		if(backlogSize == backlog.length) {
+			backlogHead = (backlogHead + 1)%backlog.length;
+			backlogSize--;
+			nbBacklogFramesDropped++;
+		}
+		int tail = (backlogHead + backlogSize)%backlog.length;
+		// Slot only grows when a longer frame is first kept
+		if(backlog[tail].length < length) backlog[tail] = new byte[length];
+		System.arraycopy(bytesBuffer, 0, backlog[tail], 0, length);
+		backlogLengths[tail] = length;
+		backlogSize++;
+		nbFramesDelayed++;
+	}
+
+	private static int getNbMessages(int length) {
+		return Math.max(1, (length + MESSAGE_LENGTH - 1)/MESSAGE_LENGTH);
+	}
+
+	/**
+	 * @return free transmit FIFO entries read before last frame
+	 */
+	int getFreeCount() {
+		return freeCount;
+	}
+
+	/**
+	 * @return number of frames in DROP_OLDEST backlog
+	 */
+	int getBacklogSize() {
+		return backlogSize;
+	}
+
+	FifoPolicy getFifoPolicy() {
+		return fifoPolicy;
+	}
+
+	void printCounters() {
+		System.out.println("Nb CAN frames sent : " + nbFramesSent + " in " + nbMessagesSent + " messages");
+		switch (fifoPolicy) {
+		case WAIT:
+			System.out.println("Nb CAN frames sent after waiting for FIFO : " + nbFramesWaited);
+			System.out.println("Nb CAN frames dropped after " + waitTimeout + " ms : " + nbFramesTimedOut);
+			break;
+		case DROP_OLDEST:
+			System.out.println("Nb CAN frames delayed in backlog : " + nbFramesDelayed);
+			System.out.println("Nb CAN frames dropped from backlog : " + nbBacklogFramesDropped);
+			System.out.println("Nb CAN frames still in backlog : " + backlogSize);
+			break;
+		default:
+			System.out.println("Nb CAN frames dropped (FIFO full) : " + nbFramesDropped);
+			break;
+		}
+	}
+
+}
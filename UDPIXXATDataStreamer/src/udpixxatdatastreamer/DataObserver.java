@@ -1,5 +1,6 @@
 package udpixxatdatastreamer;
 
+import datastreamer.DataSource;
 import datastreamer.DataStreamer;
 
 /**
@@ -10,4 +11,33 @@ import datastreamer.DataStreamer;
  */
 public interface DataObserver {
 	public void update(byte[] bytesBuffer);
+	
+	/**
+	 * Same as {@link #update(byte[])}, knowing which system produced the frame.
+	 * Default implementation ignores the source.
+	 * @param source system that produced the frame
+	 * @param bytesBuffer frame values
+	 */
+	public default void update(DataSource source, byte[] bytesBuffer) {
+		update(bytesBuffer);
+	}
+	
+	/**
+	 * Same as {@link #update(DataSource, byte[])}, knowing frame sequence number and acquisition time.
+	 * Default implementation ignores them.
+	 * @param source system that produced the frame
+	 * @param sequence sequence number of the frame within its source
+	 * @param acquisitionTime {@link System#nanoTime()} when frame was acquired
+	 * @param bytesBuffer frame values
+	 */
+	public default void update(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		update(source, bytesBuffer);
+	}
+	
+	/**
+	 * Called by {@link DataStreamer} dispatcher when no frame is waiting, at most every millisecond,
+	 * from the thread that notifies frames : observer sends frames it kept. Default implementation does nothing.
+	 */
+	public default void flush() {
+	}
 }
@@ -0,0 +1,47 @@
+package udpixxatdatastreamer;
+
+import java.nio.ByteBuffer;
+
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+
+/**
+ * Lets a {@link DataObserver} be notified as a {@link FrameObserver}.<br>
+ * Frame is copied into an array owned by the adapter, one per source, allocated
+ * on first frame of the source. Observer then gets {@link DataObserver#update(DataSource, int, long, byte[])}
+ * with an array whose length is the frame length, as before.<br>
+ * {@link DataStreamer} does not go through this copy : it gives its ring slot arrays directly
+ * to the adapted observer.
+ * @author fbuloup
+ */
+public final class DataObserverAdapter implements FrameObserver {
+	
+	private final DataObserver observer;
+	private final byte[][] bytesBuffers = new byte[DataSource.values().length][0];
+	
+	public DataObserverAdapter(DataObserver observer) {
+		this.observer = observer;
+	}
+	
+	@Override
+	public void update(DataSource source, int sequence, long acquisitionTime, ByteBuffer frame, int offset, int length) {
+		byte[] bytesBuffer = bytesBuffers[source.ordinal()];
+		if(bytesBuffer.length != length) {
+			bytesBuffer = new byte[length];
+			bytesBuffers[source.ordinal()] = bytesBuffer;
+		}
+		frame.position(offset);
+		frame.get(bytesBuffer, 0, length);
+		observer.update(source, sequence, acquisitionTime, bytesBuffer);
+	}
+	
+	@Override
+	public void flush() {
+		observer.flush();
+	}
+	
+	public DataObserver getObserver() {
+		return observer;
+	}
+	
+}
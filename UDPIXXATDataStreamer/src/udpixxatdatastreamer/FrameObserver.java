@@ -0,0 +1,35 @@
+package udpixxatdatastreamer;
+
+import java.nio.ByteBuffer;
+
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+
+/**
+ * Any object that wants to be notified of frames with their source, sequence number and 
+ * acquisition time, without copy, must implement this method and 
+ * register itself via {@link DataStreamer#addFrameObserver(FrameObserver)}.<br>
+ * Frame buffer is only valid during the call : it is reused for next frames.
+ * @author fbuloup
+ */
+public interface FrameObserver {
+	
+	/**
+	 * Method called when a frame is available.
+	 * @param source system that produced the frame
+	 * @param sequence sequence number of the frame within its source, a gap means frames have been dropped
+	 * @param acquisitionTime {@link System#nanoTime()} when frame was acquired
+	 * @param frame read-only view holding the frame. Use absolute gets, from offset.
+	 * @param offset index of first frame byte in view
+	 * @param length frame length
+	 */
+	public void update(DataSource source, int sequence, long acquisitionTime, ByteBuffer frame, int offset, int length);
+	
+	/**
+	 * Called by dispatcher when no frame is waiting, at most every millisecond : observer
+	 * sends frames it kept. Default implementation does nothing.
+	 */
+	public default void flush() {
+	}
+	
+}
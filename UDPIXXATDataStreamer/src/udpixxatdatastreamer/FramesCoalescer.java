@@ -0,0 +1,164 @@
+package udpixxatdatastreamer;
+
+import java.util.concurrent.locks.LockSupport;
+
+import datastreamer.DataSource;
+
+/**
+ * Packs several frames into one UDP datagram. Frames are appended to the
+ * pending datagram until coalescing window, started by first frame, is elapsed
+ * or until datagram maximum size would be exceeded.<br>
+ * A window of 0 sends each frame as soon as it is appended.<br><br>
+ *
+ * Each frame in datagram is prefixed with three bytes :<br>
+ * FIRST BYTE : source of the frame ({@link DataSource#ordinal()}, 0 for coda, 1 for xsens,
+ * 2 for time stamp, 3 for optitrack)<br>
+ * SECOND AND THIRD BYTES : frame length, most significant byte first<br>
+ * @author fbuloup
+ */
+class FramesCoalescer {
+
+	private final static int MAX_DATAGRAM_SIZE = 65507;
+	private final static int FRAME_HEADER_SIZE = 3;
+	// Time given to flusher thread to stop, in milliseconds
+	private final static long FLUSHER_JOIN_TIMEOUT = 1000;
+
+	private final UDPTransport udpTransport;
+	private final long windowNanos;
+	private final int maxDatagramSize;
+
+	private final byte[] datagram = new byte[MAX_DATAGRAM_SIZE];
+	private int position;
+	private long deadline;
+
+	private final Object lock = new Object();
+	private final Thread flusher;
+	private volatile boolean running = true;
+
+	private long nbDatagramsSent;
+	// Frames in pending datagram, read by monitoring
+	private volatile int nbPendingFrames;
+	private long nbFramesSent;
+	private long nbFramesTooLong;
+
+	/**
+	 * @param udpTransport transport used to send datagrams
+	 * @param windowMicros coalescing window in microseconds. 0 means no delay.
+	 * @param maxDatagramSize datagram is sent before it exceeds this size (a single frame
+	 * bigger than this size is sent alone)
+	 */
+	FramesCoalescer(UDPTransport udpTransport, int windowMicros, int maxDatagramSize) {
+		this.udpTransport = udpTransport;
+		this.windowNanos = 1000L*windowMicros;
+		this.maxDatagramSize = Math.min(maxDatagramSize, MAX_DATAGRAM_SIZE);
+		flusher = new Thread("UDP frames coalescer") {
+			public void run() {
+				flushOnDeadline();
+			}
+		};
+		flusher.setDaemon(true);
+		flusher.setPriority(Thread.MAX_PRIORITY);
+		if(windowNanos > 0) flusher.start();
+	}
+
+	/**
+	 * Append a frame to pending datagram.
+	 * @param source source of the frame
+	 * @param bytesBuffer frame values
+	 */
+	void add(DataSource source, byte[] bytesBuffer) {
+		synchronized (lock) {
+			int frameSize = FRAME_HEADER_SIZE + bytesBuffer.length;
+			if(position > 0 && position + frameSize > maxDatagramSize) flush();
+			if(frameSize > MAX_DATAGRAM_SIZE) {
+				nbFramesTooLong++;
+				udpTransport.getMonitor().recordSendError();
+				return;
+			}
+			if(position == 0) {
+				deadline = System.nanoTime() + windowNanos;
+				LockSupport.unpark(flusher);
+			}
+			datagram[position] = (byte) source.ordinal();
+			datagram[position + 1] = (byte) (bytesBuffer.length >> 8);
+			datagram[position + 2] = (byte) (bytesBuffer.length & 0xFF);
+			System.arraycopy(bytesBuffer, 0, datagram, position + FRAME_HEADER_SIZE, bytesBuffer.length);
+			position += frameSize;
+			nbFramesSent++;
+			nbPendingFrames++;
+			if(windowNanos == 0 || position + FRAME_HEADER_SIZE >= maxDatagramSize) flush();
+		}
+	}
+
+	/**
+	 * Send pending datagram if any, then a frame alone, without prefix. Flusher thread
+	 * may not send meanwhile.
+	 * @param bytesBuffer frame values
+	 */
+	void sendAlone(byte[] bytesBuffer) {
+		synchronized (lock) {
+			flush();
+			udpTransport.sendDatagram(bytesBuffer, bytesBuffer.length);
+		}
+	}
+
+	/**
+	 * Send pending datagram if any.
+	 */
+	void flush() {
+		synchronized (lock) {
+			if(position == 0) return;
+			udpTransport.sendDatagram(datagram, position);
+			position = 0;
+			nbPendingFrames = 0;
+			nbDatagramsSent++;
+		}
+	}
+
+	/**
+	 * Send pending datagram if coalescing window is over.
+	 */
+	void flushIfDue() {
+		synchronized (lock) {
+			if(position > 0 && deadline - System.nanoTime() <= 0) flush();
+		}
+	}
+
+	/**
+	 * Stop flusher thread, then flush pending datagram. Once this method returns,
+	 * nothing is sent anymore and socket can be closed.
+	 */
+	void dispose() {
+		running = false;
+		LockSupport.unpark(flusher);
+		try {
+			flusher.join(FLUSHER_JOIN_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if(flusher.isAlive()) System.out.println("UDP frames coalescer still running after " + FLUSHER_JOIN_TIMEOUT + " ms");
+		flush();
+		System.out.println("Nb coalesced frames : " + nbFramesSent + " in " + nbDatagramsSent + " datagrams");
+		if(nbFramesTooLong > 0) System.out.println("Nb frames too long to be coalesced : " + nbFramesTooLong);
+	}
+
+	int getNbPendingFrames() {
+		return nbPendingFrames;
+	}
+
+	private void flushOnDeadline() {
+		while(running) {
+			long waitTime;
+			synchronized (lock) {
+				waitTime = (position == 0) ? -1 : deadline - System.nanoTime();
+				if(position > 0 && waitTime <= 0) {
+					flush();
+					continue;
+				}
+			}
+			if(waitTime < 0) LockSupport.park(this);
+			else LockSupport.parkNanos(this, waitTime);
+		}
+	}
+
+}
@@ -0,0 +1,302 @@
+package udpixxatdatastreamer;
+
+import java.util.function.IntSupplier;
+
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+import datastreamer.WireFormat;
+import de.ixxat.vci3.IVciDevice;
+import de.ixxat.vci3.IVciDeviceManager;
+import de.ixxat.vci3.IVciEnumDevice;
+import de.ixxat.vci3.VciDeviceInfo;
+import de.ixxat.vci3.VciServer;
+import de.ixxat.vci3.bal.IBalObject;
+import de.ixxat.vci3.bal.IBalResource;
+import de.ixxat.vci3.bal.can.CanBitrate;
+import de.ixxat.vci3.bal.can.CanMessage;
+import de.ixxat.vci3.bal.can.ICanChannel;
+import de.ixxat.vci3.bal.can.ICanControl;
+import de.ixxat.vci3.bal.can.ICanMessageWriter;
+import de.ixxat.vci3.bal.can.ICanSocket;
+
+/**
+ * Sends frames to IXXAT CAN/USB bridge (see {@link UDPIXXATDataStreamer#main(String[])} for parameters),
+ * 8 bytes per CAN message, through {@link CANSender} or {@link CANConflator}, markers being delta encoded
+ * by {@link CANDeltaEncoder} if required.<br>
+ * CAN is always sent V1 part of frames. Write failures are reported in {@link UDPIXXATDataStreamer#warningMessage}.
+ * @author fbuloup
+ */
+class IXXATTransport implements Transport {
+
+	// Time given to CAN sender backlog to be written on close, in milliseconds
+	private final static int BACKLOG_DRAIN_TIMEOUT = 100;
+
+	private int canTransmitFifoSize = 256;
+	private CANSender.FifoPolicy canFifoPolicy = CANSender.FifoPolicy.DROP_FRAME;
+	private int canWaitTimeout = 2;
+	private int canBacklogCapacity = 64;
+	private boolean canConflation = false;
+	private boolean canDelta = false;
+	private int canDeltaKeyFrameInterval = 100;
+	private int canBusLoadCeiling = 80;
+	private CANBusLoad.Policy canBusLoadPolicy = CANBusLoad.Policy.WARN;
+	// CAN decimation of each source : one frame out of n is sent to CAN
+	private final int[] canDecimations = new int[DataSource.values().length];
+	private final long[] canFrameCounters = new long[DataSource.values().length];
+	private final WireFormat wireFormat;
+	private final byte[][] v1Frames = new byte[DataSource.values().length][0];
+
+	private VciServer vciServer;
+	private IVciDeviceManager vciDeviceManager;
+	private IVciEnumDevice vciEnumDevices;
+	private VciDeviceInfo vciDeviceInfo;
+	private IVciDevice vciDevice;
+	private IBalObject busAccessLayer;
+	private ICanControl canControl;
+	private ICanSocket canSocket;
+	private ICanChannel canChannel;
+	private ICanMessageWriter canMessageWriter;
+	private CANSender canSender;
+	private CANConflator canConflator;
+	private CANDeltaEncoder canDeltaEncoder;
+
+	private final TransportMonitor monitor = new TransportMonitor();
+
+	/**
+	 * @param args command line arguments
+	 * @param wireFormat layout of frames
+	 */
+	IXXATTransport(String[] args, WireFormat wireFormat) {
+		this.wireFormat = wireFormat;
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canTransmitFifoSizeToken)) canTransmitFifoSize = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canFifoPolicyToken)) canFifoPolicy = CANSender.FifoPolicy.parse(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canWaitTimeoutToken)) canWaitTimeout = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canBacklogCapacityToken)) canBacklogCapacity = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canConflationToken)) canConflation = Boolean.parseBoolean(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canDeltaToken)) canDelta = Boolean.parseBoolean(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canDeltaKeyFrameIntervalToken)) canDeltaKeyFrameInterval = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canBusLoadCeilingToken)) canBusLoadCeiling = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.canBusLoadPolicyToken)) canBusLoadPolicy = CANBusLoad.Policy.parse(args[i+1]);
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "CAN";
+	}
+
+	@Override
+	public void open() throws Throwable {
+		vciServer = new VciServer();
+		vciDeviceManager = vciServer.GetDeviceManager();
+		vciEnumDevices = vciDeviceManager.EnumDevices();
+		vciDeviceInfo = vciEnumDevices.Next();
+		vciDevice = vciDeviceManager.OpenDevice(vciDeviceInfo.m_qwVciObjectId);
+		busAccessLayer = vciDevice.OpenBusAccessLayer();
+		canControl = (ICanControl)busAccessLayer.OpenSocket(0, IBalResource.IID_ICanControl);
+		canSocket = (ICanSocket)busAccessLayer.OpenSocket(0, IBalResource.IID_ICanSocket);
+		canChannel = canSocket.CreateChannel(false);
+		canChannel.Initialize((short)1, (short)canTransmitFifoSize);
+		canChannel.Activate();
+		canMessageWriter = canChannel.GetMessageWriter();
+		canControl.InitLine(ICanControl.CAN_OPMODE_STANDARD, new CanBitrate(CanBitrate.Cia1000KBit));
+		canControl.SetAccFilter(ICanControl.CAN_FILTER_STD, 2, 0x0FFF);
+		canControl.StartLine();
+		// Message writer has a single user : conflator writer thread, or sender on dispatcher thread
+		if(canConflation) {
+			canConflator = new CANConflator(canMessageWriter, newCanMessage(), monitor);
+			monitor.setQueueDepth(new IntSupplier() {
+				public int getAsInt() {
+					return canConflator.getNbPendings();
+				}
+			});
+			System.out.println("IXXAT Streaming with transmit FIFO of " + canTransmitFifoSize + " messages, newest value of each marker only");
+			if(canDelta) System.out.println("WARNING : CAN delta encoding is not used with conflation, each message must stand alone");
+		} else {
+			canSender = new CANSender(canMessageWriter, newCanMessage(), canFifoPolicy, canWaitTimeout, canBacklogCapacity, monitor);
+			monitor.setQueueDepth(new IntSupplier() {
+				public int getAsInt() {
+					return canSender.getBacklogSize();
+				}
+			});
+			System.out.println("IXXAT Streaming with transmit FIFO of " + canTransmitFifoSize + " messages, FIFO policy " + canFifoPolicy);
+			if(canDelta) {
+				canDeltaEncoder = new CANDeltaEncoder(canDeltaKeyFrameInterval);
+				System.out.println("IXXAT Streaming sends markers deltas, whole frame every " + canDeltaKeyFrameInterval + " frames");
+			}
+		}
+	}
+
+	/**
+	 * @return standard data message of identifier 2
+	 */
+	private static CanMessage newCanMessage() {
+		CanMessage canMessage = new CanMessage();
+		canMessage.m_dwIdentifier = 2;
+		canMessage.m_dwTimestamp = 0;
+		canMessage.m_fExtendedFrameFormat = false;
+		canMessage.m_fRemoteTransmissionRequest = false;
+		canMessage.m_fSelfReception = false;
+		canMessage.m_bDataLength = (byte)8;
+		return canMessage;
+	}
+
+	/**
+	 * Estimate CAN bus load of configured sources and apply CAN bus load policy if it is above ceiling.
+	 * @param dataStreamer configured data streamer
+	 * @return false if streaming is refused
+	 */
+	boolean checkBusLoad(DataStreamer dataStreamer) {
+		double[] frameRates = new double[DataSource.values().length];
+		int[] frameLengths = dataStreamer.getFrameLengths();
+		for (DataSource source : DataSource.values()) {
+			frameRates[source.ordinal()] = dataStreamer.getExpectedFrameRate(source);
+			frameLengths[source.ordinal()] = wireFormat.getV1Length(source, frameLengths[source.ordinal()]);
+		}
+		CANBusLoad canBusLoad = new CANBusLoad(frameRates, frameLengths);
+		canBusLoad.print();
+		double ceiling = canBusLoadCeiling/100.0;
+		if(canBusLoad.getTotalLoad() <= ceiling) return true;
+		switch (canBusLoadPolicy) {
+		case REFUSE:
+			System.out.println("ERROR : expected CAN bus load is above " + canBusLoadCeiling + "%. Lower frame rates or number of markers.");
+			return false;
+		case DECIMATE:
+			if(!canBusLoad.decimate(ceiling)) {
+				System.out.println("ERROR : CAN bus load can not be brought under " + canBusLoadCeiling + "%.");
+				return false;
+			}
+			for (DataSource source : DataSource.values()) canDecimations[source.ordinal()] = canBusLoad.getDecimation(source);
+			System.out.println("CAN decimation applied to keep bus load under " + canBusLoadCeiling + "% :");
+			canBusLoad.print();
+			return true;
+		default:
+			System.out.println("WARNING : expected CAN bus load is above " + canBusLoadCeiling + "%, CAN FIFO will fill up.");
+			return true;
+		}
+	}
+
+	/**
+	 * Frame is skipped if CAN decimation of its source requires it. When CAN conflation is used,
+	 * frame overwrites newest values of its source. When CAN delta encoding is used, markers are
+	 * sent as deltas from previous frame of the source. Frames of unknown source are sent as they are,
+	 * through conflator when it is used so that CAN message writer is never shared between threads.
+	 */
+	@Override
+	public void send(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		if(source == null) {
+			monitor.recordFrame();
+			if(canConflator != null) canConflator.update(null, bytesBuffer);
+			else sendCANMessages(bytesBuffer, bytesBuffer.length);
+			return;
+		}
+		int decimation = canDecimations[source.ordinal()];
+		if(decimation > 1 && canFrameCounters[source.ordinal()]++%decimation != 0) return;
+		monitor.recordFrame();
+		byte[] v1Frame = getV1Frame(source, bytesBuffer);
+		if(canConflator != null) canConflator.update(source, v1Frame);
+		else sendCANMessages(source, v1Frame);
+	}
+
+	/**
+	 * @return V1 part of a V2 frame, copied into an array reused for next frames of the same source
+	 */
+	private byte[] getV1Frame(DataSource source, byte[] bytesBuffer) {
+		int length = wireFormat.getV1Length(source, bytesBuffer.length);
+		if(length == bytesBuffer.length) return bytesBuffer;
+		byte[] v1Frame = v1Frames[source.ordinal()];
+		if(v1Frame.length != length) {
+			v1Frame = new byte[length];
+			v1Frames[source.ordinal()] = v1Frame;
+		}
+		System.arraycopy(bytesBuffer, 0, v1Frame, 0, length);
+		return v1Frame;
+	}
+
+	/**
+	 * Send values to IXXAT CAN/USB bridge, delta encoded if CAN delta encoding is used.
+	 * @param source system that produced the frame
+	 * @param bytesBuffer values to send to the bridge : an array of bytes values
+	 */
+	private void sendCANMessages(DataSource source, byte[] bytesBuffer) {
+		if(canDeltaEncoder == null) {
+			sendCANMessages(bytesBuffer, bytesBuffer.length);
+			return;
+		}
+		int length = canDeltaEncoder.encode(source, bytesBuffer);
+		// Receivers may miss this frame : next one must not depend on it
+		if(!sendCANMessages(canDeltaEncoder.getMessages(), length)) canDeltaEncoder.resync(source);
+	}
+
+	/**
+	 * Send values to IXXAT CAN/USB bridge, 8 bytes per CAN message.
+	 * @param bytesBuffer values to send to the bridge : an array of bytes values
+	 * @param length number of bytes to send from buffer
+	 * @return true if values have been written now
+	 */
+	private boolean sendCANMessages(byte[] bytesBuffer, int length) {
+		try {
+			if(canSender.send(bytesBuffer, length)) return true;
+			if(canSender.getFifoPolicy() == CANSender.FifoPolicy.DROP_OLDEST) UDPIXXATDataStreamer.warningMessage = "WARNING : can message writer fifo full. Message delayed.";
+			else UDPIXXATDataStreamer.warningMessage = "ERROR : can message writer fifo full. Message not sent.";
+		} catch (Throwable e) {
+			monitor.recordSendError();
+			if(e instanceof UnsatisfiedLinkError) {
+				if(e.getMessage().equals("VciFormatErrorA") && canSender.getFreeCount() == 0) {
+					UDPIXXATDataStreamer.warningMessage = "WARNING : ADWin PRO CAN interface has never been opened !";
+				}
+			} else e.printStackTrace();
+		}
+		return false;
+	}
+
+	/**
+	 * Write CAN sender backlog frames that now fit in transmit FIFO (conflator is drained by its own thread).
+	 * Called when no frame is waiting, so that backlog does not wait for next frames.
+	 */
+	@Override
+	public void flush() {
+		try {
+			if(canConflator == null && canSender != null) canSender.flush();
+		} catch (Throwable e) {
+			monitor.recordSendError();
+			e.printStackTrace();
+		}
+	}
+
+	@Override
+	public TransportMonitor getMonitor() {
+		return monitor;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if(canConflator == null && canSender != null) canSender.drain(BACKLOG_DRAIN_TIMEOUT);
+		} catch (Throwable e) {
+			monitor.recordSendError();
+			e.printStackTrace();
+		}
+		try {
+			if(canConflator != null) {
+				canConflator.dispose();
+				canConflator.printCounters();
+			} else if(canSender != null) canSender.printCounters();
+			if(canDeltaEncoder != null) canDeltaEncoder.printCounters();
+			canControl.StopLine();
+			canControl.ResetLine();
+			canMessageWriter.Dispose();
+			canSocket.Dispose();
+			canControl.Dispose();
+			busAccessLayer.Dispose();
+			vciDevice.Dispose();
+			vciEnumDevices.Dispose();
+			vciDeviceManager.Dispose();
+			vciServer.Dispose();
+		} catch (Throwable e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,187 @@
+package udpixxatdatastreamer;
+
+import datastreamer.DataSource;
+import datastreamer.LatencyHistogram;
+
+/**
+ * In-memory transport : frames are recorded instead of being sent, so that throughput and
+ * correctness of the whole chain (producers, dispatcher, observers) can be checked at full speed
+ * without sockets nor CAN adapter.<br>
+ * First frames, up to capacity, are copied with their source, sequence number, acquisition time
+ * and send time ({@link System#nanoTime()}) into arrays allocated once (frames bytes array grows
+ * when needed). Next frames are only counted. Acquisition to send latency of every frame is recorded
+ * in a {@link LatencyHistogram}.<br>
+ * Frames are recorded by sending thread, any other thread may read recorded frames below
+ * {@link #getNbRecordedFrames()} without locking.
+ * @author fbuloup
+ */
+public class LoopbackTransport implements Transport {
+
+	public final static String loopbackToken = "-loopback";
+	public final static String loopbackCapacityToken = "-loopbackcapacity";
+
+	private final int capacity;
+	private byte[] bytes = new byte[0];
+	private int position;
+	private final int[] offsets;
+	private final int[] lengths;
+	private final DataSource[] sources;
+	private final int[] sequences;
+	private final long[] acquisitionTimes;
+	private final long[] sendTimes;
+	// Published after frame is copied
+	private volatile int nbRecordedFrames;
+	private volatile long nbFrames;
+	private volatile long nbFlushes;
+	private final LatencyHistogram latencyHistogram = new LatencyHistogram();
+
+	private final TransportMonitor monitor = new TransportMonitor();
+
+	/**
+	 * @param capacity number of frames recorded, next ones are only counted
+	 */
+	public LoopbackTransport(int capacity) {
+		this.capacity = capacity;
+		offsets = new int[capacity];
+		lengths = new int[capacity];
+		sources = new DataSource[capacity];
+		sequences = new int[capacity];
+		acquisitionTimes = new long[capacity];
+		sendTimes = new long[capacity];
+	}
+
+	@Override
+	public String getName() {
+		return "Loopback";
+	}
+
+	@Override
+	public void open() {
+		System.out.println("Loopback Streaming records up to " + capacity + " frames");
+	}
+
+	@Override
+	public void send(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		long sendTime = System.nanoTime();
+		monitor.recordFrame();
+		if(acquisitionTime > 0) latencyHistogram.record(sendTime - acquisitionTime);
+		nbFrames++;
+		int i = nbRecordedFrames;
+		if(i == capacity) return;
+		if(position + bytesBuffer.length > bytes.length) {
+			byte[] newBytes = new byte[Math.max(2*bytes.length, position + bytesBuffer.length)];
+			System.arraycopy(bytes, 0, newBytes, 0, position);
+			bytes = newBytes;
+		}
+		System.arraycopy(bytesBuffer, 0, bytes, position, bytesBuffer.length);
+		offsets[i] = position;
+		lengths[i] = bytesBuffer.length;
+		sources[i] = source;
+		sequences[i] = sequence;
+		acquisitionTimes[i] = acquisitionTime;
+		sendTimes[i] = sendTime;
+		position += bytesBuffer.length;
+		monitor.recordPacket();
+		nbRecordedFrames = i + 1;
+	}
+
+	@Override
+	public void flush() {
+		nbFlushes++;
+	}
+
+	@Override
+	public TransportMonitor getMonitor() {
+		return monitor;
+	}
+
+	@Override
+	public void close() {
+		flush();
+		print();
+	}
+
+	/**
+	 * @return number of frames sent to this transport, recorded or not
+	 */
+	public long getNbFrames() {
+		return nbFrames;
+	}
+
+	public int getNbRecordedFrames() {
+		return nbRecordedFrames;
+	}
+
+	public long getNbFlushes() {
+		return nbFlushes;
+	}
+
+	/**
+	 * @param index recorded frame index, from 0
+	 * @return copy of recorded frame
+	 */
+	public byte[] getFrame(int index) {
+		checkIndex(index);
+		byte[] frame = new byte[lengths[index]];
+		System.arraycopy(bytes, offsets[index], frame, 0, frame.length);
+		return frame;
+	}
+
+	/**
+	 * @return source of recorded frame, null if unknown
+	 */
+	public DataSource getSource(int index) {
+		checkIndex(index);
+		return sources[index];
+	}
+
+	public int getSequence(int index) {
+		checkIndex(index);
+		return sequences[index];
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when recorded frame was acquired, 0 if unknown
+	 */
+	public long getAcquisitionTime(int index) {
+		checkIndex(index);
+		return acquisitionTimes[index];
+	}
+
+	/**
+	 * @return {@link System#nanoTime()} when recorded frame was sent to this transport
+	 */
+	public long getSendTime(int index) {
+		checkIndex(index);
+		return sendTimes[index];
+	}
+
+	/**
+	 * @return acquisition to send latency of every frame whose acquisition time is known
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return latencyHistogram;
+	}
+
+	private void checkIndex(int index) {
+		if(index < 0 || index >= nbRecordedFrames) throw new IndexOutOfBoundsException("Frame " + index + " not recorded (" + nbRecordedFrames + " frames)");
+	}
+
+	public void print() {
+		System.out.println("Nb loopback frames : " + nbFrames + " - recorded : " + nbRecordedFrames + " (" + position + " bytes) - flushes : " + nbFlushes);
+		int[] nbFramesPerSource = new int[DataSource.values().length];
+		for (int i = 0; i < nbRecordedFrames; i++) {
+			if(sources[i] != null) nbFramesPerSource[sources[i].ordinal()]++;
+		}
+		for (DataSource source : DataSource.values()) {
+			if(nbFramesPerSource[source.ordinal()] > 0) System.out.println("Nb loopback frames of " + source + " : " + nbFramesPerSource[source.ordinal()]);
+		}
+		if(nbRecordedFrames > 1) {
+			double duration = (sendTimes[nbRecordedFrames - 1] - sendTimes[0])/1000000000.0;
+			if(duration > 0) System.out.println(String.format("Loopback recorded frames per second : %.1f", (nbRecordedFrames - 1)/duration));
+		}
+		if(latencyHistogram.getCount() > 0) System.out.println(String.format("Loopback acquisition to send latency (us) : p50 %.1f - p99 %.1f - max %.1f",
+				latencyHistogram.getValueAtPercentile(50)/1000.0, latencyHistogram.getValueAtPercentile(99)/1000.0, latencyHistogram.getMax()/1000.0));
+	}
+
+}
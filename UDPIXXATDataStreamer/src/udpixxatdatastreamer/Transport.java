@@ -0,0 +1,55 @@
+package udpixxatdatastreamer;
+
+import datastreamer.AsyncObserver;
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+
+/**
+ * Output of {@link UDPIXXATDataStreamer} : every frame given to the streamer is sent to each of its transports.<br>
+ * A transport is opened once before first frame and closed once after last frame. {@link #send(DataSource, int, long, byte[])}
+ * and {@link #flush()} are called by a single thread, {@link DataStreamer} dispatcher or {@link AsyncObserver} worker.
+ * A transport that also sends from its own thread (UDP coalescer, CAN conflator) serializes it internally.<br>
+ * Frames are given one by one. A transport may keep them and send them as a batch (one datagram, one CAN FIFO write) :
+ * {@link #flush()} is called when no frame is waiting, at most every millisecond, so that kept frames do not wait for next frames.<br>
+ * Frames are in {@link DataStreamer#getWireFormat()} layout : each transport converts them to what it sends.
+ * @author fbuloup
+ */
+public interface Transport {
+
+	/**
+	 * @return transport name, also its JMX MBean name
+	 */
+	public String getName();
+
+	/**
+	 * Allocate sockets, devices and buffers.
+	 * @throws Throwable if transport can not be used
+	 */
+	public void open() throws Throwable;
+
+	/**
+	 * Send a frame, or add it to current batch.
+	 * @param source system that produced the frame, null if unknown
+	 * @param sequence sequence number of the frame within its source
+	 * @param acquisitionTime {@link System#nanoTime()} when frame was acquired
+	 * @param bytesBuffer frame values, only valid during the call
+	 */
+	public void send(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer);
+
+	/**
+	 * Send kept frames that are due : batches whose window is over, frames kept while device was busy
+	 * and that now fit. Called when no frame is waiting, at most every millisecond.
+	 */
+	public void flush();
+
+	/**
+	 * @return live counters of this transport
+	 */
+	public TransportMonitor getMonitor();
+
+	/**
+	 * Send all kept frames, print counters and release resources.
+	 */
+	public void close();
+
+}
@@ -0,0 +1,81 @@
+package udpixxatdatastreamer;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import datastreamer.ThroughputCounter;
+
+/**
+ * Live counters of a transport, registered as MBean udpixxatdatastreamer:type=Transport,name=&lt;{@link Transport#getName()}&gt;.<br>
+ * Counters are striped, so that they can be incremented by dispatcher and transport threads
+ * without contention.
+ * @author fbuloup
+ */
+public final class TransportMonitor implements TransportMonitorMBean {
+
+	private final ThroughputCounter frames = new ThroughputCounter();
+	private final ThroughputCounter packets = new ThroughputCounter();
+	private final LongAdder sendErrors = new LongAdder();
+	private final LongAdder fifoFullEvents = new LongAdder();
+	private volatile IntSupplier queueDepth;
+
+	public void recordFrame() {
+		frames.increment();
+	}
+
+	public void recordPacket() {
+		packets.increment();
+	}
+
+	public void recordSendError() {
+		sendErrors.increment();
+	}
+
+	public void recordFifoFull() {
+		fifoFullEvents.increment();
+	}
+
+	/**
+	 * @param queueDepth current number of frames waiting in transport
+	 */
+	public void setQueueDepth(IntSupplier queueDepth) {
+		this.queueDepth = queueDepth;
+	}
+
+	@Override
+	public long getTotalFrames() {
+		return frames.get();
+	}
+
+	@Override
+	public double getFramesPerSecond() {
+		return frames.getRate();
+	}
+
+	@Override
+	public long getTotalPackets() {
+		return packets.get();
+	}
+
+	@Override
+	public double getPacketsPerSecond() {
+		return packets.getRate();
+	}
+
+	@Override
+	public long getSendErrors() {
+		return sendErrors.sum();
+	}
+
+	@Override
+	public long getFifoFullEvents() {
+		return fifoFullEvents.sum();
+	}
+
+	@Override
+	public int getQueueDepth() {
+		IntSupplier queueDepth = this.queueDepth;
+		return (queueDepth == null) ? 0 : queueDepth.getAsInt();
+	}
+
+}
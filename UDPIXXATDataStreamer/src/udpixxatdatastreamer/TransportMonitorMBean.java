@@ -0,0 +1,36 @@
+package udpixxatdatastreamer;
+
+/**
+ * Live counters of a transport, see {@link TransportMonitor}.
+ * @author fbuloup
+ */
+public interface TransportMonitorMBean {
+
+	/**
+	 * @return frames given to transport
+	 */
+	long getTotalFrames();
+
+	double getFramesPerSecond();
+
+	/**
+	 * @return UDP datagrams or CAN messages written
+	 */
+	long getTotalPackets();
+
+	double getPacketsPerSecond();
+
+	long getSendErrors();
+
+	/**
+	 * @return frames that did not fit in CAN transmit FIFO (dropped, delayed or waited for), 
+	 * or waits of CAN conflator for FIFO room
+	 */
+	long getFifoFullEvents();
+
+	/**
+	 * @return frames (UDP coalescer, CAN backlog) or markers (CAN conflator) waiting to be sent
+	 */
+	int getQueueDepth();
+
+}
@@ -3,26 +3,13 @@ package udpixxatdatastreamer;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.InetAddress;
-import java.net.SocketException;
-import java.net.UnknownHostException;
+import java.util.ArrayList;
 
+import datastreamer.DataSource;
 import datastreamer.DataStreamer;
-import de.ixxat.vci3.IVciDevice;
-import de.ixxat.vci3.IVciDeviceManager;
-import de.ixxat.vci3.IVciEnumDevice;
-import de.ixxat.vci3.VciDeviceInfo;
-import de.ixxat.vci3.VciServer;
-import de.ixxat.vci3.bal.IBalObject;
-import de.ixxat.vci3.bal.IBalResource;
-import de.ixxat.vci3.bal.can.CanBitrate;
-import de.ixxat.vci3.bal.can.CanMessage;
-import de.ixxat.vci3.bal.can.ICanChannel;
-import de.ixxat.vci3.bal.can.ICanControl;
-import de.ixxat.vci3.bal.can.ICanMessageWriter;
-import de.ixxat.vci3.bal.can.ICanSocket;
+import datastreamer.Monitoring;
+import datastreamer.WireFormat;
+import session.SessionRecorder;
 
 
 /**
@@ -33,11 +20,19 @@ import de.ixxat.vci3.bal.can.ICanSocket;
  */
 public class UDPIXXATDataStreamer implements DataObserver {
 	
-	private static int freeCount;
 	public static String warningMessage;
 	
 	// If true => use IXXAT USB
 	public final static String ixxatstreamerToken = "-ixxatstreamer";
+	public final static String canTransmitFifoSizeToken = "-cantransmitfifosize";
+	public final static String canFifoPolicyToken = "-canfifopolicy";
+	public final static String canWaitTimeoutToken = "-canwaittimeout";
+	public final static String canBacklogCapacityToken = "-canbacklogcapacity";
+	public final static String canConflationToken = "-canconflation";
+	public final static String canDeltaToken = "-candelta";
+	public final static String canDeltaKeyFrameIntervalToken = "-candeltakeyframeinterval";
+	public final static String canBusLoadCeilingToken = "-canbusloadceiling";
+	public final static String canBusLoadPolicyToken = "-canbusloadpolicy";
 	
 	/*
 	 * Parameters for UPD CAN/Ethernet bridge
@@ -46,11 +41,15 @@ public class UDPIXXATDataStreamer implements DataObserver {
 	public final static String udpClientIPToken = "-udpclientip";
 	public final static String udpSourcePortToken = "-udpsourceport";
 	public final static String udpDestinationPortToken = "-udpdestinationport";
-	private static String udpClientIP = "localhost"; // IP of CAN/Ethernet Bridge
-	private static int udpSourcePort = 15000; // source port of UPD (local)
-	private static int udpDestinationPort = Integer.MIN_VALUE; // destination port UPD (CAN/Ethernet Bridge)
-	private static DatagramSocket dgSocket;
-	private static InetAddress clientIP;
+	public final static String udpUseNIOToken = "-udpusenio";
+	public final static String udpCoalescingWindowToken = "-udpcoalescingwindow";
+	public final static String udpCoalescingMaxSizeToken = "-udpcoalescingmaxsize";
+	public final static String udpStreamerToken = "-udpstreamer";
+	public final static String udpDestinationsToken = "-udpdestinations";
+	public final static String udpMulticastGroupToken = "-udpmulticastgroup";
+	public final static String udpMulticastTTLToken = "-udpmulticastttl";
+	public final static String udpCoordinatesToken = "-udpcoordinates";
+	private static boolean udpstreamer = true;
 	
 	public final static String useCodaToken = "-usecoda";
 	public final static String useXSensToken = "-usexsens";
@@ -62,17 +61,62 @@ public class UDPIXXATDataStreamer implements DataObserver {
 	public static boolean useXSens = false, useXSensSpecified = false;
 	public static boolean useTimeStamp = false, useTimeStampSpecified = false;
 	public static boolean useOptitrack = false, useOptitrackSpecified = false;
+	public static boolean useReplay = false;
 	
 	/**
 	 * Command line arguments : it may or not contain following parameters.<br><br>
 	 * <ul>
 	 * <li>-ixxatstreamer : default false. If false, will use UDP streamer. Valid values are true or false</li>
+	 * <li>-cantransmitfifosize : When IXXAT is used : default 256. Transmit FIFO size in CAN messages, 
+	 * it must hold all messages of a frame (one message per 8 bytes)</li>
+	 * <li>-canfifopolicy : When IXXAT is used : default dropframe. What to do when a frame does not fit in transmit FIFO : 
+	 * wait (up to canwaittimeout, then drop), dropframe (whole frame is dropped, never partially sent) 
+	 * or dropoldest (frame is kept in a backlog sent first when FIFO has room, oldest backlog frame is dropped when full)</li>
+	 * <li>-canwaittimeout : When IXXAT is used with wait policy : default 2. Time out in milliseconds</li>
+	 * <li>-canbacklogcapacity : When IXXAT is used with dropoldest policy : default 64. Number of frames in backlog</li>
+	 * <li>-canconflation : When IXXAT is used : default false. If true, only newest value of each marker (each 8 bytes message
+	 * of each source) is kept and sent when bus has room, FIFO policy is then not used. When bus is saturated, old
+	 * positions are overwritten instead of being queued or dropped</li>
+	 * <li>-candelta : When IXXAT is used without conflation : default false. If true, markers that moved little since previous
+	 * frame are sent as deltas, two markers per CAN message, so that about twice as many markers fit on the bus.
+	 * Whole frames are sent as usual every candeltakeyframeinterval frames and after a frame could not be written</li>
+	 * <li>-candeltakeyframeinterval : When CAN delta encoding is used : default 100. Number of frames between two whole frames
+	 * of a source, receivers resynchronize on them after a loss</li>
+	 * <li>-canbusloadceiling : When IXXAT is used : default 80. Maximum expected bus load in percent of 1 Mbit/s. Load is 
+	 * estimated before streaming starts, from frame rates (coda frame rate and decimation, xsens and time stamp sample frequencies, 
+	 * optitrack frame rate) and number of messages per frame, with worst case bit stuffing. With delta encoding, frames are counted 
+	 * whole : actual load is lower</li>
+	 * <li>-canbusloadpolicy : When IXXAT is used : default warn. What to do when expected load is above ceiling : warn and stream, 
+	 * refuse to stream, or decimate (only send to CAN one frame out of n of the most loading sources, UDP and recording still 
+	 * get every frame)</li>
+	 * <li>-udpstreamer : default true if ixxatstreamer is false, false otherwise. Use UDP streamer, 
+	 * so that frames can be sent both to IXXAT CAN/USB bridge and UDP destinations. Valid values are true or false</li>
 	 * <li>-updclientip : When UDP is used : ip Of CAN/Ethernet bridge. defaut localhost</li>                
 	 * <li>-udpsourceport : When UDP is used : source port of CAN/Ethernet bridge. Default is 15000</li>        
 	 * <li>-udpdestinationport :  When UDP is used : destination port of CAN/Ethernet bridge. Default is udpsourceport</li>
+	 * <li>-udpusenio : When UDP is used : default false. If true, frames are sent through a connected DatagramChannel
+	 * and a reused direct buffer, so that no allocation is done per frame. Valid values are true or false</li>
+	 * <li>-udpcoalescingwindow : When UDP is used : default -1 (no coalescing). Window in microseconds during which 
+	 * frames are packed into one datagram, each frame being prefixed by its source on one byte and its length on two bytes.
+	 * 0 sends each prefixed frame immediately.</li>
+	 * <li>-udpcoalescingmaxsize : When UDP is used with coalescing : default 1472 (Ethernet MTU). Datagram is sent before
+	 * it exceeds this size.</li>
+	 * <li>-udpdestinations : When UDP is used : default none. Comma separated list of ip:port destinations that receive
+	 * the same datagrams as udpclientip:udpdestinationport. Each datagram is encoded once and sent to every destination.</li>
+	 * <li>-udpmulticastgroup : When UDP is used : default none. Multicast group ip:port datagrams are also sent to</li>
+	 * <li>-udpmulticastttl : When UDP is used with multicast group : default 1 (local network only)</li>
+	 * <li>-wireformat : default v1. v1 sends frames in CAN compatible layout. v2 sends each UDP frame with a header
+	 * (version, source, 32-bit sequence number, acquisition time in nanoseconds since epoch) and markers positions in
+	 * float32 millimeters or int32 micrometers, so that positions beyond 3.27 m do not overflow. CAN is always sent v1 layout</li>
+	 * <li>-udpcoordinates : When UDP is used with wire format v2 : default float. float (float32 millimeters) or micrometer (int32)</li>
+	 * <li>-loopback : default false. If true, frames are also given to an in-memory transport that records them with their 
+	 * source, sequence number, acquisition and send times, so that the whole chain can be checked at full speed without 
+	 * network nor CAN adapter (use -udpstreamer false to stream to loopback only). Its counters are printed at the end of streaming</li>
+	 * <li>-loopbackcapacity : When loopback is used : default 65536. Number of frames recorded, next ones are only counted</li>
 	 * </ul>
 	 * For instance :
-	 * -ixxatstreamer false -udpclientip 192.168.0.30 -udpsourceport 15000 -udpdestinationport 15001
+	 * -ixxatstreamer false -udpclientip 192.168.0.30 -udpsourceport 15000 -udpdestinationport 15001 -udpusenio true
+	 * -udpcoalescingwindow 1000 -udpdestinations 192.168.0.31:15001,192.168.0.32:16000 -udpmulticastgroup 239.255.42.100:15001
 	 * <br><br>
 	 * For codamotion system :
 	 * <ul>
@@ -87,6 +131,9 @@ public class UDPIXXATDataStreamer implements DataObserver {
 	 * <li>-simulmode : default false. Use or not simulation mode (CodaServerSimulate).</li>
 	 * <li>-doalignment : default true. Do you want to do an alignment ?</li>
 	 * <li>-displaymarkersinvisibility : default false. Do you want to display markers invisibility ?</li>
+	 * <li>-codasimulator : default false. Use in-process Coda simulator instead of CX1 unit, for load testing without hardware</li>
+	 * <li>-codasimulatordropoutrate : default 0. With Coda simulator, probability (0 to 1) that a marker is invisible during a dropout</li>
+	 * <li>-codasimulatordropoutlength : default 10. With Coda simulator, length in frames of a marker dropout</li>
 	 * </ul>
 	 * For instance :
 	 * -codaServerIP 192.168.0.3 -frameRate 800 -decimation 1 -nbMarkers 1 -firstMarkerIndex 1 
@@ -105,9 +152,11 @@ public class UDPIXXATDataStreamer implements DataObserver {
 	 * <ul>
 	 * <li>-usetimestamp : default false. Valid values are true or false</li>    
 	 * <li>-timestampsamplefrequency : default 1. Valid values are integer</li> 
+	 * <li>-timestampresolution : default second. Valid values are second (3 bytes hours, minutes, seconds frame), 
+	 * millisecond or microsecond (8 bytes frame, with fraction of second and tick number)</li> 
 	 * </ul>
 	 * For instance :
-	 * -usetimestamp true
+	 * -usetimestamp true -timestampsamplefrequency 1000 -timestampresolution microsecond
 	 *  <br>
 	 *  <br>
 	 * For Optitrack :
@@ -122,6 +171,63 @@ public class UDPIXXATDataStreamer implements DataObserver {
 	 * For instance :
 	 * -useoptitrack true -usemulticast true -optitracknbunlabeledmarkers 3 -optitrackfirstmarkerindex 4
 	 *  <br><br>
+	 * Timing statistics (interval between frames, grab-to-send latency and send duration) are always
+	 * recorded for each source, printed at the end of streaming and with displayed values :
+	 * <ul>
+	 * <li>-statisticsfile : default none. File where statistics are appended periodically</li>
+	 * <li>-statisticsperiod : default 10. Period in seconds of statistics file writing</li>
+	 * </ul>
+	 * For instance :
+	 * -statisticsfile statistics.txt -statisticsperiod 60
+	 *  <br><br>
+	 * Session recording (every frame sent, with its source, sequence number and time) :
+	 * <ul>
+	 * <li>-recordsession : default none. Session file name, segment index is appended to it</li>
+	 * <li>-recordsegmentsize : default 64. Size of each segment file in MB</li>
+	 * </ul>
+	 * For instance :
+	 * -recordsession experiment01 -recordsegmentsize 256
+	 *  <br><br>
+	 * Observers notification, so that a slow observer (CAN write, recorder...) never delays acquisition :
+	 * <ul>
+	 * <li>-asyncobservers : default false. If true, each observer is notified by its own thread from a bounded,
+	 * pre-allocated queue</li>
+	 * <li>-observerqueuecapacity : default 1024. Number of frames queued for each asynchronous observer</li>
+	 * <li>-observeroverflowpolicy : default dropoldest. When a queue is full : block (acquisition waits), dropnewest or
+	 * dropoldest. Dropped frames are counted and printed at the end of streaming</li>
+	 * </ul>
+	 * For instance :
+	 * -asyncobservers true -observeroverflowpolicy dropnewest
+	 *  <br><br>
+	 * Scheduling : each system waits for its next expected sample (from frame rate and decimation, 
+	 * xsens or time stamp sample frequency), and notification waits for next frame :
+	 * <ul>
+	 * <li>-waitstrategy : default park. spin (lowest latency, one busy core per system), yield (spin then yield, 
+	 * cores are shared with other ready threads) or park (sleep until shortly before next sample, almost no CPU, 
+	 * latency depends on OS timer resolution)</li>
+	 * <li>-waitmargin : default 200. Time in microseconds before expected sample when waiting ends and polling starts</li>
+	 * </ul>
+	 * For instance :
+	 * -waitstrategy yield -waitmargin 500
+	 *  <br><br>
+	 * Live counters are exposed as JMX MBeans, to watch a long session with JConsole or VisualVM :
+	 * <ul>
+	 * <li>udpixxatdatastreamer:type=Source,name=&lt;CODA, XSENS, TIME_STAMP, OPTITRACK&gt; : total frames, frames per second, 
+	 * sequence gaps, time outs, queue depth and send latency percentiles. Device frame numbers gaps, duplicates, late frames 
+	 * and gap lengths, and parser errors, tell whether lost samples come from the device, the parser or the streamer</li>
+	 * <li>udpixxatdatastreamer:type=Transport,name=&lt;UDP, CAN, Loopback&gt; : total frames and packets, rates, send errors, 
+	 * CAN FIFO full events and queue depth</li>
+	 * </ul>
+	 *  <br>
+	 * Replay of a recorded session, alone or with other systems (frames keep their recorded source) :
+	 * <ul>
+	 * <li>-replaysession : default none. Session file name given to recorder</li>
+	 * <li>-replayspeed : default 1. 1 replays at original timing, N is N times faster, 0 is as fast as possible
+	 * (maximum throughput of the send path)</li>
+	 * </ul>
+	 * For instance :
+	 * -replaysession experiment01 -replayspeed 0
+	 *  <br><br>
 	 * @param params list of parameters configuration. See above.
 	 */
 	public static void main(String[] params) {
@@ -150,13 +256,17 @@ public class UDPIXXATDataStreamer implements DataObserver {
 				useOptitrackSpecified = true;
 			}
 			
+			if(params[i].toLowerCase().equalsIgnoreCase(DataStreamer.replaySessionToken)) {
+				useReplay = true;
+			}
+			
 			if(params[i].toLowerCase().equalsIgnoreCase(DataStreamer.doAlignmentToken)) {
 				doAlignment = Boolean.parseBoolean(params[i+1]);
 			}
 			
 		}
 		
-		if(!useCodamotion && !useXSens && !useTimeStamp && !useOptitrack) {
+		if(!useCodamotion && !useXSens && !useTimeStamp && !useOptitrack && !useReplay) {
 			System.out.println("Nothing to stream ! Bye bye !");
 			return;
 		}
@@ -193,8 +303,25 @@ public class UDPIXXATDataStreamer implements DataObserver {
 			
 			DataStreamer dataStreamer = new DataStreamer(params);
 			UDPIXXATDataStreamer canBridgeStreamer = new UDPIXXATDataStreamer(params);
+			if(!canBridgeStreamer.checkCANBusLoad(dataStreamer)) {
+				if(useCodamotion) dataStreamer.shutDown();
+				canBridgeStreamer.dispose();
+				return;
+			}
 			dataStreamer.addObserver(canBridgeStreamer);
 			
+			SessionRecorder sessionRecorder = null;
+			String sessionFileName = null;
+			long segmentSize = 64;
+			for (int i = 0; i < params.length; i++) {
+				if(params[i].toLowerCase().equalsIgnoreCase(SessionRecorder.recordSessionToken)) sessionFileName = params[i+1];
+				if(params[i].toLowerCase().equalsIgnoreCase(SessionRecorder.recordSegmentSizeToken)) segmentSize = Long.parseLong(params[i+1]);
+			}
+			if(sessionFileName != null) {
+				sessionRecorder = new SessionRecorder(sessionFileName, segmentSize*1024*1024, dataStreamer.getFrameLengths());
+				dataStreamer.addObserver(sessionRecorder);
+			}
+			
 			if(useCodamotion) {
 				if(doAlignment) {
 					System.out.println("Do you want to do an alignment (y/Y) ? ");
@@ -243,6 +370,7 @@ public class UDPIXXATDataStreamer implements DataObserver {
 				}
 				if(value.equalsIgnoreCase("D")) {
 					dataStreamer.setDisplayValues(!dataStreamer.isValuesDisplayed());
+					if(!dataStreamer.isValuesDisplayed()) dataStreamer.printStatistics(System.out);
 				}
 				if(value.equalsIgnoreCase("S")) {
 					dataStreamer.interrupt();
@@ -250,7 +378,13 @@ public class UDPIXXATDataStreamer implements DataObserver {
 				}
 			}
 			
+			try {
+				dataStreamer.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
 			canBridgeStreamer.dispose();
+			if(sessionRecorder != null) sessionRecorder.dispose();
 			
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -315,142 +449,105 @@ public class UDPIXXATDataStreamer implements DataObserver {
 		}*/
 	}
 
-	private VciServer vciServer;
-	private IVciDeviceManager vciDeviceManager;
-	private IVciEnumDevice vciEnumDevices;
-	private VciDeviceInfo vciDeviceInfo;
-	private IVciDevice vciDevice;
-	private IBalObject busAccessLayer;
-	private ICanControl canControl;
-	private ICanSocket canSocket;
-	private ICanChannel canChannel;
-	private ICanMessageWriter canMessageWriter;
-	private CanMessage canMessage;
+	// Every frame is sent to each transport
+	private final ArrayList<Transport> transports = new ArrayList<Transport>();
+	private IXXATTransport ixxatTransport;
 	
 	/**
 	 * See {@link #main(String[])} for details.
 	 * @param args list of parameters configuration.
 	 */
 	public UDPIXXATDataStreamer(String[] args) {
-		if(!ixxatstreamer) {
-			try {
-				for (int i = 0; i < args.length; i++) {
-					if(args[i].toLowerCase().equalsIgnoreCase(udpClientIPToken)) udpClientIP = args[i+1];
-					if(args[i].toLowerCase().equalsIgnoreCase(udpSourcePortToken)) udpSourcePort = Integer.parseInt(args[i+1]);
-					if(args[i].toLowerCase().equalsIgnoreCase(udpDestinationPortToken)) udpDestinationPort = Integer.parseInt(args[i+1]);
-				}
-				if(udpDestinationPort == Integer.MIN_VALUE) udpDestinationPort = udpSourcePort;
-				dgSocket = new DatagramSocket(udpSourcePort);
-				clientIP = InetAddress.getByName(udpClientIP);
-				System.out.println("UDP Streaming configured to client IP " + udpClientIP + " from port " + udpSourcePort + " to port " + udpDestinationPort);
-			} catch (SocketException e) {
-				e.printStackTrace();
-			} catch (UnknownHostException e) {
-				e.printStackTrace();
-			}
-		} else {
-			
-			try {
-				vciServer = new VciServer();
-				vciDeviceManager = vciServer.GetDeviceManager();
-				vciEnumDevices = vciDeviceManager.EnumDevices();
-				vciDeviceInfo = vciEnumDevices.Next();
-				vciDevice = vciDeviceManager.OpenDevice(vciDeviceInfo.m_qwVciObjectId);
-				busAccessLayer = vciDevice.OpenBusAccessLayer();
-				canControl = (ICanControl)busAccessLayer.OpenSocket(0, IBalResource.IID_ICanControl);
-				canSocket = (ICanSocket)busAccessLayer.OpenSocket(0, IBalResource.IID_ICanSocket);
-				canChannel = canSocket.CreateChannel(false);
-				canChannel.Initialize((short)1, (short)1);
-				canChannel.Activate();
-				canMessageWriter = canChannel.GetMessageWriter();
-				canControl.InitLine(ICanControl.CAN_OPMODE_STANDARD, new CanBitrate(CanBitrate.Cia1000KBit));
-				canControl.SetAccFilter(ICanControl.CAN_FILTER_STD, 2, 0x0FFF);
-				canControl.StartLine();
-				canMessage = new CanMessage();
-				canMessage.m_dwIdentifier = 2;
-				canMessage.m_dwTimestamp = 0;
-				canMessage.m_fExtendedFrameFormat = false;
-				canMessage.m_fRemoteTransmissionRequest = false;
-				canMessage.m_fSelfReception = false;
-				canMessage.m_bDataLength = (byte)8;
-			} catch (Throwable e) {
-				e.printStackTrace();
-			}
-			
+		udpstreamer = !ixxatstreamer;
+		WireFormat wireFormat = WireFormat.V1;
+		boolean loopback = false;
+		int loopbackCapacity = 65536;
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].toLowerCase().equalsIgnoreCase(udpStreamerToken)) udpstreamer = Boolean.parseBoolean(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(DataStreamer.wireFormatToken)) wireFormat = WireFormat.parse(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(LoopbackTransport.loopbackToken)) loopback = Boolean.parseBoolean(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(LoopbackTransport.loopbackCapacityToken)) loopbackCapacity = Integer.parseInt(args[i+1]);
 		}
-		
+		if(udpstreamer) addTransport(new UDPTransport(args, wireFormat));
+		if(ixxatstreamer) {
+			IXXATTransport transport = new IXXATTransport(args, wireFormat);
+			if(addTransport(transport)) ixxatTransport = transport;
+		}
+		if(loopback) addTransport(new LoopbackTransport(loopbackCapacity));
+	}
+	
+	/**
+	 * Open a transport, then send it every next frame. Its counters are registered as
+	 * MBean udpixxatdatastreamer:type=Transport,name=&lt;{@link Transport#getName()}&gt;.
+	 * Must be called before streaming starts.
+	 * @param transport transport to add
+	 * @return false if transport could not be opened, it is then not used
+	 */
+	public boolean addTransport(Transport transport) {
+		try {
+			transport.open();
+		} catch (Throwable e) {
+			e.printStackTrace();
+			return false;
+		}
+		transports.add(transport);
+		Monitoring.register(transport.getMonitor(), "Transport", transport.getName());
+		return true;
+	}
+
+	/**
+	 * Estimate CAN bus load of configured sources and apply CAN bus load policy if it is above ceiling.
+	 * Must be called before streaming starts.
+	 * @param dataStreamer configured data streamer
+	 * @return false if streaming is refused
+	 */
+	public boolean checkCANBusLoad(DataStreamer dataStreamer) {
+		if(ixxatTransport == null) return true;
+		return ixxatTransport.checkBusLoad(dataStreamer);
+	}
+
+	/**
+	 * Let transports send frames they kept, see {@link Transport#flush()}.
+	 */
+	@Override
+	public void flush() {
+		for (int i = 0; i < transports.size(); i++) transports.get(i).flush();
 	}
 
 	public void dispose() {
-		if(ixxatstreamer) {
-			try {
-				canControl.StopLine();
-				canControl.ResetLine();
-				canMessageWriter.Dispose();
-				canSocket.Dispose();
-				canControl.Dispose();
-				busAccessLayer.Dispose();
-				vciDevice.Dispose();
-				vciEnumDevices.Dispose();
-				vciDeviceManager.Dispose();
-				vciServer.Dispose();
-			} catch (Throwable e) {
-				e.printStackTrace();
-			}
-		}
-		
+		for (Transport transport : transports) transport.close();
 	}
 	
 	/**
-	 * Method called when new values are available. It sends these values to any UDP client
-	 * or to IXXAT CAN/USB bridge.
+	 * See {@link #update(DataSource, int, long, byte[])}, sequence number and acquisition time being unknown (0).
+	 * @param source system that produced the frame
 	 * @param bytesBuffer values to send to the bridge : an array of bytes values
 	 */
-	public void update(byte[] bytesBuffer) {
+	@Override
+	public void update(DataSource source, byte[] bytesBuffer) {
+		update(source, 0, 0, bytesBuffer);
+	}
+	
+	/**
+	 * Method called when new values are available. It sends these values to each transport
+	 * (UDP clients, IXXAT CAN/USB bridge, loopback...).
+	 * @param source system that produced the frame
+	 * @param sequence sequence number of the frame within its source
+	 * @param acquisitionTime {@link System#nanoTime()} when frame was acquired
+	 * @param bytesBuffer frame values
+	 */
+	@Override
+	public void update(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
 		warningMessage = "";
-		if(!ixxatstreamer) {
-			try {
-				DatagramPacket dgPacket = new DatagramPacket(bytesBuffer, bytesBuffer.length, clientIP, udpDestinationPort);
-				dgSocket.send(dgPacket);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		} else {
-			try {
-				byte[] message = new byte[] {0, 0, 0, 0, 0, 0, 0, 0};
-				freeCount = canMessageWriter.GetFreeCount();
-				if(bytesBuffer.length >= 8) {
-					int n = 0;
-					boolean writeMessage = true;
-					while(writeMessage) {
-						System.arraycopy(bytesBuffer, n, message, 0, 8);
-						canMessage.m_abData = message;
-						canMessageWriter.WriteMessage(canMessage);
-						n += 8;
-						writeMessage = n < bytesBuffer.length;
-					}
-				} else {
-					if(canMessageWriter.GetFillCount() < canMessageWriter.GetCapacity()) {
-						System.arraycopy(bytesBuffer, 0, message, 0, bytesBuffer.length);
-						canMessage.m_abData = message;
-						canMessageWriter.WriteMessage(canMessage);
-					} else {
-						warningMessage = "ERROR : can message writer fifo full. Message not sent.";
-						System.out.println("Fifo buffer filled : " + canMessageWriter.GetFillCount());
-						System.out.println("Fifo buffer free : " + canMessageWriter.GetFreeCount());
-						System.out.println("Fifo capacity : " + canMessageWriter.GetCapacity());
-					}
-					
-				}
-			} catch (Throwable e) {
-				if(e instanceof UnsatisfiedLinkError) {
-					if(e.getMessage().equals("VciFormatErrorA") && freeCount == 0) {
-						warningMessage = "WARNING : ADWin PRO CAN interface has never been opened !";
-					}
-				} else e.printStackTrace();
-			}
-		}
-		
+		for (int i = 0; i < transports.size(); i++) transports.get(i).send(source, sequence, acquisitionTime, bytesBuffer);
+	}
+	
+	/**
+	 * Method called when new values of unknown source are available. They are sent as they are to each transport.
+	 * @param bytesBuffer values to send to the bridge : an array of bytes values
+	 */
+	public void update(byte[] bytesBuffer) {
+		update(null, 0, 0, bytesBuffer);
 	}
 
 }
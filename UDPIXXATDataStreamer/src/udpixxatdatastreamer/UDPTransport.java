@@ -0,0 +1,232 @@
+package udpixxatdatastreamer;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.function.IntSupplier;
+
+import datastreamer.DataSource;
+import datastreamer.WireFormat;
+
+/**
+ * Sends frames to CAN/Ethernet bridge and other UDP clients (see {@link UDPIXXATDataStreamer#main(String[])}
+ * for parameters) : one datagram per frame, or frames coalesced by {@link FramesCoalescer}.
+ * With {@link WireFormat#V2}, frames are encoded by {@link WireFormatV2Encoder}.
+ * @author fbuloup
+ */
+class UDPTransport implements Transport {
+
+	private final static int MAX_DATAGRAM_SIZE = 65507;
+	// Minimum time between two send failure messages
+	private final static long SEND_ERROR_LOG_PERIOD = 1000000000L;
+
+	private String udpClientIP = "localhost"; // IP of CAN/Ethernet Bridge
+	private int udpSourcePort = 15000; // source port of UPD (local)
+	private int udpDestinationPort = Integer.MIN_VALUE; // destination port UPD (CAN/Ethernet Bridge)
+	private String udpDestinations;
+	private String udpMulticastGroup;
+	private int udpMulticastTTL = 1;
+	private DatagramSocket dgSocket;
+	// NIO send mode : connected channel and reused direct buffer, no allocation per frame
+	private boolean udpUseNIO = false;
+	private DatagramChannel dgChannel;
+	private ByteBuffer sendByteBuffer;
+	// Frames coalescing : window in microseconds, -1 means one datagram per frame
+	private int udpCoalescingWindow = -1;
+	private int udpCoalescingMaxSize = 1472;
+	private FramesCoalescer framesCoalescer;
+	// Fan-out : every datagram is encoded once and sent to each destination
+	private InetSocketAddress[] destinations;
+	private DatagramPacket[] dgPackets;
+	private WireFormatV2Encoder wireFormatV2Encoder;
+	// Send failures not yet printed, and when last failure message was printed
+	private long nbUnloggedSendErrors;
+	private long lastSendErrorLogTime;
+
+	private final TransportMonitor monitor = new TransportMonitor();
+
+	/**
+	 * @param args command line arguments
+	 * @param wireFormat layout of frames
+	 */
+	UDPTransport(String[] args, WireFormat wireFormat) {
+		WireFormatV2Encoder.Coordinates udpCoordinates = WireFormatV2Encoder.Coordinates.FLOAT;
+		for (int i = 0; i < args.length; i++) {
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpClientIPToken)) udpClientIP = args[i+1];
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpSourcePortToken)) udpSourcePort = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpDestinationPortToken)) udpDestinationPort = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpUseNIOToken)) udpUseNIO = Boolean.parseBoolean(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpCoalescingWindowToken)) udpCoalescingWindow = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpCoalescingMaxSizeToken)) udpCoalescingMaxSize = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpDestinationsToken)) udpDestinations = args[i+1];
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpMulticastGroupToken)) udpMulticastGroup = args[i+1];
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpMulticastTTLToken)) udpMulticastTTL = Integer.parseInt(args[i+1]);
+			if(args[i].toLowerCase().equalsIgnoreCase(UDPIXXATDataStreamer.udpCoordinatesToken)) udpCoordinates = WireFormatV2Encoder.Coordinates.parse(args[i+1]);
+		}
+		if(udpDestinationPort == Integer.MIN_VALUE) udpDestinationPort = udpSourcePort;
+		if(wireFormat == WireFormat.V2) {
+			wireFormatV2Encoder = new WireFormatV2Encoder(udpCoordinates);
+			System.out.println("UDP Streaming uses wire format v2 with " + udpCoordinates + " coordinates");
+		}
+	}
+
+	@Override
+	public String getName() {
+		return "UDP";
+	}
+
+	@Override
+	public void open() throws IOException {
+		InetAddress clientIP = InetAddress.getByName(udpClientIP);
+		ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+		addresses.add(new InetSocketAddress(clientIP, udpDestinationPort));
+		if(udpDestinations != null) {
+			for (String udpDestination : udpDestinations.split(",")) addresses.add(parseAddress(udpDestination));
+		}
+		if(udpMulticastGroup != null) addresses.add(parseAddress(udpMulticastGroup));
+		destinations = addresses.toArray(new InetSocketAddress[addresses.size()]);
+		if(udpUseNIO) {
+			dgChannel = DatagramChannel.open(StandardProtocolFamily.INET);
+			dgChannel.bind(new InetSocketAddress(udpSourcePort));
+			if(udpMulticastGroup != null) dgChannel.setOption(StandardSocketOptions.IP_MULTICAST_TTL, udpMulticastTTL);
+			// A single destination is connected, several ones are given to each send
+			if(destinations.length == 1) dgChannel.connect(destinations[0]);
+			sendByteBuffer = ByteBuffer.allocateDirect(MAX_DATAGRAM_SIZE);
+		} else {
+			dgSocket = new DatagramSocket(udpSourcePort);
+			if(udpMulticastGroup != null) dgSocket.setOption(StandardSocketOptions.IP_MULTICAST_TTL, udpMulticastTTL);
+			dgPackets = new DatagramPacket[destinations.length];
+			for (int i = 0; i < destinations.length; i++) dgPackets[i] = new DatagramPacket(new byte[0], 0, destinations[i]);
+		}
+		System.out.println("UDP Streaming configured to client IP " + udpClientIP + " from port " + udpSourcePort + " to port " + udpDestinationPort);
+		for (int i = 1; i < destinations.length; i++) System.out.println("UDP Streaming also sends to " + destinations[i].getAddress().getHostAddress() + ":" + destinations[i].getPort());
+		if(udpUseNIO) System.out.println("UDP Streaming uses NIO datagram channel");
+		if(udpCoalescingWindow >= 0) {
+			framesCoalescer = new FramesCoalescer(this, udpCoalescingWindow, udpCoalescingMaxSize);
+			System.out.println("UDP Streaming coalesces frames within " + udpCoalescingWindow + " us up to " + udpCoalescingMaxSize + " bytes");
+			monitor.setQueueDepth(new IntSupplier() {
+				public int getAsInt() {
+					return framesCoalescer.getNbPendingFrames();
+				}
+			});
+		}
+	}
+
+	/**
+	 * @param address ip:port
+	 * @return resolved socket address
+	 * @throws UnknownHostException if ip cannot be resolved
+	 */
+	private static InetSocketAddress parseAddress(String address) throws UnknownHostException {
+		int i = address.lastIndexOf(':');
+		return new InetSocketAddress(InetAddress.getByName(address.substring(0, i).trim()), Integer.parseInt(address.substring(i + 1).trim()));
+	}
+
+	/**
+	 * When frames coalescing is used, frame is appended to pending datagram.
+	 * Frames of unknown source are sent as they are, after pending datagram.
+	 */
+	@Override
+	public void send(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		monitor.recordFrame();
+		if(source == null) {
+			// Coalescer flusher thread shares send buffers
+			if(framesCoalescer != null) framesCoalescer.sendAlone(bytesBuffer);
+			else sendDatagram(bytesBuffer, bytesBuffer.length);
+			return;
+		}
+		byte[] frame = (wireFormatV2Encoder != null) ? wireFormatV2Encoder.encode(source, sequence, acquisitionTime, bytesBuffer) : bytesBuffer;
+		if(framesCoalescer != null) framesCoalescer.add(source, frame);
+		else sendDatagram(frame, frame.length);
+	}
+
+	/**
+	 * Send a datagram to every UDP destination. Datagram is copied once,
+	 * then each extra destination only costs a send call.
+	 * @param buffer datagram content
+	 * @param length number of bytes to send from buffer
+	 */
+	void sendDatagram(byte[] buffer, int length) {
+		if(udpUseNIO) {
+			sendByteBuffer.clear();
+			sendByteBuffer.put(buffer, 0, length);
+			sendByteBuffer.flip();
+			if(destinations.length == 1) {
+				try {
+					dgChannel.write(sendByteBuffer);
+					monitor.recordPacket();
+				} catch (IOException e) {
+					recordSendError(e);
+				}
+			} else {
+				for (int i = 0; i < destinations.length; i++) {
+					try {
+						sendByteBuffer.rewind();
+						dgChannel.send(sendByteBuffer, destinations[i]);
+						monitor.recordPacket();
+					} catch (IOException e) {
+						recordSendError(e);
+					}
+				}
+			}
+		} else {
+			for (int i = 0; i < dgPackets.length; i++) {
+				try {
+					dgPackets[i].setData(buffer, 0, length);
+					dgSocket.send(dgPackets[i]);
+					monitor.recordPacket();
+				} catch (IOException e) {
+					recordSendError(e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Count a failed datagram, print at most one message per {@link #SEND_ERROR_LOG_PERIOD} : a client that
+	 * is not listening (ICMP port unreachable) makes datagrams fail at frame rate.
+	 */
+	private void recordSendError(IOException e) {
+		monitor.recordSendError();
+		nbUnloggedSendErrors++;
+		long time = System.nanoTime();
+		if(lastSendErrorLogTime != 0 && time - lastSendErrorLogTime < SEND_ERROR_LOG_PERIOD) return;
+		System.out.println("UDP Streaming send failed (" + e + ") : " + nbUnloggedSendErrors + " failed datagrams since last message");
+		nbUnloggedSendErrors = 0;
+		lastSendErrorLogTime = time;
+	}
+
+	/**
+	 * Send pending datagram if its coalescing window is over. Coalescer flusher thread also does it on time.
+	 */
+	@Override
+	public void flush() {
+		if(framesCoalescer != null) framesCoalescer.flushIfDue();
+	}
+
+	@Override
+	public TransportMonitor getMonitor() {
+		return monitor;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if(framesCoalescer != null) framesCoalescer.dispose();
+			if(nbUnloggedSendErrors > 0) System.out.println("UDP Streaming send failed : " + nbUnloggedSendErrors + " failed datagrams since last message");
+			if(dgChannel != null) dgChannel.close();
+			if(dgSocket != null) dgSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+package udpixxatdatastreamer;
+
+import java.time.Instant;
+
+import datastreamer.DataSource;
+import datastreamer.WireFormat;
+
+/**
+ * Encodes {@link WireFormat#V2} frames into self-describing UDP frames, so that receivers
+ * neither unwrap frame IDs nor guess scale factors.<br>
+ * All values are big endian. Each frame starts with a 20 bytes header :
+ * <ul>
+ * <li>byte : format version, 2</li>
+ * <li>byte : source ({@link DataSource#ordinal()})</li>
+ * <li>byte : coordinates : 0 for sources without markers, 1 for float32 millimeters, 2 for int32 micrometers</li>
+ * <li>byte : reserved</li>
+ * <li>short : number of markers</li>
+ * <li>short : body length</li>
+ * <li>int : sequence number within source, a gap means frames have been dropped</li>
+ * <li>long : acquisition time, nanoseconds since 1970-01-01T00:00:00Z</li>
+ * </ul>
+ * Coda and optitrack bodies hold 16 bytes per marker :
+ * <ul>
+ * <li>short : marker number, from 1</li>
+ * <li>byte : b0 is visibility bit</li>
+ * <li>byte : reserved</li>
+ * <li>x, y and z : float32 or int32</li>
+ * </ul>
+ * Other sources bodies are their V1 frame. A 1472 bytes datagram holds up to 90 markers.<br>
+ * Acquisition time is derived from {@link System#nanoTime()} and wall clock read once, when encoder is created.
+ * @author fbuloup
+ */
+final class WireFormatV2Encoder {
+
+	public enum Coordinates {
+		FLOAT, MICROMETER;
+
+		/**
+		 * @param value float or micrometer, case insensitive
+		 * @return matching coordinates
+		 */
+		public static Coordinates parse(String value) {
+			for (Coordinates coordinates : values()) {
+				if(coordinates.name().equalsIgnoreCase(value)) return coordinates;
+			}
+			throw new IllegalArgumentException("Unknown coordinates : " + value);
+		}
+	}
+
+	public final static int VERSION = 2;
+	public final static int HEADER_SIZE = 20;
+	public final static int MARKER_SIZE = 16;
+
+	private final Coordinates coordinates;
+	private final long originNanoTime;
+	private final long originEpochNanos;
+	// Encoded frames, one per source, allocated on first frame of the source
+	private final byte[][] frames = new byte[DataSource.values().length][0];
+
+	/**
+	 * @param coordinates markers coordinates type
+	 */
+	WireFormatV2Encoder(Coordinates coordinates) {
+		this.coordinates = coordinates;
+		Instant now = Instant.now();
+		originNanoTime = System.nanoTime();
+		originEpochNanos = now.getEpochSecond()*1000000000L + now.getNano();
+	}
+
+	Coordinates getCoordinates() {
+		return coordinates;
+	}
+
+	/**
+	 * Encode a frame. Returned array is reused for next frames of the same source.
+	 * @param source system that produced the frame
+	 * @param sequence sequence number of the frame within its source
+	 * @param acquisitionTime {@link System#nanoTime()} when frame was acquired
+	 * @param bytesBuffer {@link WireFormat#V2} frame
+	 * @return encoded frame, whose length is the encoded length
+	 */
+	byte[] encode(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+		boolean hasMarkers = WireFormat.hasMarkers(source);
+		int nbMarkers = hasMarkers ? WireFormat.V2.getNbMarkers(bytesBuffer.length) : 0;
+		int bodyLength = hasMarkers ? MARKER_SIZE*nbMarkers : bytesBuffer.length;
+		byte[] frame = frames[source.ordinal()];
+		if(frame.length != HEADER_SIZE + bodyLength) {
+			frame = new byte[HEADER_SIZE + bodyLength];
+			frames[source.ordinal()] = frame;
+		}
+
+		frame[0] = (byte) VERSION;
+		frame[1] = (byte) source.ordinal();
+		frame[2] = (byte) (hasMarkers ? coordinates.ordinal() + 1 : 0);
+		frame[3] = 0;
+		putShort(frame, 4, nbMarkers);
+		putShort(frame, 6, bodyLength);
+		putInt(frame, 8, sequence);
+		putLong(frame, 12, originEpochNanos + acquisitionTime - originNanoTime);
+
+		if(!hasMarkers) {
+			System.arraycopy(bytesBuffer, 0, frame, HEADER_SIZE, bodyLength);
+			return frame;
+		}
+		int coordinatesStart = WireFormat.MARKER_LENGTH*nbMarkers;
+		for (int j = 0; j < nbMarkers; j++) {
+			int position = HEADER_SIZE + MARKER_SIZE*j;
+			putShort(frame, position, j + 1);
+			frame[position + 2] = (byte) (((bytesBuffer[WireFormat.MARKER_LENGTH*j] & 0x20) != 0) ? 1 : 0);
+			frame[position + 3] = 0;
+			for (int k = 0; k < 3; k++) {
+				int index = coordinatesStart + WireFormat.COORDINATES_LENGTH*j + 4*k;
+				int value = getInt(bytesBuffer, index);
+				if(coordinates == Coordinates.MICROMETER) value = Math.round(1000*Float.intBitsToFloat(value));
+				putInt(frame, position + 4 + 4*k, value);
+			}
+		}
+		return frame;
+	}
+
+	private static int getInt(byte[] buffer, int index) {
+		return ((buffer[index] & 0xFF) << 24) | ((buffer[index + 1] & 0xFF) << 16) | ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+	}
+
+	private static void putShort(byte[] buffer, int index, int value) {
+		buffer[index] = (byte) (value >> 8);
+		buffer[index + 1] = (byte) (value & 0xFF);
+	}
+
+	private static void putInt(byte[] buffer, int index, int value) {
+		putShort(buffer, index, value >> 16);
+		putShort(buffer, index + 2, value);
+	}
+
+	private static void putLong(byte[] buffer, int index, long value) {
+		putInt(buffer, index, (int) (value >> 32));
+		putInt(buffer, index + 4, (int) value);
+	}
+
+}
@@ -63,6 +63,8 @@ public final class StreamingProperties {
 	protected static String udpSourcePortKey = UDPIXXATDataStreamer.udpSourcePortToken;
 	protected static String udpDestinationPort;
 	protected static String udpDestinationPortKey = UDPIXXATDataStreamer.udpDestinationPortToken;
+	protected static boolean udpUseNIO;
+	protected static String udpUseNIOKey = UDPIXXATDataStreamer.udpUseNIOToken;
 	
 	// TIMER
 	protected static int timerFrequency;
@@ -134,6 +136,7 @@ public final class StreamingProperties {
 		udpClientIP = properties.getProperty(udpClientIPKey, "localhost");
 		udpSourcePort = properties.getProperty(udpSourcePortKey, "15000");
 		udpDestinationPort = properties.getProperty(udpDestinationPortKey, "15000");
+		udpUseNIO = Boolean.parseBoolean(properties.getProperty(udpUseNIOKey, "false"));
 		
 		timerFrequency = Integer.parseInt(properties.getProperty(timerFrequencyKey, "1"));
 		
@@ -183,6 +186,7 @@ public final class StreamingProperties {
 		properties.setProperty(udpClientIPKey, udpClientIP);
 		properties.setProperty(udpSourcePortKey, udpSourcePort);
 		properties.setProperty(udpDestinationPortKey, udpDestinationPort);
+		properties.setProperty(udpUseNIOKey, Boolean.toString(udpUseNIO));
 		
 		properties.setProperty(timerFrequencyKey, Integer.toString(timerFrequency));
 		
@@ -169,6 +169,18 @@ public class UDPIXXATWindow extends ApplicationWindow {
 			}
 		});
 		
+		Button udpUseNIOButton = new Button(container, SWT.CHECK);
+		udpUseNIOButton.setText("Use NIO datagram channel (no allocation per frame)");
+		udpUseNIOButton.setSelection(StreamingProperties.udpUseNIO);
+		udpUseNIOButton.setLayoutData(new GridData(SWT.RIGHT, SWT.LEFT, true, false, 2, 1));
+		udpUseNIOButton.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				StreamingProperties.udpUseNIO = udpUseNIOButton.getSelection();
+				StreamingProperties.saveProperties();
+			}
+		});
+		
 		tabItem.setControl(container);
 	}
 
@@ -289,6 +301,7 @@ public class UDPIXXATWindow extends ApplicationWindow {
 				cmdLine = cmdLine + " " + StreamingProperties.udpClientIPKey + " " + StreamingProperties.udpClientIP;
 				cmdLine = cmdLine + " " + StreamingProperties.udpSourcePortKey + " " + StreamingProperties.udpSourcePort;
 				cmdLine = cmdLine + " " + StreamingProperties.udpDestinationPortKey + " " + StreamingProperties.udpDestinationPort;
+				cmdLine = cmdLine + " " + StreamingProperties.udpUseNIOKey + " " + StreamingProperties.udpUseNIO;
 			}
 
 			cmdLine = cmdLine + " " + StreamingProperties.useCodamotionKey + " " + StreamingProperties.useCodamotion;
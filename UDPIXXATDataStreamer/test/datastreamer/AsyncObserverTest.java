@@ -0,0 +1,176 @@
+package datastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import datastreamer.AsyncObserver.OverflowPolicy;
+import udpixxatdatastreamer.DataObserver;
+
+/**
+ * Checks {@link AsyncObserver} overflow policies with an observer blocked on its first frame,
+ * and that frames of unknown source are queued and notified by worker thread.
+ * @author fbuloup
+ */
+public class AsyncObserverTest {
+
+	private final static int CAPACITY = 4;
+	private final static int TIME_STAMP_LENGTH = 8;
+
+	/**
+	 * Records frames it is notified with. Blocks on first frame until released.
+	 */
+	private static class GatedObserver implements DataObserver {
+
+		private final CountDownLatch entered = new CountDownLatch(1);
+		private final CountDownLatch released = new CountDownLatch(1);
+		private final List<Integer> sequences = new ArrayList<Integer>();
+		private final List<byte[]> frames = new ArrayList<byte[]>();
+		private final List<Thread> threads = new ArrayList<Thread>();
+
+		@Override
+		public void update(byte[] bytesBuffer) {
+			record(-1, bytesBuffer);
+		}
+
+		@Override
+		public void update(DataSource source, int sequence, long acquisitionTime, byte[] bytesBuffer) {
+			record(sequence, bytesBuffer);
+		}
+
+		private void record(int sequence, byte[] bytesBuffer) {
+			synchronized (this) {
+				sequences.add(sequence);
+				frames.add(bytesBuffer.clone());
+				threads.add(Thread.currentThread());
+			}
+			entered.countDown();
+			try {
+				released.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		synchronized List<Integer> getSequences() {
+			return new ArrayList<Integer>(sequences);
+		}
+
+	}
+
+	@Test
+	public void dropNewestKeepsQueuedFrames() throws Exception {
+		GatedObserver observer = new GatedObserver();
+		AsyncObserver asyncObserver = fill(observer, OverflowPolicy.DROP_NEWEST);
+		update(asyncObserver, CAPACITY + 1);
+		update(asyncObserver, CAPACITY + 2);
+		assertEquals(2, asyncObserver.getDroppedFrames());
+		assertEquals(CAPACITY, asyncObserver.getSize());
+		release(observer, asyncObserver);
+		assertEquals(sequences(0, 1, 2, 3, 4), observer.getSequences());
+	}
+
+	@Test
+	public void dropOldestKeepsLatestFrames() throws Exception {
+		GatedObserver observer = new GatedObserver();
+		AsyncObserver asyncObserver = fill(observer, OverflowPolicy.DROP_OLDEST);
+		update(asyncObserver, CAPACITY + 1);
+		update(asyncObserver, CAPACITY + 2);
+		assertEquals(2, asyncObserver.getDroppedFrames());
+		assertEquals(CAPACITY, asyncObserver.getSize());
+		release(observer, asyncObserver);
+		assertEquals(sequences(0, 3, 4, 5, 6), observer.getSequences());
+	}
+
+	@Test
+	public void blockWaitsForRoom() throws Exception {
+		GatedObserver observer = new GatedObserver();
+		final AsyncObserver asyncObserver = fill(observer, OverflowPolicy.BLOCK);
+		Thread dispatcher = new Thread() {
+			public void run() {
+				update(asyncObserver, CAPACITY + 1);
+			}
+		};
+		dispatcher.start();
+		dispatcher.join(200);
+		assertTrue("Dispatcher did not wait for room", dispatcher.isAlive());
+		observer.released.countDown();
+		dispatcher.join(1000);
+		assertTrue(!dispatcher.isAlive());
+		release(observer, asyncObserver);
+		assertEquals(0, asyncObserver.getDroppedFrames());
+		assertEquals(sequences(0, 1, 2, 3, 4, 5), observer.getSequences());
+	}
+
+	@Test
+	public void unknownSourceFramesAreQueued() throws Exception {
+		GatedObserver observer = new GatedObserver();
+		observer.released.countDown();
+		AsyncObserver asyncObserver = new AsyncObserver(observer, CAPACITY, frameLengths(), OverflowPolicy.BLOCK);
+		byte[][] expectedFrames = new byte[][] {{1, 2, 3}, frame(0), {4}, {5}, {6, 7, 8, 9, 10}};
+		asyncObserver.update(expectedFrames[0]);
+		update(asyncObserver, 0);
+		asyncObserver.update(expectedFrames[2]);
+		asyncObserver.update(expectedFrames[3]);
+		asyncObserver.update(expectedFrames[4]);
+		asyncObserver.dispose();
+		assertEquals(sequences(-1, 0, -1, -1, -1), observer.getSequences());
+		for (int i = 0; i < expectedFrames.length; i++) {
+			assertArrayEquals("Frame " + i, expectedFrames[i], observer.frames.get(i));
+			assertTrue("Frame " + i + " not notified by worker", observer.threads.get(i) != Thread.currentThread());
+		}
+	}
+
+	/**
+	 * Worker takes frame 0 and blocks in observer, then frames 1 to {@link #CAPACITY} fill the queue.
+	 */
+	private static AsyncObserver fill(GatedObserver observer, OverflowPolicy overflowPolicy) throws InterruptedException {
+		AsyncObserver asyncObserver = new AsyncObserver(observer, CAPACITY, frameLengths(), overflowPolicy);
+		update(asyncObserver, 0);
+		assertTrue(observer.entered.await(1, TimeUnit.SECONDS));
+		for (int i = 1; i <= CAPACITY; i++) update(asyncObserver, i);
+		assertEquals(CAPACITY, asyncObserver.getSize());
+		assertEquals(0, asyncObserver.getDroppedFrames());
+		return asyncObserver;
+	}
+
+	/**
+	 * Unblock observer, notify queued frames and stop worker. Each notified frame must match its sequence.
+	 */
+	private static void release(GatedObserver observer, AsyncObserver asyncObserver) {
+		observer.released.countDown();
+		asyncObserver.dispose();
+		assertEquals(0, asyncObserver.getSize());
+		for (int i = 0; i < observer.frames.size(); i++) assertArrayEquals(frame(observer.sequences.get(i)), observer.frames.get(i));
+	}
+
+	private static void update(AsyncObserver asyncObserver, int sequence) {
+		asyncObserver.update(DataSource.TIME_STAMP, sequence, sequence, frame(sequence));
+	}
+
+	private static byte[] frame(int sequence) {
+		byte[] frame = new byte[TIME_STAMP_LENGTH];
+		for (int i = 0; i < frame.length; i++) frame[i] = (byte) (sequence + i);
+		return frame;
+	}
+
+	private static int[] frameLengths() {
+		int[] frameLengths = new int[DataSource.values().length];
+		frameLengths[DataSource.TIME_STAMP.ordinal()] = TIME_STAMP_LENGTH;
+		return frameLengths;
+	}
+
+	private static List<Integer> sequences(int... values) {
+		List<Integer> sequences = new ArrayList<Integer>();
+		for (int value : values) sequences.add(value);
+		return sequences;
+	}
+
+}
@@ -0,0 +1,121 @@
+package datastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Publication order, wrap-around, full ring and concurrent producers of {@link FramesRingBuffer}.
+ * @author fbuloup
+ */
+public class FramesRingBufferTest {
+
+	// Coda, xsens, time stamp and optitrack frame lengths
+	private final static int[] FRAME_LENGTHS = {16, 12, 8, 24};
+	private final static int NB_FRAMES_PER_PRODUCER = 200000;
+
+	@Test
+	public void capacityIsRoundedUpToPowerOfTwo() {
+		assertEquals(8, new FramesRingBuffer(5, FRAME_LENGTHS).getCapacity());
+		assertEquals(8, new FramesRingBuffer(8, FRAME_LENGTHS).getCapacity());
+	}
+
+	@Test
+	public void framesAreReadInOrderAcrossWrapAround() {
+		FramesRingBuffer ring = new FramesRingBuffer(4, FRAME_LENGTHS);
+		for (int i = 0; i < 10; i++) {
+			DataSource source = DataSource.values()[i%2];
+			assertTrue(ring.publish(source, createFrame(source, i), 1000 + i));
+			assertEquals(1, ring.getSize());
+			int slot = ring.poll();
+			assertEquals(i%ring.getCapacity(), slot);
+			assertEquals(source, ring.getSource(slot));
+			assertEquals(i/2, ring.getSequence(slot));
+			assertEquals(1000 + i, ring.getAcquisitionTime(slot));
+			assertArrayEquals(createFrame(source, i), ring.getFrame(slot));
+			ByteBuffer frameView = ring.getFrameView(slot);
+			assertEquals(FRAME_LENGTHS[source.ordinal()], frameView.limit());
+			assertEquals(i, frameView.getInt(0));
+			ring.release();
+			assertEquals(-1, ring.poll());
+		}
+		assertEquals(0, ring.getDroppedFrames());
+	}
+
+	@Test
+	public void fullRingDropsFramesAndLeavesSequenceGap() {
+		FramesRingBuffer ring = new FramesRingBuffer(4, FRAME_LENGTHS);
+		for (int i = 0; i < 4; i++) assertTrue(ring.publish(DataSource.CODA, createFrame(DataSource.CODA, i), i));
+		assertFalse(ring.publish(DataSource.CODA, createFrame(DataSource.CODA, 4), 4));
+		assertFalse(ring.publish(DataSource.CODA, createFrame(DataSource.CODA, 5), 5));
+		assertEquals(2, ring.getDroppedFrames());
+		assertEquals(4, ring.getSize());
+
+		// Frames published before ring was full are kept
+		for (int i = 0; i < 4; i++) {
+			int slot = ring.poll();
+			assertEquals(i, ring.getSequence(slot));
+			assertEquals(i, ring.getFrameView(slot).getInt(0));
+			ring.release();
+		}
+		assertTrue(ring.publish(DataSource.CODA, createFrame(DataSource.CODA, 6), 6));
+		assertEquals(6, ring.getSequence(ring.poll()));
+	}
+
+	@Test
+	public void concurrentProducersFramesAreNeitherLostNorTorn() throws InterruptedException {
+		final FramesRingBuffer ring = new FramesRingBuffer(64, FRAME_LENGTHS);
+		Thread[] producers = new Thread[FRAME_LENGTHS.length];
+		for (int p = 0; p < producers.length; p++) {
+			final DataSource source = DataSource.values()[p];
+			producers[p] = new Thread() {
+				public void run() {
+					byte[] frame = new byte[FRAME_LENGTHS[source.ordinal()]];
+					for (int i = 0; i < NB_FRAMES_PER_PRODUCER; i++) {
+						// Sequence number is repeated in whole frame
+						for (int j = 0; j < frame.length; j += 4) ByteBuffer.wrap(frame).putInt(j, i);
+						ring.publish(source, frame, System.nanoTime());
+					}
+				}
+			};
+			producers[p].start();
+		}
+		int[] nbFrames = new int[producers.length];
+		int[] lastSequences = {-1, -1, -1, -1};
+		long nbPublishedFrames = 0;
+		while(nbPublishedFrames + ring.getDroppedFrames() < (long) NB_FRAMES_PER_PRODUCER*producers.length) {
+			int slot = ring.poll();
+			if(slot < 0) {
+				Thread.yield();
+				continue;
+			}
+			DataSource source = ring.getSource(slot);
+			int sequence = ring.getSequence(slot);
+			ByteBuffer frameView = ring.getFrameView(slot);
+			for (int j = 0; j < frameView.limit(); j += 4) assertEquals(sequence, frameView.getInt(j));
+			assertTrue(source + " sequence " + sequence + " after " + lastSequences[source.ordinal()], sequence > lastSequences[source.ordinal()]);
+			lastSequences[source.ordinal()] = sequence;
+			nbFrames[source.ordinal()]++;
+			nbPublishedFrames++;
+			ring.release();
+		}
+		for (Thread producer : producers) producer.join();
+		assertEquals(-1, ring.poll());
+		for (int p = 0; p < producers.length; p++) assertTrue(nbFrames[p] > 0);
+	}
+
+	/**
+	 * @return frame of source whose first int is given value
+	 */
+	private static byte[] createFrame(DataSource source, int value) {
+		byte[] frame = new byte[FRAME_LENGTHS[source.ordinal()]];
+		ByteBuffer.wrap(frame).putInt(0, value);
+		return frame;
+	}
+
+}
@@ -0,0 +1,95 @@
+package datastreamer;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import datastreamer.SequenceTracker.Status;
+
+/**
+ * Classification of frame numbers by {@link SequenceTracker} and its counters.
+ * @author fbuloup
+ */
+public class SequenceTrackerTest {
+
+	@Test
+	public void gapsAreCountedWithTheirLength() {
+		SequenceTracker tracker = new SequenceTracker();
+		assertEquals(Status.FIRST, tracker.record(10));
+		assertEquals(Status.NEXT, tracker.record(11));
+		assertEquals(Status.GAP, tracker.record(13));
+		assertEquals(Status.GAP, tracker.record(17));
+		assertEquals(Status.GAP, tracker.record(1000));
+		assertEquals(3, tracker.getGaps());
+		assertEquals(1 + 3 + 982, tracker.getMissingFrames());
+		assertEquals("1:1 2:0 3-4:1 5-8:0 9-16:0 17-32:0 33-64:0 65-128:0 >128:1", tracker.getGapLengths());
+	}
+
+	@Test
+	public void lateFramesAreNoLongerMissing() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.record(0);
+		tracker.record(4);
+		assertEquals(3, tracker.getMissingFrames());
+		assertEquals(Status.LATE, tracker.record(2));
+		assertEquals(Status.LATE, tracker.record(1));
+		assertEquals(1, tracker.getGaps());
+		assertEquals(1, tracker.getMissingFrames());
+		assertEquals(2, tracker.getLateFrames());
+		assertEquals(0, tracker.getDuplicates());
+	}
+
+	@Test
+	public void duplicatesAreToldFromLateFrames() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.record(0);
+		tracker.record(1);
+		tracker.record(3);
+		assertEquals(Status.DUPLICATE, tracker.record(3));
+		assertEquals(Status.DUPLICATE, tracker.record(1));
+		assertEquals(Status.LATE, tracker.record(2));
+		assertEquals(Status.DUPLICATE, tracker.record(2));
+		assertEquals(3, tracker.getDuplicates());
+		assertEquals(1, tracker.getLateFrames());
+		assertEquals(0, tracker.getMissingFrames());
+	}
+
+	@Test
+	public void numbersBeforeFirstOneAreNotMissing() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.record(5);
+		assertEquals(Status.LATE, tracker.record(4));
+		assertEquals(0, tracker.getMissingFrames());
+		assertEquals(1, tracker.getLateFrames());
+	}
+
+	@Test
+	public void farBehindNumberIsARestart() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.record(500);
+		assertEquals(Status.RESTART, tracker.record(0));
+		assertEquals(Status.NEXT, tracker.record(1));
+		assertEquals(1, tracker.getRestarts());
+		assertEquals(0, tracker.getGaps());
+	}
+
+	@Test
+	public void restartKeepsCountersAndResetClearsThem() {
+		SequenceTracker tracker = new SequenceTracker();
+		tracker.record(0);
+		tracker.record(2);
+		tracker.record(2);
+		tracker.restart();
+		assertEquals(Status.FIRST, tracker.record(100));
+		assertEquals(1, tracker.getGaps());
+		assertEquals(1, tracker.getDuplicates());
+		assertEquals(0, tracker.getRestarts());
+		tracker.reset();
+		assertEquals(Status.FIRST, tracker.record(7));
+		assertEquals(0, tracker.getGaps());
+		assertEquals(0, tracker.getMissingFrames());
+		assertEquals(0, tracker.getDuplicates());
+		assertEquals("1:0 2:0 3-4:0 5-8:0 9-16:0 17-32:0 33-64:0 65-128:0 >128:0", tracker.getGapLengths());
+	}
+
+}
@@ -0,0 +1,103 @@
+package optitrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+/**
+ * Parsing of NatNet frames of data by {@link NatNetParser} : sections before unlabeled markers are
+ * skipped using their declared data size, whatever their content, and malformed packets are rejected.
+ * @author fbuloup
+ */
+public class NatNetParserTest {
+
+	private final static float[] MARKERS = {0.1f, 1.2f, 0.5f, -0.3f, 1.1f, 0.4f, 0.7f, 0.9f, 0.25f};
+
+	@Test
+	public void generatedFrameIsParsed() {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(NatNetGenerator.MAX_PACKET_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		NatNetGenerator.writeFrameOfData(byteBuffer, 1234, 0.25, 3, 5, 2, 4);
+		byteBuffer.flip();
+		OptitrackData.initMarkers(3);
+		assertTrue(NatNetParser.isFrameOfData(byteBuffer));
+		assertTrue(NatNetParser.parseFrameOfData(byteBuffer, 1));
+		assertEquals(1234, OptitrackData.frameID);
+		double angle = 2*Math.PI*0.25;
+		for (int n = 0; n < 3; n++) {
+			int i = n + 1;
+			assertEquals(1, OptitrackData.unlabeledMarkersVisibilities[n]);
+			assertEquals((float) (0.2*i + 0.1*Math.cos(angle + i)), OptitrackData.unlabeledMarkersPositions[3*n], 0);
+			assertEquals((float) (1 + 0.1*Math.sin(angle + i)), OptitrackData.unlabeledMarkersPositions[3*n + 1], 0);
+			assertEquals(0.5f, OptitrackData.unlabeledMarkersPositions[3*n + 2], 0);
+		}
+	}
+
+	@Test
+	public void markerSetsAreSkippedWithoutBeingRead() {
+		// Marker set count and content are meaningless : only data size is used
+		byte[] markerSets = new byte[37];
+		for (int i = 0; i < markerSets.length; i++) markerSets[i] = (byte) 0xFF;
+		ByteBuffer byteBuffer = createFrame(99, markerSets.length, markerSets, MARKERS.length/3, 12*MARKERS.length/3);
+		int rigidBodiesPosition = byteBuffer.limit() - 8;
+		OptitrackData.initMarkers(3);
+		assertTrue(NatNetParser.parseFrameOfData(byteBuffer, 0));
+		for (int i = 0; i < MARKERS.length; i++) assertEquals(MARKERS[i], OptitrackData.unlabeledMarkersPositions[i], 0);
+		// Parsing stops right after unlabeled markers
+		assertEquals(rigidBodiesPosition, byteBuffer.position());
+	}
+
+	@Test
+	public void missingMarkersAreInvisible() {
+		ByteBuffer byteBuffer = createFrame(0, 0, new byte[0], MARKERS.length/3, 12*MARKERS.length/3);
+		OptitrackData.initMarkers(4);
+		assertTrue(NatNetParser.parseFrameOfData(byteBuffer, 1));
+		assertEquals(1, OptitrackData.unlabeledMarkersVisibilities[0]);
+		assertEquals(1, OptitrackData.unlabeledMarkersVisibilities[1]);
+		assertEquals(0, OptitrackData.unlabeledMarkersVisibilities[2]);
+		assertEquals(0, OptitrackData.unlabeledMarkersVisibilities[3]);
+		assertEquals(MARKERS[3], OptitrackData.unlabeledMarkersPositions[0], 0);
+	}
+
+	@Test
+	public void malformedFramesAreRejected() {
+		OptitrackData.initMarkers(3);
+		// Marker sets data size beyond packet end
+		assertFalse(NatNetParser.parseFrameOfData(createFrame(0, 1000, new byte[8], 3, 36), 0));
+		// Negative marker sets data size
+		assertFalse(NatNetParser.parseFrameOfData(createFrame(0, -4, new byte[8], 3, 36), 0));
+		// Unlabeled markers data size smaller than markers
+		assertFalse(NatNetParser.parseFrameOfData(createFrame(0, 0, new byte[0], 3, 24), 0));
+		// Not a frame of data
+		ByteBuffer byteBuffer = createFrame(0, 0, new byte[0], 3, 36);
+		byteBuffer.putShort(0, (short) 1);
+		assertFalse(NatNetParser.isFrameOfData(byteBuffer));
+		assertFalse(NatNetParser.parseFrameOfData(byteBuffer, 0));
+	}
+
+	/**
+	 * @return frame of data with given marker sets section, {@link #MARKERS} as unlabeled markers
+	 * and an empty rigid bodies section
+	 */
+	private static ByteBuffer createFrame(int nbMarkerSets, int markerSetsDataSize, byte[] markerSets, int nbUnlabeledMarkers, int unlabeledMarkersDataSize) {
+		ByteBuffer byteBuffer = ByteBuffer.allocate(1024).order(ByteOrder.LITTLE_ENDIAN);
+		byteBuffer.putShort((short) NatNetParser.NAT_FRAMEOFDATA);
+		byteBuffer.putShort((short) 0);
+		byteBuffer.putInt(42);
+		byteBuffer.putInt(nbMarkerSets);
+		byteBuffer.putInt(markerSetsDataSize);
+		byteBuffer.put(markerSets);
+		byteBuffer.putInt(nbUnlabeledMarkers);
+		byteBuffer.putInt(unlabeledMarkersDataSize);
+		for (float value : MARKERS) byteBuffer.putFloat(value);
+		byteBuffer.putInt(0).putInt(0);
+		byteBuffer.putShort(2, (short) (byteBuffer.position() - 4));
+		byteBuffer.flip();
+		return byteBuffer;
+	}
+
+}
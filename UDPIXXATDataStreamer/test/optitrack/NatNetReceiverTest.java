@@ -0,0 +1,62 @@
+package optitrack;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+/**
+ * Data, command and time out counting of {@link NatNetReceiver}, on unicast loopback ports.
+ * @author fbuloup
+ */
+public class NatNetReceiverTest {
+
+	private final static int DATA_PORT = 15511;
+	private final static int COMMAND_PORT = 15510;
+	private final static long TIME_OUT = 50;
+
+	@Test
+	public void onlySelectWithoutAnyPacketIsTimeout() throws Exception {
+		NatNetReceiver receiver = new NatNetReceiver(DATA_PORT, COMMAND_PORT, null, null);
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+
+			assertFalse(receiver.select(TIME_OUT));
+			assertEquals(1, receiver.getNbTimeouts());
+
+			// Command packet alone : no data, no time out
+			send(socket, COMMAND_PORT, 3);
+			assertFalse(receiver.select(1000));
+			assertEquals(1, receiver.getNbTimeouts());
+			receiver.drainCommands();
+			assertEquals(1, receiver.getNbCommandPackets());
+
+			send(socket, DATA_PORT, 5);
+			send(socket, DATA_PORT, 7);
+			Thread.sleep(TIME_OUT);
+			assertTrue(receiver.select(1000));
+			assertTrue(receiver.receiveData(byteBuffer));
+			assertEquals(5, byteBuffer.remaining());
+			assertTrue(receiver.receiveData(byteBuffer));
+			assertEquals(7, byteBuffer.remaining());
+			assertFalse(receiver.receiveData(byteBuffer));
+			assertEquals(2, receiver.getNbDataPackets());
+			assertEquals(1, receiver.getNbTimeouts());
+		} finally {
+			socket.close();
+			receiver.close();
+		}
+	}
+
+	private static void send(DatagramSocket socket, int port, int length) throws Exception {
+		socket.send(new DatagramPacket(new byte[length], length, InetAddress.getLoopbackAddress(), port));
+	}
+
+}
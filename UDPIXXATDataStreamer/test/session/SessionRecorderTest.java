@@ -0,0 +1,82 @@
+package session;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import datastreamer.DataSource;
+
+/**
+ * Frames recorded by {@link SessionRecorder} into small segments are read back unchanged
+ * by {@link SessionReader}, in order, across segment boundaries.
+ * @author fbuloup
+ */
+public class SessionRecorderTest {
+
+	// Coda, xsens, time stamp and optitrack frame lengths
+	private final static int[] FRAME_LENGTHS = {24, 0, 8, 0};
+	// A few records per segment
+	private final static int SEGMENT_SIZE = 200;
+	private final static int NB_FRAMES = 1000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void framesAreReadBackAcrossSegments() throws IOException {
+		String sessionFileName = new File(temporaryFolder.getRoot(), "session").getPath();
+		SessionRecorder sessionRecorder = new SessionRecorder(sessionFileName, SEGMENT_SIZE, FRAME_LENGTHS);
+		for (int i = 0; i < NB_FRAMES; i++) sessionRecorder.update(getSource(i), getSequence(i), 1000000L*i, createFrame(i));
+		sessionRecorder.dispose();
+		assertEquals(NB_FRAMES, sessionRecorder.getNbRecordedFrames());
+		assertEquals(0, sessionRecorder.getNbDroppedFrames());
+		assertTrue(new File(SessionFormat.getSegmentFileName(sessionFileName, 10)).exists());
+
+		SessionReader sessionReader = new SessionReader(sessionFileName);
+		byte[][] frames = {new byte[FRAME_LENGTHS[0]], null, new byte[FRAME_LENGTHS[2]]};
+		for (int i = 0; i < NB_FRAMES; i++) {
+			assertTrue("Frame " + i + " missing", sessionReader.next());
+			DataSource source = getSource(i);
+			assertEquals(source, sessionReader.getSource());
+			assertEquals(getSequence(i), sessionReader.getSequence());
+			assertEquals(1000000L*i, sessionReader.getTime());
+			assertEquals(FRAME_LENGTHS[source.ordinal()], sessionReader.getFrameLength());
+			byte[] frame = frames[source.ordinal()];
+			sessionReader.getFrame(frame);
+			assertArrayEquals("Frame " + i, createFrame(i), frame);
+		}
+		assertFalse(sessionReader.next());
+
+		assertArrayEquals(FRAME_LENGTHS, SessionReader.getFrameLengths(sessionFileName));
+	}
+
+	/**
+	 * Two coda frames for one time stamp frame
+	 */
+	private static DataSource getSource(int i) {
+		return (i%3 == 2) ? DataSource.TIME_STAMP : DataSource.CODA;
+	}
+
+	/**
+	 * Sequence numbers of each source, with a gap every hundred frames as if frames had been dropped before recorder
+	 */
+	private static int getSequence(int i) {
+		int sequence = (getSource(i) == DataSource.TIME_STAMP) ? i/3 : i - i/3;
+		return sequence + 5*(i/100);
+	}
+
+	private static byte[] createFrame(int i) {
+		byte[] frame = new byte[FRAME_LENGTHS[getSource(i).ordinal()]];
+		for (int j = 0; j < frame.length; j++) frame[j] = (byte) (i + 7*j);
+		return frame;
+	}
+
+}
@@ -0,0 +1,81 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import datastreamer.DataSource;
+
+/**
+ * Bus load estimate and CAN decimation of {@link CANBusLoad}.
+ * @author fbuloup
+ */
+public class CANBusLoadTest {
+
+	private final static double EPSILON = 1e-9;
+
+	@Test
+	public void messageLengthCountsWorstCaseStuffing() {
+		assertEquals(135, CANBusLoad.getMessageBits(8));
+	}
+
+	@Test
+	public void lightLoadIsNotDecimated() {
+		CANBusLoad canBusLoad = new CANBusLoad(frameRates(100, 0, 1000, 0), frameLengths(8*4, 0, 8, 0));
+		assertEquals((100*4 + 1000)*135.0/CANBusLoad.BITRATE, canBusLoad.getTotalLoad(), EPSILON);
+		assertTrue(canBusLoad.decimate(0.8));
+		for (DataSource source : DataSource.values()) assertEquals(1, canBusLoad.getDecimation(source));
+	}
+
+	@Test
+	public void mostLoadingSourceIsDecimatedFirst() {
+		// Coda : 200 frames/s of 28 messages, 75.6 %. Time stamp : 1000 frames/s of 1 message, 13.5 %
+		CANBusLoad canBusLoad = new CANBusLoad(frameRates(200, 0, 1000, 0), frameLengths(8*28, 0, 8, 0));
+		assertEquals(0.891, canBusLoad.getTotalLoad(), EPSILON);
+		assertTrue(canBusLoad.decimate(0.8));
+		assertEquals(2, canBusLoad.getDecimation(DataSource.CODA));
+		assertEquals(1, canBusLoad.getDecimation(DataSource.TIME_STAMP));
+		assertEquals(0.378, canBusLoad.getLoad(DataSource.CODA), EPSILON);
+		assertEquals(100*28, canBusLoad.getMessageRate(DataSource.CODA), EPSILON);
+	}
+
+	@Test
+	public void everyLoadingSourceIsDecimatedUnderCeiling() {
+		CANBusLoad canBusLoad = new CANBusLoad(frameRates(500, 0, 4000, 100), frameLengths(8*20, 0, 8, 8*10));
+		assertTrue(canBusLoad.getTotalLoad() > 1);
+		assertTrue(canBusLoad.decimate(0.5));
+		assertTrue(canBusLoad.getTotalLoad() <= 0.5);
+		assertTrue(canBusLoad.getDecimation(DataSource.CODA) > 1);
+		assertTrue(canBusLoad.getDecimation(DataSource.TIME_STAMP) > 1);
+		// Unused source is never decimated
+		assertEquals(1, canBusLoad.getDecimation(DataSource.XSENS));
+	}
+
+	@Test
+	public void decimationIsBounded() {
+		CANBusLoad canBusLoad = new CANBusLoad(frameRates(200, 0, 0, 0), frameLengths(8*28, 0, 0, 0));
+		assertFalse(canBusLoad.decimate(0));
+		assertEquals(1000, canBusLoad.getDecimation(DataSource.CODA));
+	}
+
+	private static double[] frameRates(double coda, double xsens, double timeStamp, double optitrack) {
+		double[] frameRates = new double[DataSource.values().length];
+		frameRates[DataSource.CODA.ordinal()] = coda;
+		frameRates[DataSource.XSENS.ordinal()] = xsens;
+		frameRates[DataSource.TIME_STAMP.ordinal()] = timeStamp;
+		frameRates[DataSource.OPTITRACK.ordinal()] = optitrack;
+		return frameRates;
+	}
+
+	private static int[] frameLengths(int coda, int xsens, int timeStamp, int optitrack) {
+		int[] frameLengths = new int[DataSource.values().length];
+		frameLengths[DataSource.CODA.ordinal()] = coda;
+		frameLengths[DataSource.XSENS.ordinal()] = xsens;
+		frameLengths[DataSource.TIME_STAMP.ordinal()] = timeStamp;
+		frameLengths[DataSource.OPTITRACK.ordinal()] = optitrack;
+		return frameLengths;
+	}
+
+}
@@ -0,0 +1,101 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import datastreamer.DataSource;
+import de.ixxat.vci3.bal.can.CanMessage;
+
+/**
+ * Latest-value-wins behaviour of {@link CANConflator}, on a {@link FakeCanMessageWriter}.
+ * @author fbuloup
+ */
+public class CANConflatorTest {
+
+	private final static long TIME_OUT = 2000;
+
+	@Test
+	public void onlyNewestValuesAreSentWhenFifoIsFull() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(0);
+		TransportMonitor monitor = new TransportMonitor();
+		CANConflator conflator = new CANConflator(writer, new CanMessage(), monitor);
+		try {
+			for (int n = 1; n <= 5; n++) conflator.update(DataSource.CODA, createFrame(n, 3));
+			assertEquals(3, conflator.getNbPendings());
+
+			writer.setFreeCount(16);
+			waitForNoPending(conflator);
+		} finally {
+			conflator.dispose();
+		}
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(3, messages.size());
+		for (int j = 0; j < 3; j++) assertArrayEquals(createMessage(5, j), messages.get(j));
+		assertEquals(3, monitor.getTotalPackets());
+	}
+
+	@Test
+	public void sourcesAreSentInTurn() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(0);
+		CANConflator conflator = new CANConflator(writer, new CanMessage(), new TransportMonitor());
+		try {
+			conflator.update(DataSource.CODA, createFrame(1, 2));
+			conflator.update(DataSource.TIME_STAMP, new byte[] {(byte) 0xA4, (byte) 0x85, 12, 1, 2, 3});
+			writer.setFreeCount(16);
+			waitForNoPending(conflator);
+		} finally {
+			conflator.dispose();
+		}
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(3, messages.size());
+		// Short frame is padded with zeros
+		assertArrayEquals(new byte[] {(byte) 0xA4, (byte) 0x85, 12, 1, 2, 3, 0, 0}, messages.get(2));
+	}
+
+	@Test
+	public void unknownSourceFramesHaveTheirOwnSlots() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(0);
+		CANConflator conflator = new CANConflator(writer, new CanMessage(), new TransportMonitor());
+		try {
+			conflator.update(DataSource.CODA, createFrame(1, 1));
+			conflator.update(null, createFrame(2, 1));
+			conflator.update(null, createFrame(3, 1));
+			assertEquals(2, conflator.getNbPendings());
+			writer.setFreeCount(16);
+			waitForNoPending(conflator);
+		} finally {
+			conflator.dispose();
+		}
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(2, messages.size());
+		assertArrayEquals(createMessage(1, 0), messages.get(0));
+		assertArrayEquals(createMessage(3, 0), messages.get(1));
+	}
+
+	private static void waitForNoPending(CANConflator conflator) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIME_OUT;
+		while(conflator.getNbPendings() > 0 && System.currentTimeMillis() < deadline) Thread.sleep(1);
+		assertEquals(0, conflator.getNbPendings());
+	}
+
+	/**
+	 * @return frame of markers whose first byte is marker number, second byte frame number
+	 */
+	private static byte[] createFrame(int number, int nbMarkers) {
+		byte[] frame = new byte[8*nbMarkers];
+		for (int j = 0; j < nbMarkers; j++) System.arraycopy(createMessage(number, j), 0, frame, 8*j, 8);
+		return frame;
+	}
+
+	private static byte[] createMessage(int number, int marker) {
+		return new byte[] {(byte) (marker + 1), (byte) number, 0, (byte) (10*number), 0, (byte) marker, 0, 0};
+	}
+
+}
@@ -0,0 +1,138 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import datastreamer.DataSource;
+import datastreamer.MarkersEncoder;
+import datastreamer.WireFormat;
+
+/**
+ * Encodes coda frames with {@link CANDeltaEncoder}, then rebuilds them as a CAN receiver would :
+ * rebuilt frames must be the V1 frames, with fewer messages than markers when motion is small.
+ * @author fbuloup
+ */
+public class CANDeltaEncoderTest {
+
+	private final static int NB_MARKERS = 8;
+	private final static int NB_FRAMES = 200;
+	private final static int KEY_FRAME_INTERVAL = 50;
+
+	@Test
+	public void receiverRebuildsFrames() {
+		CANDeltaEncoder encoder = new CANDeltaEncoder(KEY_FRAME_INTERVAL);
+		Receiver receiver = new Receiver();
+		int nbMessages = 0;
+		for (int n = 0; n < NB_FRAMES; n++) {
+			byte[] frame = createFrame(n);
+			int length = encoder.encode(DataSource.CODA, frame);
+			assertEquals(0, length%WireFormat.MARKER_LENGTH);
+			byte[] rebuiltFrame = receiver.decode(encoder.getMessages(), length);
+			assertArrayEquals("Frame " + n, frame, rebuiltFrame);
+			nbMessages += length/WireFormat.MARKER_LENGTH;
+		}
+		assertTrue("Delta encoding saves no message", nbMessages < NB_FRAMES*NB_MARKERS*3/4);
+	}
+
+	@Test
+	public void firstFrameAndKeyFramesAreV1() {
+		CANDeltaEncoder encoder = new CANDeltaEncoder(KEY_FRAME_INTERVAL);
+		for (int n = 0; n <= KEY_FRAME_INTERVAL; n++) {
+			byte[] frame = createFrame(n);
+			int length = encoder.encode(DataSource.CODA, frame);
+			if(n%KEY_FRAME_INTERVAL == 0) assertArrayEquals(frame, Arrays.copyOf(encoder.getMessages(), length));
+			else assertTrue(length < frame.length);
+		}
+	}
+
+	@Test
+	public void resyncSendsKeyFrame() {
+		CANDeltaEncoder encoder = new CANDeltaEncoder(KEY_FRAME_INTERVAL);
+		encoder.encode(DataSource.CODA, createFrame(0));
+		encoder.resync(DataSource.CODA);
+		byte[] frame = createFrame(1);
+		int length = encoder.encode(DataSource.CODA, frame);
+		assertArrayEquals(frame, Arrays.copyOf(encoder.getMessages(), length));
+	}
+
+	@Test
+	public void otherSourcesAreUnchanged() {
+		CANDeltaEncoder encoder = new CANDeltaEncoder(KEY_FRAME_INTERVAL);
+		byte[] frame = {(byte) 0xA4, (byte) 0x85, 12, 1, 2, 3, 0, 7};
+		int length = encoder.encode(DataSource.TIME_STAMP, frame);
+		assertArrayEquals(frame, Arrays.copyOf(encoder.getMessages(), length));
+	}
+
+	/**
+	 * Markers move slowly, one of them jumps every 10 frames and another one blinks.
+	 */
+	private static byte[] createFrame(int n) {
+		float[] positions = new float[3*NB_MARKERS];
+		byte[] visibilities = new byte[NB_MARKERS];
+		for (int j = 0; j < NB_MARKERS; j++) {
+			positions[3*j] = -1500 + 50*j + 0.5f*n;
+			positions[3*j + 1] = 300 - 0.8f*n*(j%3);
+			positions[3*j + 2] = 1000 + ((j == 3 && n%10 == 0) ? 200 : 0);
+			visibilities[j] = (byte) ((j == 5 && n%7 < 3) ? 0 : 1);
+		}
+		byte[] frame = new byte[WireFormat.MARKER_LENGTH*NB_MARKERS];
+		MarkersEncoder.encode((byte) 0, (byte) n, positions, visibilities, NB_MARKERS, 10, frame);
+		return frame;
+	}
+
+	/**
+	 * CAN receiver : keeps last values of each marker and applies key and delta messages.
+	 */
+	private static class Receiver {
+
+		private final short[] values = new short[3*NB_MARKERS];
+		private final boolean[] visibilities = new boolean[NB_MARKERS];
+		private int systemCode;
+		private int frameID;
+
+		byte[] decode(byte[] messages, int length) {
+			for (int m = 0; m < length; m += WireFormat.MARKER_LENGTH) {
+				systemCode = (messages[m] & 0xFF) >> 6;
+				frameID = messages[m + 1] & 0xFF;
+				if((messages[m] & 0x3F) != 0) {
+					// Key message : V1 marker
+					int marker = (messages[m] & 0x1F) - 1;
+					visibilities[marker] = (messages[m] & 0x20) != 0;
+					for (int axis = 0; axis < 3; axis++) values[3*marker + axis] = (short) (((messages[m + 2 + 2*axis] & 0xFF) << 8) | (messages[m + 3 + 2*axis] & 0xFF));
+					continue;
+				}
+				long packedMarkers = 0;
+				for (int i = 2; i < WireFormat.MARKER_LENGTH; i++) packedMarkers = (packedMarkers << 8) | (messages[m + i] & 0xFF);
+				int firstMarker = (int) (packedMarkers >> 42);
+				for (int k = 0; k < 2; k++) {
+					int packedMarker = (int) ((packedMarkers >> (22 - 20*k)) & 0xFFFFF);
+					if((packedMarker & 0x80000) == 0) continue;
+					int marker = firstMarker + k;
+					visibilities[marker] = (packedMarker & 0x40000) != 0;
+					for (int axis = 0; axis < 3; axis++) {
+						int delta = (packedMarker >> (12 - 6*axis)) & 0x3F;
+						if(delta >= 32) delta -= 64;
+						values[3*marker + axis] += delta;
+					}
+				}
+			}
+			byte[] frame = new byte[WireFormat.MARKER_LENGTH*NB_MARKERS];
+			for (int j = 0; j < NB_MARKERS; j++) {
+				frame[WireFormat.MARKER_LENGTH*j] = (byte) ((systemCode << 6) | (visibilities[j] ? 0x20 : 0) | (j + 1));
+				frame[WireFormat.MARKER_LENGTH*j + 1] = (byte) frameID;
+				for (int axis = 0; axis < 3; axis++) {
+					frame[WireFormat.MARKER_LENGTH*j + 2 + 2*axis] = (byte) (values[3*j + axis] >> 8);
+					frame[WireFormat.MARKER_LENGTH*j + 3 + 2*axis] = (byte) values[3*j + axis];
+				}
+			}
+			return frame;
+		}
+
+	}
+
+}
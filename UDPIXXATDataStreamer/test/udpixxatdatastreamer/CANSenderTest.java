@@ -0,0 +1,110 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+import de.ixxat.vci3.bal.can.CanMessage;
+
+/**
+ * Splitting of frames into CAN messages and FIFO policies of {@link CANSender}, on a {@link FakeCanMessageWriter}.
+ * @author fbuloup
+ */
+public class CANSenderTest {
+
+	@Test
+	public void frameIsSplitIntoPaddedMessages() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.DROP_FRAME, 2, 0, new TransportMonitor());
+		assertTrue(sender.send(createFrame(1, 12)));
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(2, messages.size());
+		assertArrayEquals(new byte[] {1, 1, 2, 3, 4, 5, 6, 7}, messages.get(0));
+		assertArrayEquals(new byte[] {8, 9, 10, 11, 0, 0, 0, 0}, messages.get(1));
+	}
+
+	@Test
+	public void frameIsNeverPartiallySent() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(1);
+		TransportMonitor monitor = new TransportMonitor();
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.DROP_FRAME, 2, 0, monitor);
+		assertFalse(sender.send(createFrame(1, 16)));
+		assertEquals(0, writer.getMessages().size());
+		assertEquals(1, monitor.getFifoFullEvents());
+	}
+
+	@Test
+	public void waitPolicyWritesFrameOnceFifoHasRoom() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 16);
+		writer.setFreeCount(0);
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.WAIT, 100, 0, new TransportMonitor());
+		assertTrue(sender.send(createFrame(1, 16)));
+		assertEquals(2, writer.getMessages().size());
+	}
+
+	@Test
+	public void backlogKeepsNewestFramesAndIsDrainedByFlush() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(0);
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.DROP_OLDEST, 2, 4, new TransportMonitor());
+		for (int i = 0; i < 6; i++) assertFalse(sender.send(createFrame(i, 8)));
+		assertEquals(4, sender.getBacklogSize());
+
+		// No frame comes after : flush writes what fits
+		sender.flush();
+		assertEquals(4, sender.getBacklogSize());
+		writer.setFreeCount(3);
+		sender.flush();
+		assertEquals(1, sender.getBacklogSize());
+		writer.setFreeCount(16);
+		sender.flush();
+		assertEquals(0, sender.getBacklogSize());
+
+		// Two oldest frames were dropped, others are written in order
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(4, messages.size());
+		for (int i = 0; i < 4; i++) assertEquals(i + 2, messages.get(i)[0]);
+	}
+
+	@Test
+	public void backlogIsWrittenBeforeNextFrame() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 0);
+		writer.setFreeCount(0);
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.DROP_OLDEST, 2, 4, new TransportMonitor());
+		assertFalse(sender.send(createFrame(1, 8)));
+		writer.setFreeCount(16);
+		assertTrue(sender.send(createFrame(2, 8)));
+		ArrayList<byte[]> messages = writer.getMessages();
+		assertEquals(2, messages.size());
+		assertEquals(1, messages.get(0)[0]);
+		assertEquals(2, messages.get(1)[0]);
+	}
+
+	@Test
+	public void drainWaitsForRoom() throws Throwable {
+		FakeCanMessageWriter writer = new FakeCanMessageWriter(16, 1);
+		writer.setFreeCount(0);
+		CANSender sender = new CANSender(writer, new CanMessage(), CANSender.FifoPolicy.DROP_OLDEST, 2, 4, new TransportMonitor());
+		for (int i = 0; i < 3; i++) sender.send(createFrame(i, 8));
+		sender.drain(1000);
+		assertEquals(0, sender.getBacklogSize());
+		assertEquals(3, writer.getMessages().size());
+	}
+
+	/**
+	 * @return frame whose first byte is its number, next bytes their index
+	 */
+	private static byte[] createFrame(int number, int length) {
+		byte[] frame = new byte[length];
+		frame[0] = (byte) number;
+		for (int i = 1; i < length; i++) frame[i] = (byte) i;
+		return frame;
+	}
+
+}
@@ -0,0 +1,79 @@
+package udpixxatdatastreamer;
+
+import java.util.ArrayList;
+
+import de.ixxat.vci3.bal.can.CanMessage;
+import de.ixxat.vci3.bal.can.ICanMessageWriter;
+
+/**
+ * Transmit FIFO without CAN adapter : written messages payloads are recorded, free entries are set by tests.
+ * Each wait for room frees a given number of entries, as if bus sent them.
+ * @author fbuloup
+ */
+class FakeCanMessageWriter implements ICanMessageWriter {
+
+	private final int capacity;
+	private final int freedOnWait;
+	private int freeCount;
+	private final ArrayList<byte[]> messages = new ArrayList<byte[]>();
+
+	/**
+	 * @param capacity FIFO capacity, FIFO is empty
+	 * @param freedOnWait number of entries freed by each {@link #WaitFor(int)}
+	 */
+	FakeCanMessageWriter(int capacity, int freedOnWait) {
+		this.capacity = capacity;
+		this.freedOnWait = freedOnWait;
+		freeCount = capacity;
+	}
+
+	synchronized void setFreeCount(int freeCount) {
+		this.freeCount = freeCount;
+	}
+
+	/**
+	 * @return copy of payloads written so far
+	 */
+	synchronized ArrayList<byte[]> getMessages() {
+		return new ArrayList<byte[]>(messages);
+	}
+
+	@Override
+	public synchronized int GetCapacity() {
+		return capacity;
+	}
+
+	@Override
+	public synchronized int GetFillCount() {
+		return capacity - freeCount;
+	}
+
+	@Override
+	public synchronized int GetFreeCount() {
+		return freeCount;
+	}
+
+	@Override
+	public void WaitFor(int timeout) throws Throwable {
+		Thread.sleep(1);
+		synchronized (this) {
+			freeCount = Math.min(capacity, freeCount + freedOnWait);
+		}
+	}
+
+	@Override
+	public void CancelWait() {
+	}
+
+	@Override
+	public synchronized void WriteMessage(CanMessage canMessage) {
+		if(freeCount == 0) throw new IllegalStateException("Transmit FIFO is full");
+		freeCount--;
+		messages.add(canMessage.m_abData.clone());
+	}
+
+	@Override
+	public void Dispose() {
+	}
+
+}
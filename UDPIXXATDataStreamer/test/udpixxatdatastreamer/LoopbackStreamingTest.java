@@ -0,0 +1,178 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import datastreamer.DataSource;
+import datastreamer.DataStreamer;
+import datastreamer.WireFormat;
+
+/**
+ * Streams time stamp and simulated coda frames through {@link DataStreamer}, {@link UDPIXXATDataStreamer}
+ * and {@link LoopbackTransport}, then checks frames recorded by loopback : order and sequence numbers
+ * of each source, acquisition and send times, frame bytes.<br>
+ * DataStreamer configuration is static : each test gives every parameter it relies on.
+ * @author fbuloup
+ */
+public class LoopbackStreamingTest {
+
+	private final static int STREAMING_TIME = 500;
+	private final static int LOOPBACK_CAPACITY = 65536;
+	private final static int NB_CODA_MARKERS = 4;
+
+	@Before
+	public void resetSources() {
+		UDPIXXATDataStreamer.useCodamotion = false;
+		UDPIXXATDataStreamer.useXSens = false;
+		UDPIXXATDataStreamer.useTimeStamp = false;
+		UDPIXXATDataStreamer.useOptitrack = false;
+		UDPIXXATDataStreamer.useReplay = false;
+	}
+
+	@Test
+	public void timeStampFramesAreSentInOrder() throws Exception {
+		UDPIXXATDataStreamer.useTimeStamp = true;
+		LoopbackTransport loopback = stream(DataStreamer.timeStampSampleFrequencyToken, "1000", DataStreamer.timeStampResolutionToken, "microsecond",
+				DataStreamer.wireFormatToken, "v1", DataStreamer.asyncObserversToken, "false");
+		checkSources(loopback);
+		checkTimeStampFrames(loopback);
+	}
+
+	@Test
+	public void asynchronousObserverKeepsOrder() throws Exception {
+		UDPIXXATDataStreamer.useTimeStamp = true;
+		LoopbackTransport loopback = stream(DataStreamer.timeStampSampleFrequencyToken, "1000", DataStreamer.timeStampResolutionToken, "microsecond",
+				DataStreamer.wireFormatToken, "v1", DataStreamer.asyncObserversToken, "true", DataStreamer.observerOverflowPolicyToken, "block");
+		checkSources(loopback);
+		checkTimeStampFrames(loopback);
+	}
+
+	@Test
+	public void codaAndTimeStampFramesAreSentInV2() throws Exception {
+		UDPIXXATDataStreamer.useCodamotion = true;
+		UDPIXXATDataStreamer.useTimeStamp = true;
+		LoopbackTransport loopback = stream(DataStreamer.codaSimulatorToken, "true", DataStreamer.codaSimulatorDropoutRateToken, "0",
+				DataStreamer.frameRateToken, "200", DataStreamer.nbMarkersToken, String.valueOf(NB_CODA_MARKERS), DataStreamer.framesNumberToken, "-1",
+				DataStreamer.timeStampSampleFrequencyToken, "500", DataStreamer.timeStampResolutionToken, "microsecond",
+				DataStreamer.wireFormatToken, "v2", DataStreamer.asyncObserversToken, "false");
+		checkSources(loopback);
+		checkTimeStampFrames(loopback);
+		checkCodaFrames(loopback);
+	}
+
+	/**
+	 * Stream for {@link #STREAMING_TIME} ms to a streamer whose only transport is a loopback.
+	 * @param parameters data streamer parameters
+	 * @return loopback, closed
+	 */
+	private static LoopbackTransport stream(String... parameters) throws Exception {
+		UDPIXXATDataStreamer streamer = new UDPIXXATDataStreamer(new String[] {UDPIXXATDataStreamer.udpStreamerToken, "false"});
+		LoopbackTransport loopback = new LoopbackTransport(LOOPBACK_CAPACITY);
+		assertTrue(streamer.addTransport(loopback));
+		DataStreamer dataStreamer = new DataStreamer(parameters);
+		dataStreamer.addObserver(streamer);
+		try {
+			dataStreamer.start();
+			Thread.sleep(STREAMING_TIME);
+			dataStreamer.interrupt();
+			dataStreamer.join();
+		} finally {
+			dataStreamer.removeObserver(streamer);
+			streamer.dispose();
+		}
+		assertTrue("No frame sent", loopback.getNbRecordedFrames() > 0);
+		assertEquals(loopback.getNbFrames(), loopback.getNbRecordedFrames());
+		// Dispatcher flushes transports while it waits for frames, close flushes once more
+		assertTrue("Transport never flushed while streaming", loopback.getNbFlushes() > 1);
+		return loopback;
+	}
+
+	/**
+	 * Each source sequence numbers start from 0 without gap, acquisition times of a source never go back,
+	 * frames are sent in dispatch order after they were acquired.
+	 */
+	private static void checkSources(LoopbackTransport loopback) {
+		int[] nextSequences = new int[DataSource.values().length];
+		long[] lastAcquisitionTimes = new long[DataSource.values().length];
+		long lastSendTime = Long.MIN_VALUE;
+		for (int i = 0; i < loopback.getNbRecordedFrames(); i++) {
+			DataSource source = loopback.getSource(i);
+			assertNotNull("Frame " + i + " without source", source);
+			int s = source.ordinal();
+			assertEquals("Frame " + i + " of " + source, nextSequences[s], loopback.getSequence(i));
+			nextSequences[s]++;
+			long acquisitionTime = loopback.getAcquisitionTime(i);
+			if(nextSequences[s] > 1) assertTrue("Frame " + i + " of " + source + " acquired before previous one", acquisitionTime >= lastAcquisitionTimes[s]);
+			lastAcquisitionTimes[s] = acquisitionTime;
+			long sendTime = loopback.getSendTime(i);
+			assertTrue("Frame " + i + " sent before being acquired", sendTime >= acquisitionTime);
+			assertTrue("Frame " + i + " sent before previous one", sendTime >= lastSendTime);
+			lastSendTime = sendTime;
+		}
+	}
+
+	/**
+	 * Microsecond time stamp frames : system code 2, resolution bits set and increasing ticks.
+	 */
+	private static void checkTimeStampFrames(LoopbackTransport loopback) {
+		int nbFrames = 0;
+		int lastTick = -1;
+		for (int i = 0; i < loopback.getNbRecordedFrames(); i++) {
+			if(loopback.getSource(i) != DataSource.TIME_STAMP) continue;
+			byte[] frame = loopback.getFrame(i);
+			assertEquals(8, frame.length);
+			assertEquals(2, (frame[0] & 0xFF) >> 6);
+			assertTrue((frame[0] & 0x20) != 0);
+			assertTrue((frame[1] & 0x80) != 0);
+			int tick = ((frame[6] & 0xFF) << 8) | (frame[7] & 0xFF);
+			if(lastTick >= 0) {
+				int delta = (tick - lastTick) & 0xFFFF;
+				assertTrue("Time stamp frame " + i + " tick " + tick + " after " + lastTick, delta > 0 && delta < 0x8000);
+			}
+			lastTick = tick;
+			nbFrames++;
+		}
+		assertTrue("No time stamp frame", nbFrames > 0);
+	}
+
+	/**
+	 * V2 coda frames : V1 markers with system code 0, marker numbers and a frameID shared by all markers
+	 * that changes every frame, followed by float coordinates matching V1 values.
+	 */
+	private static void checkCodaFrames(LoopbackTransport loopback) {
+		int nbFrames = 0;
+		int lastFrameID = -1;
+		for (int i = 0; i < loopback.getNbRecordedFrames(); i++) {
+			if(loopback.getSource(i) != DataSource.CODA) continue;
+			byte[] frame = loopback.getFrame(i);
+			assertEquals(WireFormat.V2.getMarkerLength()*NB_CODA_MARKERS, frame.length);
+			int frameID = frame[1] & 0xFF;
+			if(lastFrameID >= 0) assertTrue("Coda frame " + i + " has same frameID as previous one", frameID != lastFrameID);
+			lastFrameID = frameID;
+			int coordinatesStart = WireFormat.MARKER_LENGTH*NB_CODA_MARKERS;
+			for (int j = 0; j < NB_CODA_MARKERS; j++) {
+				int offset = WireFormat.MARKER_LENGTH*j;
+				assertEquals(0, (frame[offset] & 0xFF) >> 6);
+				assertEquals(j + 1, frame[offset] & 0x1F);
+				assertEquals(frameID, frame[offset + 1] & 0xFF);
+				for (int axis = 0; axis < 3; axis++) {
+					short v1Value = (short) (((frame[offset + 2 + 2*axis] & 0xFF) << 8) | (frame[offset + 3 + 2*axis] & 0xFF));
+					float millimeters = Float.intBitsToFloat(getInt(frame, coordinatesStart + WireFormat.COORDINATES_LENGTH*j + 4*axis));
+					// V1 values are tenths of millimeter, truncated
+					assertEquals(10*millimeters, v1Value, 1);
+				}
+			}
+			nbFrames++;
+		}
+		assertTrue("No coda frame", nbFrames > 0);
+	}
+
+	private static int getInt(byte[] buffer, int index) {
+		return ((buffer[index] & 0xFF) << 24) | ((buffer[index + 1] & 0xFF) << 16) | ((buffer[index + 2] & 0xFF) << 8) | (buffer[index + 3] & 0xFF);
+	}
+
+}
@@ -0,0 +1,90 @@
+package udpixxatdatastreamer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import datastreamer.DataSource;
+import datastreamer.MarkersEncoder;
+import datastreamer.WireFormat;
+
+/**
+ * Decodes frames encoded by {@link WireFormatV2Encoder} : header, markers in both coordinates types and other sources bodies.
+ * @author fbuloup
+ */
+public class WireFormatV2EncoderTest {
+
+	private final static int NB_MARKERS = 3;
+	private final static float[] POSITIONS = {-1500.25f, 300.5f, 1000f, -1450f, -12.75f, 1100.125f, 20f, 0f, -3.5f};
+	private final static byte[] VISIBILITIES = {1, 0, 1};
+
+	@Test
+	public void codaFrameWithFloatCoordinates() {
+		WireFormatV2Encoder encoder = new WireFormatV2Encoder(WireFormatV2Encoder.Coordinates.FLOAT);
+		long acquisitionTime = System.nanoTime();
+		ByteBuffer frame = ByteBuffer.wrap(encoder.encode(DataSource.CODA, 7, acquisitionTime, createCodaFrame()));
+		checkHeader(frame, DataSource.CODA, 1, NB_MARKERS, WireFormatV2Encoder.MARKER_SIZE*NB_MARKERS, 7, acquisitionTime);
+		for (int j = 0; j < NB_MARKERS; j++) {
+			frame.position(WireFormatV2Encoder.HEADER_SIZE + WireFormatV2Encoder.MARKER_SIZE*j);
+			assertEquals(j + 1, frame.getShort());
+			assertEquals(VISIBILITIES[j], frame.get());
+			assertEquals(0, frame.get());
+			for (int axis = 0; axis < 3; axis++) assertEquals(POSITIONS[3*j + axis], frame.getFloat(), 0);
+		}
+	}
+
+	@Test
+	public void codaFrameWithMicrometerCoordinates() {
+		WireFormatV2Encoder encoder = new WireFormatV2Encoder(WireFormatV2Encoder.Coordinates.MICROMETER);
+		long acquisitionTime = System.nanoTime();
+		ByteBuffer frame = ByteBuffer.wrap(encoder.encode(DataSource.CODA, -2, acquisitionTime, createCodaFrame()));
+		checkHeader(frame, DataSource.CODA, 2, NB_MARKERS, WireFormatV2Encoder.MARKER_SIZE*NB_MARKERS, -2, acquisitionTime);
+		for (int j = 0; j < NB_MARKERS; j++) {
+			frame.position(WireFormatV2Encoder.HEADER_SIZE + WireFormatV2Encoder.MARKER_SIZE*j + 4);
+			for (int axis = 0; axis < 3; axis++) assertEquals(Math.round(1000*POSITIONS[3*j + axis]), frame.getInt());
+		}
+	}
+
+	@Test
+	public void timeStampFrameIsCopied() {
+		WireFormatV2Encoder encoder = new WireFormatV2Encoder(WireFormatV2Encoder.Coordinates.FLOAT);
+		byte[] timeStampFrame = {(byte) 0xA4, (byte) 0x85, 12, 1, 2, 3, 0, 7};
+		long acquisitionTime = System.nanoTime();
+		byte[] encodedFrame = encoder.encode(DataSource.TIME_STAMP, 123456, acquisitionTime, timeStampFrame);
+		checkHeader(ByteBuffer.wrap(encodedFrame), DataSource.TIME_STAMP, 0, 0, timeStampFrame.length, 123456, acquisitionTime);
+		assertArrayEquals(timeStampFrame, Arrays.copyOfRange(encodedFrame, WireFormatV2Encoder.HEADER_SIZE, encodedFrame.length));
+	}
+
+	private static void checkHeader(ByteBuffer frame, DataSource source, int coordinates, int nbMarkers, int bodyLength, int sequence, long acquisitionTime) {
+		assertEquals(WireFormatV2Encoder.HEADER_SIZE + bodyLength, frame.limit());
+		assertEquals(WireFormatV2Encoder.VERSION, frame.get());
+		assertEquals(source.ordinal(), frame.get());
+		assertEquals(coordinates, frame.get());
+		assertEquals(0, frame.get());
+		assertEquals(nbMarkers, frame.getShort());
+		assertEquals(bodyLength, frame.getShort());
+		assertEquals(sequence, frame.getInt());
+		// Acquisition time is wall clock time of acquisition, encoder reads wall clock once
+		Instant now = Instant.now();
+		long nowEpochNanos = now.getEpochSecond()*1000000000L + now.getNano();
+		long epochNanos = frame.getLong();
+		assertTrue("Acquisition time " + epochNanos + " far from " + nowEpochNanos, Math.abs(nowEpochNanos - (System.nanoTime() - acquisitionTime) - epochNanos) < 100000000L);
+	}
+
+	/**
+	 * @return V2 coda frame, V1 markers followed by float coordinates
+	 */
+	private static byte[] createCodaFrame() {
+		byte[] frame = new byte[WireFormat.V2.getMarkerLength()*NB_MARKERS];
+		MarkersEncoder.encode((byte) 0, (byte) 42, POSITIONS, VISIBILITIES, NB_MARKERS, 10, frame);
+		MarkersEncoder.encodeCoordinates(POSITIONS, NB_MARKERS, 1, frame, WireFormat.MARKER_LENGTH*NB_MARKERS);
+		return frame;
+	}
+
+}